@@ -0,0 +1,90 @@
+import org.junit.Test;
+import org.panda.causalpath.resource.ProteomicsFileReader;
+import org.panda.resource.tcga.ProteomicsFileRow;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that reading a proteomics file in a single pass with readRows gives the same rows as reading the annotation
+ * with readAnnotation and then adding the values with addValues.
+ */
+public class ProteomicsFileReaderTest {
+
+    private static final String HEADER = "ID\tSymbols\tSites\tFeature\tEffect\tc1\tc2\tc3";
+
+    private static final List<String> VALUE_COLUMNS = Arrays.asList("c1", "c2", "c3");
+
+    /**
+     * Rows with blank fields, duplicate IDs, and numbers in exponent, hex and other formats that the fast parsing
+     * path does not handle.
+     */
+    private static final String[] LINES = {
+            "AKT1-S473\tAKT1\tS473\tP\ta\t1.5\t-2\t0.25",
+            "MAPK1-T185\tMAPK1 MAPK3\tT185|Y187 T202|Y204\tP\ti\t1.5e3\t2E-4\t-3.25e+2",
+            "STAT3\tSTAT3\t\t\t\t\t7\t",
+            "TP53\tTP53\t\tP\tc\t0x1p3\t0x1.8p1\t-0x1p-2",
+            "AKT1-S473\tAKT1\tS473\tP\ta\t9\t8\t7",
+            "EGFR\tEGFR\t\t\t\tNaN\tInfinity\t-Infinity",
+            "MYC\tMYC\t\t\t\t0.12345678901234567\t-0\t1e400",
+            "BAD\tBAD\tS112\tP\t\t+4.5\tabc\t 2.5",
+            "JUN\tJUN\tS63\tP\ti\t1.\t.5\t00012.50",
+    };
+
+    @Test
+    public void testUnixLineEndings() throws IOException {
+        assertSameRows(String.join("\n", LINES) + "\n");
+    }
+
+    @Test
+    public void testWindowsLineEndings() throws IOException {
+        assertSameRows(String.join("\r\n", LINES) + "\r\n");
+    }
+
+    @Test
+    public void testNoFinalLineEnd() throws IOException {
+        assertSameRows(String.join("\r\n", LINES));
+    }
+
+    /**
+     * Writes the given rows after the header, with the same line ending, and compares the two ways of reading.
+     */
+    private void assertSameRows(String body) throws IOException {
+        String lineEnd = body.contains("\r\n") ? "\r\n" : "\n";
+        Path file = Files.createTempFile("proteomics", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, (HEADER + lineEnd + body).getBytes(StandardCharsets.UTF_8));
+        String filename = file.toString();
+
+        for (boolean log : new boolean[]{false, true}) {
+            for (int threads : new int[]{1, 4}) {
+                List<ProteomicsFileRow> expected = ProteomicsFileReader.readAnnotation(filename, "ID", "Symbols",
+                        "Sites", "Feature", "Effect");
+                ProteomicsFileReader.addValues(expected, filename, "ID", VALUE_COLUMNS, null, log);
+
+                List<ProteomicsFileRow> actual = ProteomicsFileReader.readRows(filename, "ID", "Symbols", "Sites",
+                        "Feature", "Effect", VALUE_COLUMNS, log, threads);
+
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    ProteomicsFileRow exp = expected.get(i);
+                    ProteomicsFileRow act = actual.get(i);
+
+                    String msg = "Row " + i + " (" + exp.id + ")";
+                    assertEquals(msg, exp.id, act.id);
+                    assertEquals(msg, exp.genes, act.genes);
+                    assertEquals(msg, exp.sites, act.sites);
+                    assertEquals(msg, exp.mod, act.mod);
+                    assertEquals(msg, exp.effect, act.effect);
+                    assertArrayEquals(msg, exp.vals, act.vals, 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.panda.causalpath.analyzer;
+
+import org.junit.Test;
+import org.panda.utility.Tuple;
+import org.panda.utility.statistics.TTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the batch t-tests give the same results as the t-tests of the statistics library on the subsets of the
+ * non-missing values.
+ */
+public class BatchTTestTest
+{
+	private static final int SAMPLES = 16;
+
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * Control and test samples are interleaved, so that the index mapping is tested too.
+	 */
+	private static final boolean[] CONTROL = new boolean[SAMPLES];
+	private static final boolean[] TEST = new boolean[SAMPLES];
+
+	static
+	{
+		for (int i = 0; i < SAMPLES; i++)
+		{
+			CONTROL[i] = i % 2 == 0;
+			TEST[i] = !CONTROL[i];
+		}
+	}
+
+	@Test
+	public void testUnpairedMatchesLibrary()
+	{
+		double[][] rows = createRows(200, 0.2, 1);
+		assertMatchesLibrary(rows, false, 3);
+	}
+
+	@Test
+	public void testPairedMatchesLibrary()
+	{
+		double[][] rows = createRows(200, 0.2, 2);
+		assertMatchesLibrary(rows, true, 3);
+	}
+
+	@Test
+	public void testSmallSamples()
+	{
+		// Two values in each group, then one value in a group
+		double[][] rows = createRows(50, 0, 3);
+		for (double[] row : rows)
+		{
+			for (int i = 4; i < SAMPLES; i++)
+			{
+				row[i] = Double.NaN;
+			}
+		}
+		double[][] single = createRows(50, 0, 4);
+		for (double[] row : single)
+		{
+			for (int i = 3; i < SAMPLES; i++)
+			{
+				row[i] = Double.NaN;
+			}
+		}
+
+		for (boolean paired : new boolean[]{false, true})
+		{
+			assertMatchesLibrary(rows, paired, 2);
+			assertMatchesLibrary(single, paired, 1);
+
+			// Samples below the minimum size are not tested
+			double[] p = new double[rows.length];
+			new BatchTTest(CONTROL, TEST, paired).test(rows, 3, new double[rows.length], p);
+			for (double v : p)
+			{
+				assertTrue(Double.isNaN(v));
+			}
+		}
+	}
+
+	/**
+	 * Tests the rows in batch, and with the library one by one.
+	 */
+	private void assertMatchesLibrary(double[][] rows, boolean paired, int minSampleSize)
+	{
+		double[] t = new double[rows.length];
+		double[] p = new double[rows.length];
+		new BatchTTest(CONTROL, TEST, paired).test(rows, minSampleSize, t, p);
+
+		int tested = 0;
+		for (int i = 0; i < rows.length; i++)
+		{
+			double[][] groups = paired ? getPairs(rows[i]) : getGroups(rows[i]);
+			double[] ctrl = groups[0];
+			double[] test = groups[1];
+
+			// The library is not asked below the minimum sample size, nor with a single value in a group
+			if (ctrl.length < Math.max(2, minSampleSize) || test.length < Math.max(2, minSampleSize))
+			{
+				assertTrue("Row " + i, Double.isNaN(p[i]));
+				assertTrue("Row " + i, Double.isNaN(t[i]));
+				continue;
+			}
+
+			Tuple expected = paired ? TTest.testPaired(ctrl, test) : TTest.test(ctrl, test);
+			assertEquals("Row " + i, expected.p, p[i], DELTA);
+			assertEquals("Row " + i, Math.signum(expected.v), Math.signum(t[i]), 0);
+			tested++;
+		}
+		if (minSampleSize > 1) assertTrue(tested > 0);
+	}
+
+	/**
+	 * Gets the non-missing control and test values.
+	 */
+	private double[][] getGroups(double[] row)
+	{
+		List<Double> ctrl = new ArrayList<>();
+		List<Double> test = new ArrayList<>();
+		for (int i = 0; i < SAMPLES; i++)
+		{
+			if (Double.isNaN(row[i])) continue;
+			if (CONTROL[i]) ctrl.add(row[i]);
+			else test.add(row[i]);
+		}
+		return new double[][]{toArray(ctrl), toArray(test)};
+	}
+
+	/**
+	 * Gets the control and test values of the pairs that have no missing value. The k-th control sample is paired with
+	 * the k-th test sample.
+	 */
+	private double[][] getPairs(double[] row)
+	{
+		List<Double> ctrl = new ArrayList<>();
+		List<Double> test = new ArrayList<>();
+		for (int i = 0; i < SAMPLES; i += 2)
+		{
+			if (Double.isNaN(row[i]) || Double.isNaN(row[i + 1])) continue;
+			ctrl.add(row[i]);
+			test.add(row[i + 1]);
+		}
+		return new double[][]{toArray(ctrl), toArray(test)};
+	}
+
+	private double[] toArray(List<Double> list)
+	{
+		return list.stream().mapToDouble(Double::doubleValue).toArray();
+	}
+
+	/**
+	 * Creates rows with a random shift of the test group, and with the given ratio of missing values.
+	 */
+	private double[][] createRows(int n, double missingRatio, long seed)
+	{
+		Random random = new Random(seed);
+		double[][] rows = new double[n][SAMPLES];
+		for (double[] row : rows)
+		{
+			double shift = random.nextGaussian();
+			for (int i = 0; i < SAMPLES; i++)
+			{
+				row[i] = random.nextDouble() < missingRatio ? Double.NaN :
+					random.nextGaussian() + (TEST[i] ? shift : 0);
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,124 @@
+package org.panda.causalpath.analyzer;
+
+import org.junit.Test;
+import org.panda.utility.statistics.FDR;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the p-value thresholds and the q-values agree with the FDR control of the statistics library.
+ */
+public class BenjaminiHochbergTest
+{
+	private static final double[] FDR_LEVELS = {0, 0.001, 0.01, 0.05, 0.1, 0.2, 0.5, 1};
+
+	@Test
+	public void testRandomPValues()
+	{
+		Random random = new Random(1);
+		for (int n : new int[]{1, 2, 10, 1000})
+		{
+			double[] pvals = new double[n];
+			for (int i = 0; i < n; i++)
+			{
+				// Mix of signal and noise
+				pvals[i] = random.nextBoolean() ? random.nextDouble() : random.nextDouble() / 1000;
+			}
+			assertMatchesLibrary(pvals);
+		}
+	}
+
+	@Test
+	public void testTies()
+	{
+		Random random = new Random(2);
+		double[] pvals = new double[500];
+		for (int i = 0; i < pvals.length; i++)
+		{
+			// Few distinct values, such as the ones from randomizations
+			pvals[i] = (random.nextInt(50) + 1) / 1000D;
+		}
+		assertMatchesLibrary(pvals);
+
+		assertMatchesLibrary(new double[]{0.01, 0.01, 0.01, 0.01});
+		assertMatchesLibrary(new double[]{0, 0, 0.5, 0.5, 1, 1});
+	}
+
+	@Test
+	public void testNaNs()
+	{
+		Random random = new Random(3);
+		double[] pvals = new double[300];
+		for (int i = 0; i < pvals.length; i++)
+		{
+			pvals[i] = random.nextInt(5) == 0 ? Double.NaN : random.nextDouble() / 100;
+		}
+		assertMatchesLibrary(pvals);
+
+		BenjaminiHochberg bh = new BenjaminiHochberg(pvals);
+		double[] q = bh.getQValues();
+		int tests = 0;
+		for (int i = 0; i < pvals.length; i++)
+		{
+			assertEquals(Double.isNaN(pvals[i]), Double.isNaN(q[i]));
+			if (!Double.isNaN(pvals[i])) tests++;
+		}
+		assertEquals(tests, bh.size());
+
+		assertMatchesLibrary(new double[]{Double.NaN, Double.NaN});
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		BenjaminiHochberg bh = new BenjaminiHochberg(new double[0]);
+		assertEquals(0, bh.size());
+		assertEquals(0, bh.getQValues().length);
+		for (double fdr : FDR_LEVELS)
+		{
+			assertEquals(0, bh.getSelectedCount(fdr));
+			assertEquals(0, bh.getPValueThreshold(fdr), 0);
+		}
+		assertMatchesLibrary(new double[0]);
+	}
+
+	/**
+	 * Compares the p-value thresholds with the library at several FDR levels, and checks that the tests with q-values
+	 * in the FDR level are the ones selected by the threshold. NaN p-values are not given to the library, since they are
+	 * not tests.
+	 */
+	private void assertMatchesLibrary(double[] pvals)
+	{
+		Map<Integer, Double> map = new HashMap<>();
+		for (int i = 0; i < pvals.length; i++)
+		{
+			if (!Double.isNaN(pvals[i])) map.put(i, pvals[i]);
+		}
+
+		BenjaminiHochberg bh = new BenjaminiHochberg(pvals);
+		double[] q = bh.getQValues();
+
+		for (double fdr : FDR_LEVELS)
+		{
+			double expected = map.isEmpty() ? 0 : FDR.getPValueThreshold(map, null, fdr);
+			double thr = bh.getPValueThreshold(fdr);
+			assertEquals("FDR " + fdr, expected, thr, 0);
+			assertEquals("FDR " + fdr, thr, BenjaminiHochberg.getPValueThreshold(pvals, fdr), 0);
+
+			int selected = 0;
+			for (int i = 0; i < pvals.length; i++)
+			{
+				if (Double.isNaN(pvals[i])) continue;
+
+				boolean byQ = q[i] <= fdr;
+				assertEquals("FDR " + fdr + ", p = " + pvals[i], byQ, bh.getSelectedCount(fdr) > 0 && pvals[i] <= thr);
+				if (byQ) selected++;
+			}
+			assertEquals("FDR " + fdr, selected, bh.getSelectedCount(fdr));
+		}
+	}
+}
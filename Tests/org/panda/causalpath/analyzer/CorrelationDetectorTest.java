@@ -0,0 +1,215 @@
+package org.panda.causalpath.analyzer;
+
+import org.junit.Test;
+import org.panda.causalpath.data.NumericData;
+import org.panda.causalpath.data.ProteinData;
+import org.panda.utility.ArrayUtil;
+import org.panda.utility.Tuple;
+import org.panda.utility.statistics.Correlation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the correlations of numeric rows, calculated with the precomputed row statistics, give the same results as
+ * the correlations of the statistics library on the samples where both rows have a value.
+ */
+public class CorrelationDetectorTest
+{
+	private static final double DELTA = 1e-9;
+
+	private static final int MIN_SAMPLE_SIZE = 5;
+
+	/**
+	 * Used to give each data a different ID.
+	 */
+	private int dataCnt = 0;
+
+	@Test
+	public void testRowsWithoutNaNs()
+	{
+		// Rows shorter and longer than a word of the sample bits
+		for (int length : new int[]{MIN_SAMPLE_SIZE, 20, 64, 70})
+		{
+			double[][] rows = createRows(60, length, 0, length);
+			assertMatchesLibrary(rows);
+		}
+	}
+
+	@Test
+	public void testRowsWithNaNs()
+	{
+		for (int length : new int[]{20, 64, 70, 150})
+		{
+			double[][] rows = createRows(60, length, 0.3, length + 1);
+			assertMatchesLibrary(rows);
+		}
+
+		// Rows with and without NaNs together
+		double[][] rows = createRows(60, 70, 0.2, 3);
+		for (int i = 0; i < rows.length; i += 2)
+		{
+			rows[i] = createRows(1, 70, 0, i)[0];
+		}
+		assertMatchesLibrary(rows);
+	}
+
+	@Test
+	public void testConstantRows()
+	{
+		double[] constant = new double[20];
+		Arrays.fill(constant, 1.5);
+		double[] constantWithNaN = constant.clone();
+		constantWithNaN[3] = Double.NaN;
+		constantWithNaN[17] = Double.NaN;
+
+		double[][] others = createRows(2, 20, 0, 4);
+		double[][] othersWithNaN = createRows(2, 20, 0.2, 5);
+
+		assertMatchesLibrary(new double[][]{constant, constantWithNaN, others[0], others[1], othersWithNaN[0],
+			othersWithNaN[1]});
+	}
+
+	@Test
+	public void testPerfectCorrelation()
+	{
+		for (int length : new int[]{MIN_SAMPLE_SIZE, 20, 70})
+		{
+			double[] x = createRows(1, length, 0, length)[0];
+			double[] xWithNaN = x.clone();
+			xWithNaN[1] = Double.NaN;
+
+			double[] up = new double[length];
+			double[] down = new double[length];
+			for (int i = 0; i < length; i++)
+			{
+				up[i] = 2 * x[i] + 1;
+				down[i] = -x[i];
+			}
+
+			assertMatchesLibrary(new double[][]{x, xWithNaN, up, down});
+
+			CorrelationDetector det = createDetector();
+			assertEquals(1, det.calcCorrelationNaive(createData(x), createData(up)).v, DELTA);
+			assertEquals(-1, det.calcCorrelationNaive(createData(x), createData(down)).v, DELTA);
+		}
+	}
+
+	@Test
+	public void testMinimumSampleSize()
+	{
+		Random random = new Random(6);
+		double[][] rows = new double[40][20];
+		for (double[] row : rows)
+		{
+			// The overlaps of the rows are around the minimum sample size
+			for (int i = 0; i < row.length; i++)
+			{
+				row[i] = i < MIN_SAMPLE_SIZE - 1 || random.nextInt(8) == 0 ? random.nextGaussian() : Double.NaN;
+			}
+		}
+		assertMatchesLibrary(rows);
+
+		// Overlap exactly at the minimum, and one below it
+		double[] a = createRows(1, 20, 0, 7)[0];
+		double[] b = createRows(1, 20, 0, 8)[0];
+		for (int i = MIN_SAMPLE_SIZE; i < b.length; i++)
+		{
+			b[i] = Double.NaN;
+		}
+		Tuple corr = createDetector().calcCorrelationNaive(createData(a), createData(b));
+		assertFalse(Double.isNaN(corr.p));
+
+		b[0] = Double.NaN;
+		corr = createDetector().calcCorrelationNaive(createData(a), createData(b));
+		assertTrue(Double.isNaN(corr.v));
+		assertTrue(Double.isNaN(corr.p));
+	}
+
+	/**
+	 * Compares the correlation of each pair of rows, and its p-value, with the library.
+	 */
+	private void assertMatchesLibrary(double[][] rows)
+	{
+		CorrelationDetector det = createDetector();
+
+		NumericData[] datas = new NumericData[rows.length];
+		for (int i = 0; i < rows.length; i++)
+		{
+			datas[i] = createData(rows[i]);
+		}
+
+		int tested = 0;
+		for (int i = 0; i < rows.length; i++)
+		{
+			for (int j = 0; j < rows.length; j++)
+			{
+				String msg = "Rows " + i + " and " + j;
+				Tuple actual = det.calcCorrelationNaive(datas[i], datas[j]);
+
+				double[][] v = ArrayUtil.trimNaNs(rows[i], rows[j]);
+				if (v[0].length < MIN_SAMPLE_SIZE)
+				{
+					assertTrue(msg, Double.isNaN(actual.v));
+					assertTrue(msg, Double.isNaN(actual.p));
+					continue;
+				}
+
+				Tuple expected = Correlation.pearson(v[0], v[1]);
+				assertEquals(msg, Double.isNaN(expected.v), Double.isNaN(actual.v));
+				assertEquals(msg, Double.isNaN(expected.p), Double.isNaN(actual.p));
+				if (!Double.isNaN(expected.v)) assertEquals(msg, expected.v, actual.v, DELTA);
+				if (!Double.isNaN(expected.p)) assertEquals(msg, expected.p, actual.p, DELTA);
+
+				// The p-value of the library correlation, from the sample size
+				double p = CorrelationDetector.getPValue(expected.v, v[0].length);
+				assertEquals(msg, Double.isNaN(expected.p), Double.isNaN(p));
+				if (!Double.isNaN(expected.p)) assertEquals(msg, expected.p, p, DELTA);
+				tested++;
+			}
+		}
+		assertTrue(tested > 0);
+	}
+
+	private CorrelationDetector createDetector()
+	{
+		CorrelationDetector det = new CorrelationDetector(-1, -1);
+		det.setMinimumSampleSize(MIN_SAMPLE_SIZE);
+		return det;
+	}
+
+	private NumericData createData(double[] vals)
+	{
+		NumericData data = new ProteinData("data" + (dataCnt++), Collections.singleton("GENE"));
+		data.setVals(vals);
+		return data;
+	}
+
+	/**
+	 * Creates rows that share a random component, with the given ratio of missing values.
+	 */
+	private double[][] createRows(int n, int length, double missingRatio, long seed)
+	{
+		Random random = new Random(seed);
+		double[] common = new double[length];
+		for (int i = 0; i < length; i++)
+		{
+			common[i] = random.nextGaussian();
+		}
+
+		double[][] rows = new double[n][length];
+		for (double[] row : rows)
+		{
+			double weight = random.nextGaussian();
+			for (int i = 0; i < length; i++)
+			{
+				row[i] = random.nextDouble() < missingRatio ? Double.NaN :
+					weight * common[i] + random.nextGaussian();
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,259 @@
+package org.panda.causalpath.analyzer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.panda.causalpath.data.GeneWithData;
+import org.panda.causalpath.data.ProteinData;
+import org.panda.causalpath.network.Relation;
+import org.panda.causalpath.network.RelationType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests saving, restoring and merging the state of network significance randomizations, and that a resumed experiment
+ * gives the same result as an uninterrupted one.
+ */
+public class PermutationCheckpointTest
+{
+	private static final int ITERATIONS = 1000;
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = Files.createTempDirectory("checkpoint-test");
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		PermutationCheckpoint cp = new PermutationCheckpoint(42, 1, 123456789L, 500, 10, 300, 17, 5, 250,
+			new String[]{"A", "B", "C"}, new int[][]{{1, 2, 3}, {4, 5, 6}}, new int[][]{{0, 10, 0}, {0, 0, 0}},
+			new int[][]{{0, 200, 0}, {0, 0, 0}});
+
+		String file = dir.resolve("cp.bin").toString();
+		cp.write(file);
+		PermutationCheckpoint read = PermutationCheckpoint.read(file);
+
+		assertEquals(42, read.seed);
+		assertEquals(1, read.shards);
+		assertEquals(123456789L, read.fingerprint);
+		assertEquals(500, read.target);
+		assertEquals(10, read.exceedanceLimit);
+		assertEquals(300, read.done);
+		assertEquals(17, read.sizeCnt);
+		assertEquals(5, read.graphSizeFinalCnt);
+		assertEquals(250, read.graphSizeIterations);
+		assertArrayEquals(cp.genes, read.genes);
+		for (int i = 0; i < 2; i++)
+		{
+			assertArrayEquals(cp.cnt[i], read.cnt[i]);
+			assertArrayEquals(cp.finalCnt[i], read.finalCnt[i]);
+			assertArrayEquals(cp.finalIter[i], read.finalIter[i]);
+		}
+	}
+
+	@Test
+	public void testMerge()
+	{
+		String[] genes = {"A", "B"};
+		PermutationCheckpoint s1 = createShard(1, 7, genes, new int[]{3, 4}, 100, 10);
+		PermutationCheckpoint s2 = createShard(2, 7, genes, new int[]{5, 6}, 200, 20);
+
+		PermutationCheckpoint merged = PermutationCheckpoint.merge(Arrays.asList(s1, s2));
+		assertEquals(2, merged.shards);
+		assertEquals(300, merged.done);
+		assertEquals(30, merged.sizeCnt);
+		assertEquals(7, merged.fingerprint);
+		assertArrayEquals(new int[]{8, 10}, merged.cnt[0]);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMergeRejectsSameSeed()
+	{
+		String[] genes = {"A", "B"};
+		PermutationCheckpoint.merge(Arrays.asList(createShard(1, 7, genes, new int[]{3, 4}, 100, 10),
+			createShard(1, 7, genes, new int[]{5, 6}, 100, 20)));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMergeRejectsDifferentObservations()
+	{
+		String[] genes = {"A", "B"};
+		PermutationCheckpoint.merge(Arrays.asList(createShard(1, 7, genes, new int[]{3, 4}, 100, 10),
+			createShard(2, 8, genes, new int[]{5, 6}, 100, 20)));
+	}
+
+	private PermutationCheckpoint createShard(long seed, long fingerprint, String[] genes, int[] cnt, int done,
+		long sizeCnt)
+	{
+		return new PermutationCheckpoint(seed, 1, fingerprint, done, 0, done, sizeCnt, 0, 0, genes, new int[][]{cnt},
+			new int[1][genes.length], new int[1][genes.length]);
+	}
+
+	@Test
+	public void testShardsMergeToTheirSum() throws IOException
+	{
+		Set<Relation> relations = createNetwork(0.5);
+		String s1 = dir.resolve("s1.bin").toString();
+		String s2 = dir.resolve("s2.bin").toString();
+
+		createCalculator(relations, 1, s1).run(ITERATIONS / 2);
+		createCalculator(relations, 2, s2).run(ITERATIONS / 2);
+
+		NSCForComparison merged = createCalculator(relations, 3, null);
+		merged.setShards(Arrays.asList(s1, s2));
+		merged.run(ITERATIONS);
+
+		PermutationCheckpoint cp1 = PermutationCheckpoint.read(s1);
+		PermutationCheckpoint cp2 = PermutationCheckpoint.read(s2);
+		List<String> genes = Arrays.asList(cp1.genes);
+
+		assertFalse(merged.getDownstreamActivityPvals().isEmpty());
+		for (String gene : merged.getDownstreamActivityPvals().keySet())
+		{
+			int g = genes.indexOf(gene);
+			double expected = Math.max(cp1.cnt[0][g] + cp2.cnt[0][g], 1) / (double) ITERATIONS;
+			assertEquals(gene, expected, merged.getDownstreamActivityPvals().get(gene), 0);
+		}
+	}
+
+	@Test
+	public void testResumedEqualsUninterrupted() throws IOException
+	{
+		Set<Relation> relations = createNetwork(0.5);
+
+		NSCForComparison uninterrupted = createCalculator(relations, 11, null);
+		uninterrupted.run(ITERATIONS);
+		assertTrue(uninterrupted.getDownstreamActivityPvals().values().stream().anyMatch(p -> p < 1));
+
+		// Interrupt the experiment right after a checkpoint in the middle
+		String file = dir.resolve("cp.bin").toString();
+		NSCForComparison interrupted = new NSCForComparison(relations, new CausalitySearcher(true))
+		{
+			@Override
+			protected void saveCheckpoint(boolean force, int done, long sizeCnt, String[] genes, int[][] cnt,
+				SequentialPValues[] seqP)
+			{
+				super.saveCheckpoint(force, done, sizeCnt, genes, cnt, seqP);
+				if (done >= ITERATIONS / 2) throw new IllegalStateException("Interrupted");
+			}
+		};
+		interrupted.setSeed(11);
+		interrupted.setCheckpoint(file, 0);
+		try
+		{
+			interrupted.run(ITERATIONS);
+			fail("Experiment is not interrupted.");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+		assertEquals(ITERATIONS / 2, PermutationCheckpoint.read(file).done);
+
+		NSCForComparison resumed = createCalculator(relations, 99, file);
+		resumed.run(ITERATIONS);
+
+		assertSameResults(uninterrupted, resumed);
+	}
+
+	@Test
+	public void testCheckpointOfAnotherObservationIsIgnored()
+	{
+		String file = dir.resolve("cp.bin").toString();
+		createCalculator(createNetwork(0.5), 5, file).run(ITERATIONS);
+		assertTrue(Files.exists(dir.resolve("cp.bin")));
+
+		// Same network with a different threshold
+		Set<Relation> relations = createNetwork(1);
+		NSCForComparison fresh = createCalculator(relations, 5, null);
+		fresh.run(ITERATIONS);
+		NSCForComparison withOld = createCalculator(relations, 5, file);
+		withOld.run(ITERATIONS);
+		assertSameResults(fresh, withOld);
+
+		// Same observation with a different number of iterations
+		NSCForComparison longer = createCalculator(relations, 5, null);
+		longer.run(ITERATIONS * 2);
+		NSCForComparison longerWithOld = createCalculator(relations, 5, file);
+		longerWithOld.run(ITERATIONS * 2);
+		assertSameResults(longer, longerWithOld);
+	}
+
+	@Test
+	public void testFinishedCheckpointIsMoved() throws IOException
+	{
+		String file = dir.resolve("cp.bin").toString();
+		NSCForComparison nsc = createCalculator(createNetwork(0.5), 5, file);
+		nsc.run(ITERATIONS);
+		nsc.finishCheckpoint(dir.resolve("counts.bin").toString());
+
+		assertFalse(Files.exists(dir.resolve("cp.bin")));
+		assertEquals(ITERATIONS, PermutationCheckpoint.read(dir.resolve("counts.bin").toString()).done);
+	}
+
+	private void assertSameResults(NSCForComparison expected, NSCForComparison actual)
+	{
+		assertEquals(expected.getOverallGraphSizePval(), actual.getOverallGraphSizePval(), 0);
+		assertEquals(expected.getDownstreamActivityPvals(), actual.getDownstreamActivityPvals());
+		assertEquals(expected.getActivatoryPvals(), actual.getActivatoryPvals());
+		assertEquals(expected.getInhibitoryPvals(), actual.getInhibitoryPvals());
+	}
+
+	private NSCForComparison createCalculator(Set<Relation> relations, long seed, String checkpointFile)
+	{
+		NSCForComparison nsc = new NSCForComparison(relations, new CausalitySearcher(true));
+		nsc.setSeed(seed);
+		if (checkpointFile != null) nsc.setCheckpoint(checkpointFile, 0);
+		return nsc;
+	}
+
+	/**
+	 * Creates a random expression network on total protein data, with a fixed seed.
+	 *
+	 * @param threshold change threshold of the data
+	 */
+	private Set<Relation> createNetwork(double threshold)
+	{
+		Random random = new Random(1);
+		int n = 30;
+
+		GeneWithData[] genes = new GeneWithData[n];
+		for (int i = 0; i < n; i++)
+		{
+			String gene = "G" + i;
+			ProteinData data = new ProteinData(gene + "-prot", Collections.singleton(gene));
+			data.vals = new double[]{random.nextGaussian()};
+			data.setChDet(new ThresholdDetector(threshold, ThresholdDetector.AveragingMethod.FIRST_VALUE));
+
+			genes[i] = new GeneWithData(gene);
+			genes[i].add(data);
+		}
+
+		Set<Relation> relations = new HashSet<>();
+		CausalityHelper ch = new CausalityHelper();
+		for (int i = 0; i < n; i++)
+		{
+			for (int k = 0; k < 4; k++)
+			{
+				int j = random.nextInt(n);
+				if (j == i) continue;
+
+				Relation rel = new Relation(genes[i].getId(), genes[j].getId(), random.nextBoolean() ?
+					RelationType.UPREGULATES_EXPRESSION : RelationType.DOWNREGULATES_EXPRESSION, null);
+				rel.sourceData = genes[i];
+				rel.targetData = genes[j];
+				rel.chDet = ch;
+				relations.add(rel);
+			}
+		}
+		return relations;
+	}
+}
@@ -0,0 +1,45 @@
+package org.panda.causalpath.resource;
+
+import org.junit.Test;
+import org.panda.resource.HGNC;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the code run in a context sees the HGNC of that context on the singleton.
+ */
+public class ResourceContextTest
+{
+	@Test
+	public void testDefaultHGNCIsRestoredAfterCustom() throws IOException
+	{
+		Path file = Files.createTempFile("hgnc", ".txt");
+		file.toFile().deleteOnExit();
+		Files.write(file, ("HGNC ID\tApproved symbol\tPrevious symbols\tAlias symbols\n" +
+			"HGNC:391\tAKT1\t\tPKB\n").getBytes(StandardCharsets.UTF_8));
+
+		ResourceContext def = ResourceContext.getDefault();
+		ResourceContext custom = def.withHGNCFile(file.toString());
+
+		HGNC defaultHGNC = def.call(HGNC::get);
+		HGNC customHGNC = custom.call(HGNC::get);
+		assertNotSame(defaultHGNC, customHGNC);
+
+		// Each switch puts the HGNC of the context back on the singleton
+		assertSame(defaultHGNC, def.call(HGNC::get));
+		assertSame(customHGNC, custom.call(HGNC::get));
+		assertSame(defaultHGNC, def.call(HGNC::get));
+
+		// A second context with the same custom file keeps its own HGNC
+		ResourceContext other = def.withHGNCFile(file.toString());
+		HGNC otherHGNC = other.call(HGNC::get);
+		assertSame(customHGNC, custom.call(HGNC::get));
+		assertSame(otherHGNC, other.call(HGNC::get));
+		assertSame(defaultHGNC, def.call(HGNC::get));
+	}
+}
@@ -0,0 +1,228 @@
+package org.panda.causalpath.analyzer;
+
+import org.apache.commons.math3.special.Beta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Performs two-group t-tests on many data rows at once. Control and test samples are resolved to index arrays once,
+ * and each row is tested in a tight primitive loop, without copying its values. Unpaired tests are Welch's t-tests,
+ * and paired tests are one-sample t-tests on the differences of the pairs. Missing (NaN) values are skipped.
+ *
+ * @author Ozgun Babur
+ */
+public class BatchTTest
+{
+	/**
+	 * Indices of the control samples.
+	 */
+	private final int[] control;
+
+	/**
+	 * Indices of the test samples. In a paired test, test[i] is paired with control[i].
+	 */
+	private final int[] test;
+
+	private final boolean paired;
+
+	/**
+	 * Number of threads to use.
+	 */
+	private int threads;
+
+	/**
+	 * Rows are partitioned into chunks of this size during a parallel run.
+	 */
+	private static final int CHUNK_SIZE = 256;
+
+	public BatchTTest(boolean[] control, boolean[] test, boolean paired)
+	{
+		this.control = getIndices(control);
+		this.test = getIndices(test);
+		this.paired = paired;
+		this.threads = 1;
+
+		if (paired && this.control.length != this.test.length)
+		{
+			throw new RuntimeException("Paired test needs equal number of control and test samples. Controls: " +
+				this.control.length + ", tests: " + this.test.length);
+		}
+	}
+
+	public void setThreads(int threads)
+	{
+		this.threads = threads;
+	}
+
+	private static int[] getIndices(boolean[] select)
+	{
+		int cnt = 0;
+		for (boolean b : select)
+		{
+			if (b) cnt++;
+		}
+
+		int[] ind = new int[cnt];
+		for (int i = 0, k = 0; i < select.length; i++)
+		{
+			if (select[i]) ind[k++] = i;
+		}
+		return ind;
+	}
+
+	/**
+	 * Tests the given rows.
+	 *
+	 * @param rows values of each row
+	 * @param minSampleSize minimum number of non-missing values required in each group
+	 * @param t the t statistic of each row is written here, positive when the test group is higher
+	 * @param p the p-value of each row is written here, NaN when the row cannot be tested
+	 */
+	public void test(double[][] rows, int minSampleSize, double[] t, double[] p)
+	{
+		if (threads > 1 && rows.length > CHUNK_SIZE)
+		{
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < rows.length; i += CHUNK_SIZE)
+			{
+				int from = i;
+				int to = Math.min(i + CHUNK_SIZE, rows.length);
+				futures.add(pool.submit(() -> test(rows, from, to, minSampleSize, t, p)));
+			}
+
+			try
+			{
+				for (Future<?> future : futures)
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		else test(rows, 0, rows.length, minSampleSize, t, p);
+	}
+
+	private void test(double[][] rows, int from, int to, int minSampleSize, double[] t, double[] p)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (paired) testPaired(rows[i], minSampleSize, t, p, i);
+			else testUnpaired(rows[i], minSampleSize, t, p, i);
+		}
+	}
+
+	private void testUnpaired(double[] vals, int minSampleSize, double[] t, double[] p, int row)
+	{
+		int n0 = 0;
+		int n1 = 0;
+		double sum0 = 0;
+		double sum1 = 0;
+
+		for (int i : control)
+		{
+			double v = vals[i];
+			if (!Double.isNaN(v))
+			{
+				sum0 += v;
+				n0++;
+			}
+		}
+		for (int i : test)
+		{
+			double v = vals[i];
+			if (!Double.isNaN(v))
+			{
+				sum1 += v;
+				n1++;
+			}
+		}
+
+		if (n0 < 2 || n1 < 2 || n0 < minSampleSize || n1 < minSampleSize)
+		{
+			t[row] = Double.NaN;
+			p[row] = Double.NaN;
+			return;
+		}
+
+		double mean0 = sum0 / n0;
+		double mean1 = sum1 / n1;
+		double ss0 = 0;
+		double ss1 = 0;
+
+		for (int i : control)
+		{
+			double d = vals[i] - mean0;
+			if (!Double.isNaN(d)) ss0 += d * d;
+		}
+		for (int i : test)
+		{
+			double d = vals[i] - mean1;
+			if (!Double.isNaN(d)) ss1 += d * d;
+		}
+
+		double a = ss0 / (n0 - 1) / n0;
+		double b = ss1 / (n1 - 1) / n1;
+		double df = (a + b) * (a + b) / (a * a / (n0 - 1) + b * b / (n1 - 1));
+
+		t[row] = (mean1 - mean0) / Math.sqrt(a + b);
+		p[row] = getTwoTailedP(t[row], df);
+	}
+
+	private void testPaired(double[] vals, int minSampleSize, double[] t, double[] p, int row)
+	{
+		int n = 0;
+		double sum = 0;
+
+		for (int k = 0; k < test.length; k++)
+		{
+			double d = vals[test[k]] - vals[control[k]];
+			if (!Double.isNaN(d))
+			{
+				sum += d;
+				n++;
+			}
+		}
+
+		if (n < 2 || n < minSampleSize)
+		{
+			t[row] = Double.NaN;
+			p[row] = Double.NaN;
+			return;
+		}
+
+		double mean = sum / n;
+		double ss = 0;
+
+		for (int k = 0; k < test.length; k++)
+		{
+			double d = vals[test[k]] - vals[control[k]] - mean;
+			if (!Double.isNaN(d)) ss += d * d;
+		}
+
+		t[row] = mean / Math.sqrt(ss / (n - 1) / n);
+		p[row] = getTwoTailedP(t[row], n - 1);
+	}
+
+	/**
+	 * Two-tailed p-value of the t statistic, using the relation of Student's t distribution to the regularized
+	 * incomplete beta function.
+	 */
+	static double getTwoTailedP(double t, double df)
+	{
+		if (Double.isNaN(t) || Double.isNaN(df)) return Double.NaN;
+		if (Double.isInfinite(t)) return 0;
+		return Beta.regularizedBeta(df / (df + t * t), df / 2, 0.5);
+	}
+}
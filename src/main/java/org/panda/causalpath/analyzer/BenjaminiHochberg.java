@@ -0,0 +1,143 @@
+package org.panda.causalpath.analyzer;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Benjamini-Hochberg false discovery rate control on primitive p-values. The p-values are sorted once, and their
+ * q-values are calculated once, after which the p-value threshold of any FDR level is found with a binary search.
+ * Tests are identified by their index in the given p-value array. NaN p-values are not counted as tests.
+ *
+ * @author Ozgun Babur
+ */
+public class BenjaminiHochberg
+{
+	/**
+	 * Arrays larger than this are sorted in parallel, if parallel sorting is requested.
+	 */
+	private static final int PARALLEL_SORT_SIZE = 1 << 16;
+
+	/**
+	 * The p-values in the order they are given.
+	 */
+	private final double[] pvals;
+
+	/**
+	 * The p-values that are not NaN, in increasing order.
+	 */
+	private final double[] sorted;
+
+	/**
+	 * Q-values of the sorted p-values. These are non-decreasing.
+	 */
+	private final double[] sortedQ;
+
+	public BenjaminiHochberg(double[] pvals)
+	{
+		this(pvals, false);
+	}
+
+	/**
+	 * @param pvals the p-values, which are not modified
+	 * @param parallel whether to sort large arrays in parallel
+	 */
+	public BenjaminiHochberg(double[] pvals, boolean parallel)
+	{
+		this.pvals = pvals;
+
+		int n = 0;
+		double[] s = new double[pvals.length];
+		for (double p : pvals)
+		{
+			if (!Double.isNaN(p)) s[n++] = p;
+		}
+		if (n < s.length) s = Arrays.copyOf(s, n);
+
+		if (parallel && n > PARALLEL_SORT_SIZE) Arrays.parallelSort(s);
+		else Arrays.sort(s);
+
+		this.sorted = s;
+		this.sortedQ = new double[n];
+
+		double min = 1;
+		for (int k = n; k > 0; k--)
+		{
+			min = Math.min(min, s[k - 1] * n / k);
+			sortedQ[k - 1] = min;
+		}
+	}
+
+	public BenjaminiHochberg(Collection<Double> pvals)
+	{
+		this(pvals.stream().mapToDouble(Double::doubleValue).toArray());
+	}
+
+	/**
+	 * Gets the number of tests, which excludes NaN p-values.
+	 */
+	public int size()
+	{
+		return sorted.length;
+	}
+
+	/**
+	 * Gets the number of tests that are selected at the given FDR level.
+	 */
+	public int getSelectedCount(double fdr)
+	{
+		// Index of the first q-value that is greater than fdr
+		int lo = 0;
+		int hi = sortedQ.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sortedQ[mid] <= fdr) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Gets the largest p-value that is selected at the given FDR level.
+	 *
+	 * @return the p-value threshold, or 0 if no test is selected
+	 */
+	public double getPValueThreshold(double fdr)
+	{
+		int k = getSelectedCount(fdr);
+		return k == 0 ? 0 : sorted[k - 1];
+	}
+
+	/**
+	 * Gets the q-value of the p-value with the given index. Tied p-values have the same q-value.
+	 */
+	public double getQValue(int index)
+	{
+		double p = pvals[index];
+		if (Double.isNaN(p)) return Double.NaN;
+
+		// Any of the ties can be found, since they have the same q-value
+		return sortedQ[Arrays.binarySearch(sorted, p)];
+	}
+
+	/**
+	 * Gets the q-values of all p-values, in the order they are given. NaN p-values get NaN q-values.
+	 */
+	public double[] getQValues()
+	{
+		double[] q = new double[pvals.length];
+		for (int i = 0; i < q.length; i++)
+		{
+			q[i] = getQValue(i);
+		}
+		return q;
+	}
+
+	/**
+	 * Gets the p-value threshold for the given FDR level, for a single use.
+	 */
+	public static double getPValueThreshold(double[] pvals, double fdr)
+	{
+		return new BenjaminiHochberg(pvals).getPValueThreshold(fdr);
+	}
+}
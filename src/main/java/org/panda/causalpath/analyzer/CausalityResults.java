@@ -0,0 +1,131 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.causalpath.data.SiteModProteinData;
+import org.panda.causalpath.network.Relation;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Causal and conflicting relations found in a single pass over the network, with the evidence of each, and the data
+ * that would be evidence if their effect was known.
+ *
+ * @author Ozgun Babur
+ */
+public class CausalityResults
+{
+	Set<Relation> causal;
+	Set<Relation> conflicting;
+
+	/**
+	 * Data used for inference of each causal or conflicting relation. Null if evidence is not collected.
+	 */
+	Map<Relation, Set<ExperimentData>> causalData;
+	Map<Relation, Set<ExperimentData>> conflictingData;
+
+	/**
+	 * Data pairs used for inference of each causal or conflicting relation. Null if evidence is not collected.
+	 */
+	Map<Relation, Set<List<ExperimentData>>> causalPairs;
+	Map<Relation, Set<List<ExperimentData>>> conflictingPairs;
+
+	/**
+	 * Phosphorylation data with unknown effect, that could be part of the results. Null if not collected.
+	 */
+	Set<SiteModProteinData> dataNeedsAnnotation;
+
+	CausalityResults(boolean collectDataWithMissingEffect, boolean collectDataUsedForInference)
+	{
+		this.causal = new HashSet<>();
+		this.conflicting = new HashSet<>();
+		if (collectDataWithMissingEffect) this.dataNeedsAnnotation = new HashSet<>();
+		if (collectDataUsedForInference)
+		{
+			this.causalData = new HashMap<>();
+			this.conflictingData = new HashMap<>();
+			this.causalPairs = new HashMap<>();
+			this.conflictingPairs = new HashMap<>();
+		}
+	}
+
+	/**
+	 * Adds the results of a portion of the network.
+	 */
+	void addAll(CausalityResults res)
+	{
+		causal.addAll(res.causal);
+		conflicting.addAll(res.conflicting);
+		if (dataNeedsAnnotation != null) dataNeedsAnnotation.addAll(res.dataNeedsAnnotation);
+		if (causalData != null)
+		{
+			causalData.putAll(res.causalData);
+			conflictingData.putAll(res.conflictingData);
+			causalPairs.putAll(res.causalPairs);
+			conflictingPairs.putAll(res.conflictingPairs);
+		}
+	}
+
+	/**
+	 * Empties the results, to reuse the collections.
+	 */
+	void clear()
+	{
+		causal.clear();
+		conflicting.clear();
+		if (dataNeedsAnnotation != null) dataNeedsAnnotation.clear();
+		if (causalData != null)
+		{
+			causalData.clear();
+			conflictingData.clear();
+			causalPairs.clear();
+			conflictingPairs.clear();
+		}
+	}
+
+	public Set<Relation> getCausal()
+	{
+		return causal;
+	}
+
+	public Set<Relation> getConflicting()
+	{
+		return conflicting;
+	}
+
+	public Set<Relation> getRelations(boolean causal)
+	{
+		return causal ? this.causal : conflicting;
+	}
+
+	/**
+	 * Gets the data used for inference of each causal or conflicting relation.
+	 */
+	public Map<Relation, Set<ExperimentData>> getInferenceUnits(boolean causal)
+	{
+		return causal ? causalData : conflictingData;
+	}
+
+	/**
+	 * Gets the data pairs used for inference of each causal or conflicting relation.
+	 */
+	public Map<Relation, Set<List<ExperimentData>>> getInferencePairs(boolean causal)
+	{
+		return causal ? causalPairs : conflictingPairs;
+	}
+
+	public Set<ExperimentData> getDataUsedForInference(boolean causal)
+	{
+		return getInferenceUnits(causal).values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
+	}
+
+	public Set<List<ExperimentData>> getPairsUsedForInference(boolean causal)
+	{
+		return getInferencePairs(causal).values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
+	}
+
+	public Set<SiteModProteinData> getDataNeedsAnnotation()
+	{
+		return dataNeedsAnnotation;
+	}
+}
@@ -12,6 +12,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -95,6 +99,21 @@ public class CausalitySearcher implements Cloneable
 	Map<Relation, Set<ExperimentData>> affectingSourceDataMap;
 	Map<Relation, Set<ExperimentData>> explainableTargetDataMap;
 
+	/**
+	 * Number of threads to use during the search. Values less than 2 mean the search is sequential.
+	 */
+	private int threads;
+
+	/**
+	 * The pool that runs the parallel search. Created on first use and shared with the copies of this object.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * The relations are partitioned into chunks of this size during a parallel search.
+	 */
+	private static final int CHUNK_SIZE = 512;
+
 	/**
 	 * Constructor with the reasoning type.
 	 * @param causal true:causal, false:conflicting
@@ -108,6 +127,7 @@ public class CausalitySearcher implements Cloneable
 		this.collectDataUsedForInference = true;
 		this.mandateActivityDataUpstreamOfExpression = false;
 		this.useStrongestProteomicsDataForActivity = false;
+		this.threads = 1;
 
 		this.generalActivityChangeIndicators = new HashSet<>(Arrays.asList(DataType.PROTEIN, DataType.PHOSPHOPROTEIN,
 			DataType.ACETYLPROTEIN, DataType.METHYLPROTEIN, DataType.METABOLITE, DataType.ACTIVITY));
@@ -115,8 +135,8 @@ public class CausalitySearcher implements Cloneable
 
 	public void initRelationDataMappingMemory()
 	{
-		this.affectingSourceDataMap = new HashMap<>();
-		this.explainableTargetDataMap = new HashMap<>();
+		this.affectingSourceDataMap = new ConcurrentHashMap<>();
+		this.explainableTargetDataMap = new ConcurrentHashMap<>();
 	}
 
 	public CausalitySearcher copy()
@@ -146,8 +166,250 @@ public class CausalitySearcher implements Cloneable
 	{
 //		printSizeOfRelationsBetweenSignificantData(relations);
 
-		// Initialize collections
+		initCollections();
+
+		// This is where magic happens
+		Set<Relation> results;
+		if (threads > 1 && relations.size() > CHUNK_SIZE)
+		{
+			List<Relation> list = new ArrayList<>(relations);
+			results = runParallel(list.size(), (from, to, chunk) ->
+			{
+				for (int i = from; i < to; i++)
+				{
+					Relation relation = list.get(i);
+					if (satisfiesCriteria(relation, chunk.dataNeedsAnnotation, chunk.dataUsedForInference,
+						chunk.pairsUsedForInference)) chunk.results.add(relation);
+				}
+			});
+		}
+		else
+		{
+			results = relations.stream().filter(r -> satisfiesCriteria(r, dataNeedsAnnotation, dataUsedForInference,
+				pairsUsedForInference)).collect(Collectors.toSet());
+		}
+
+		return applyGraphFilter(results);
+	}
+
+	/**
+	 * Finds compatible or conflicting relations in the compiled network. This produces the same result with
+	 * <code>run(Set)</code> on the compiled relations, but without looking up data or allocating per relation.
+	 */
+	public Set<Relation> run(CompiledNetwork cn)
+	{
+		return run(cn, null);
+	}
+
+	/**
+	 * Finds compatible or conflicting relations in the compiled network, optionally using the given change signs
+	 * instead of the ones of the data.
+	 *
+	 * @param cn the compiled network
+	 * @param changeSigns change signs indexed by data IDs, or null to use the change signs of the data
+	 */
+	public Set<Relation> run(CompiledNetwork cn, int[] changeSigns)
+	{
+		initCollections();
+		if (changeSigns == null) cn.resetChangeSigns();
+
+		int n = cn.getRelationCount();
+		Set<Relation> results;
+		if (threads > 1 && n > CHUNK_SIZE)
+		{
+			results = runParallel(n, (from, to, chunk) ->
+			{
+				for (int r = from; r < to; r++)
+				{
+					if (satisfiesCriteria(cn, r, changeSigns, chunk.dataNeedsAnnotation, chunk.dataUsedForInference,
+						chunk.pairsUsedForInference)) chunk.results.add(cn.relations[r]);
+				}
+			});
+		}
+		else
+		{
+			results = new HashSet<>();
+			for (int r = 0; r < n; r++)
+			{
+				if (satisfiesCriteria(cn, r, changeSigns, dataNeedsAnnotation, dataUsedForInference,
+					pairsUsedForInference))
+				{
+					results.add(cn.relations[r]);
+				}
+			}
+		}
+
+		return applyGraphFilter(results);
+	}
+
+	/**
+	 * Finds both the causal and the conflicting relations in the compiled network in a single pass. Each evaluated data
+	 * pair is classified as causal, conflicting, or in need of site effect annotation at once, instead of repeating the
+	 * whole search for each reasoning type.
+	 *
+	 * The evidence collections of this object are set to the ones of the current reasoning type, as if
+	 * <code>run(CompiledNetwork)</code> was called.
+	 *
+	 * @param cn the compiled network
+	 * @return causal and conflicting relations with their evidence
+	 */
+	public CausalityResults runCausalAndConflicting(CompiledNetwork cn)
+	{
+		cn.resetChangeSigns();
+
+		int n = cn.getRelationCount();
+		CausalityResults res = new CausalityResults(collectDataWithMissingEffect, collectDataUsedForInference);
+
+		if (threads > 1 && n > CHUNK_SIZE)
+		{
+			if (pool == null) pool = new ForkJoinPool(threads);
+
+			List<Future<CausalityResults>> futures = new ArrayList<>();
+			for (int i = 0; i < n; i += CHUNK_SIZE)
+			{
+				CausalityResults chunk = new CausalityResults(collectDataWithMissingEffect,
+					collectDataUsedForInference);
+				int from = i;
+				int to = Math.min(i + CHUNK_SIZE, n);
+				futures.add(pool.submit(() ->
+				{
+					for (int r = from; r < to; r++)
+					{
+						classify(cn, r, chunk);
+					}
+				}, chunk));
+			}
+
+			try
+			{
+				for (Future<CausalityResults> future : futures)
+				{
+					res.addAll(future.get());
+				}
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+		else
+		{
+			for (int r = 0; r < n; r++)
+			{
+				classify(cn, r, res);
+			}
+		}
+
+		applyGraphFilter(res);
+		adopt(res);
+		return res;
+	}
+
+	/**
+	 * Trims both the causal and the conflicting relations of the given results with the graph filter, if there is one.
+	 */
+	void applyGraphFilter(CausalityResults res)
+	{
+		res.causal = applyGraphFilter(res.causal, res.causalData, res.causalPairs);
+		res.conflicting = applyGraphFilter(res.conflicting, res.conflictingData, res.conflictingPairs);
+	}
+
+	/**
+	 * Sets the evidence collections of this object to the ones in the given results, for the current reasoning type.
+	 */
+	void adopt(CausalityResults res)
+	{
+		boolean c = causal == 1;
+		if (collectDataWithMissingEffect) dataNeedsAnnotation = new HashSet<>(res.dataNeedsAnnotation);
+		if (collectDataUsedForInference)
+		{
+			dataUsedForInference = new HashMap<>(res.getInferenceUnits(c));
+			pairsUsedForInference = new HashMap<>(res.getInferencePairs(c));
+		}
+	}
+
+	/**
+	 * Checks if the relation with the given ID in the compiled network explains or conflicts its data, and records it
+	 * with its evidence into the given results.
+	 */
+	void classify(CompiledNetwork cn, int r, CausalityResults res)
+	{
+		if (!cn.hasSourceAndTargetData(r)) return;
+
+		boolean explains = false;
+		boolean conflicts = false;
+
+		for (int i = cn.sourceStart[r]; i < cn.sourceStart[r + 1]; i++)
+		{
+			int s = cn.sourceData[i];
+
+			for (int j = cn.targetStart[r]; j < cn.targetStart[r + 1]; j++)
+			{
+				int t = cn.targetData[j];
+				int e = cn.getChangeSign(r, s, t) * cn.sign[r];
+
+				if (e == 0) continue;
+
+				if (collectDataWithMissingEffect && cn.effect[s] == 0)
+				{
+					res.dataNeedsAnnotation.add((SiteModProteinData) cn.data[s]);
+				}
+				else if (cn.effect[s] != 0)
+				{
+					boolean c = cn.effect[s] * e == 1;
+					if (collectDataUsedForInference)
+					{
+						recordEvidence(cn.relations[r], cn.data[s], cn.data[t], res.getInferenceUnits(c),
+							res.getInferencePairs(c));
+					}
+					if (c) explains = true;
+					else conflicts = true;
+				}
+			}
+		}
+
+		if (explains) res.causal.add(cn.relations[r]);
+		if (conflicts) res.conflicting.add(cn.relations[r]);
+	}
+
+	/**
+	 * Evaluates every relation in the compiled network and marks the satisfying ones in the given array. This method
+	 * does not collect any evidence and does not apply the graph filter, hence it is suitable for randomization
+	 * experiments.
+	 *
+	 * @param cn the compiled network
+	 * @param satisfies array to mark satisfying relations, indexed by relation IDs
+	 * @return number of satisfying relations
+	 */
+	public int search(CompiledNetwork cn, boolean[] satisfies)
+	{
+		return search(cn, null, satisfies);
+	}
+
+	/**
+	 * Same with <code>search(CompiledNetwork, boolean[])</code>, but optionally uses the given change signs instead of
+	 * the ones of the data. This way, different permutations of the data can be searched concurrently.
+	 *
+	 * @param cn the compiled network
+	 * @param changeSigns change signs indexed by data IDs, or null to use the change signs of the data
+	 * @param satisfies array to mark satisfying relations, indexed by relation IDs
+	 * @return number of satisfying relations
+	 */
+	public int search(CompiledNetwork cn, int[] changeSigns, boolean[] satisfies)
+	{
+		if (changeSigns == null) cn.resetChangeSigns();
+
+		int cnt = 0;
+		for (int r = 0; r < cn.getRelationCount(); r++)
+		{
+			satisfies[r] = satisfiesCriteria(cn, r, changeSigns, null, null, null);
+			if (satisfies[r]) cnt++;
+		}
+		return cnt;
+	}
 
+	private void initCollections()
+	{
 		if (collectDataWithMissingEffect)
 		{
 			if (dataNeedsAnnotation == null) dataNeedsAnnotation = new HashSet<>();
@@ -166,11 +428,23 @@ public class CausalitySearcher implements Cloneable
 				pairsUsedForInference.clear();
 			}
 		}
+	}
 
-		// This is where magic happens
-		Set<Relation> results = relations.stream().filter(this::satisfiesCriteria).collect(Collectors.toSet());
+	/**
+	 * If a subset of the results is desired, trims it.
+	 */
+	private Set<Relation> applyGraphFilter(Set<Relation> results)
+	{
+		return applyGraphFilter(results, dataUsedForInference, pairsUsedForInference);
+	}
 
-		// If a subset of the results is desired, trim it
+	/**
+	 * If a subset of the results is desired, trims it, together with the given evidence collections.
+	 */
+	private Set<Relation> applyGraphFilter(Set<Relation> results,
+		Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
+	{
 		if (graphFilter != null)
 		{
 			results = graphFilter.postAnalysisFilter(results);
@@ -191,6 +465,124 @@ public class CausalitySearcher implements Cloneable
 		return results;
 	}
 
+	/**
+	 * Evaluates the relations in chunks on the thread pool. Each chunk collects its evidence in its own buffers, and
+	 * the buffers are merged in chunk order, so the outcome is the same as the sequential search.
+	 *
+	 * @param size number of relations
+	 * @param search the search to perform on an index range
+	 */
+	private Set<Relation> runParallel(int size, RangeSearch search)
+	{
+		if (pool == null) pool = new ForkJoinPool(threads);
+
+		List<Future<SearchChunk>> futures = new ArrayList<>();
+
+		for (int i = 0; i < size; i += CHUNK_SIZE)
+		{
+			SearchChunk chunk = new SearchChunk();
+			int from = i;
+			int to = Math.min(i + CHUNK_SIZE, size);
+			futures.add(pool.submit(() -> search.search(from, to, chunk), chunk));
+		}
+
+		Set<Relation> results = new HashSet<>();
+
+		try
+		{
+			for (Future<SearchChunk> future : futures)
+			{
+				SearchChunk chunk = future.get();
+				results.addAll(chunk.results);
+				if (collectDataWithMissingEffect) dataNeedsAnnotation.addAll(chunk.dataNeedsAnnotation);
+				if (collectDataUsedForInference)
+				{
+					dataUsedForInference.putAll(chunk.dataUsedForInference);
+					pairsUsedForInference.putAll(chunk.pairsUsedForInference);
+				}
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Search of the relations in an index range.
+	 */
+	private interface RangeSearch
+	{
+		void search(int from, int to, SearchChunk chunk);
+	}
+
+	/**
+	 * Buffers for the results and evidence collected during the search of a portion of the relations.
+	 */
+	private class SearchChunk
+	{
+		List<Relation> results;
+		Set<SiteModProteinData> dataNeedsAnnotation;
+		Map<Relation, Set<ExperimentData>> dataUsedForInference;
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference;
+
+		SearchChunk()
+		{
+			this.results = new ArrayList<>();
+			if (collectDataWithMissingEffect) this.dataNeedsAnnotation = new HashSet<>();
+			if (collectDataUsedForInference)
+			{
+				this.dataUsedForInference = new HashMap<>();
+				this.pairsUsedForInference = new HashMap<>();
+			}
+		}
+	}
+
+	/**
+	 * Checks if the relation with the given ID in the compiled network explains/conflicts its data. Evidence is
+	 * recorded into the given collections if collecting is on and they are not null. If change signs are given, they
+	 * are used for the relations whose change signs derive from their data.
+	 */
+	private boolean satisfiesCriteria(CompiledNetwork cn, int r, int[] changeSigns,
+		Set<SiteModProteinData> dataNeedsAnnotation,
+		Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
+	{
+		if (!cn.hasSourceAndTargetData(r)) return false;
+
+		boolean satisfies = false;
+
+		for (int i = cn.sourceStart[r]; i < cn.sourceStart[r + 1]; i++)
+		{
+			int s = cn.sourceData[i];
+
+			for (int j = cn.targetStart[r]; j < cn.targetStart[r + 1]; j++)
+			{
+				int t = cn.targetData[j];
+				int e = (changeSigns != null && cn.signFromData[r] ? changeSigns[s] * changeSigns[t] :
+					cn.getChangeSign(r, s, t)) * cn.sign[r];
+
+				if (e != 0 && collectDataWithMissingEffect && dataNeedsAnnotation != null && cn.effect[s] == 0)
+				{
+					dataNeedsAnnotation.add((SiteModProteinData) cn.data[s]);
+				}
+				else if (cn.effect[s] * e == causal)
+				{
+					if (collectDataUsedForInference && dataUsedForInference != null)
+					{
+						recordEvidence(cn.relations[r], cn.data[s], cn.data[t], dataUsedForInference,
+							pairsUsedForInference);
+					}
+					satisfies = true;
+				}
+			}
+		}
+
+		return satisfies;
+	}
+
 	/**
 	 * Checks if the relation explains/conflicts the associated data.
 	 * @param relation relation to check
@@ -198,25 +590,31 @@ public class CausalitySearcher implements Cloneable
 	 */
 	public boolean satisfiesCriteria(Relation relation)
 	{
-		// Get data of target gene this relation can explain the change
-		if (explainableTargetDataMap != null && !explainableTargetDataMap.containsKey(relation))
-			explainableTargetDataMap.put(relation, getExplainableTargetDataWithSiteMatch(relation));
+		return satisfiesCriteria(relation, dataNeedsAnnotation, dataUsedForInference, pairsUsedForInference);
+	}
 
-		Set<ExperimentData> td = explainableTargetDataMap == null ?
-			getExplainableTargetDataWithSiteMatch(relation) : explainableTargetDataMap.get(relation);
+	/**
+	 * Checks if the relation explains/conflicts the associated data, and records the evidence into the given
+	 * collections.
+	 */
+	private boolean satisfiesCriteria(Relation relation, Set<SiteModProteinData> dataNeedsAnnotation,
+		Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
+	{
+		// Get data of target gene this relation can explain the change
+		Set<ExperimentData> td = explainableTargetDataMap == null ? getExplainableTargetDataWithSiteMatch(relation) :
+			explainableTargetDataMap.computeIfAbsent(relation, this::getExplainableTargetDataWithSiteMatch);
 
 		if (!td.isEmpty())
 		{
 			// Get data of the source gene that can be cause of this relation
-			if (affectingSourceDataMap != null && !affectingSourceDataMap.containsKey(relation))
-				affectingSourceDataMap.put(relation, getAffectingSourceData(relation));
-
-			Set<ExperimentData> sd = affectingSourceDataMap == null ?
-				getAffectingSourceData(relation) : affectingSourceDataMap.get(relation);
+			Set<ExperimentData> sd = affectingSourceDataMap == null ? getAffectingSourceData(relation) :
+				affectingSourceDataMap.computeIfAbsent(relation, this::getAffectingSourceData);
 
 			if (!sd.isEmpty())
 			{
-				return satisfiesCriteria(sd, relation, td);
+				return satisfiesCriteria(sd, relation, td, dataNeedsAnnotation, dataUsedForInference,
+					pairsUsedForInference);
 			}
 		}
 		return false;
@@ -259,7 +657,9 @@ public class CausalitySearcher implements Cloneable
 	 * @param td target data
 	 * @return true if any sd td pair is explained/conflicted by the given relation
 	 */
-	private boolean satisfiesCriteria(Set<ExperimentData> sd, Relation rel, Set<ExperimentData> td)
+	private boolean satisfiesCriteria(Set<ExperimentData> sd, Relation rel, Set<ExperimentData> td,
+		Set<SiteModProteinData> dataNeedsAnnotation, Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
 	{
 		boolean satisfies = false;
 
@@ -267,7 +667,8 @@ public class CausalitySearcher implements Cloneable
 		{
 			for (ExperimentData targetData : td)
 			{
-				if (satisfiesCriteria(rel, sourceData, targetData))
+				if (satisfiesCriteria(rel, sourceData, targetData, dataNeedsAnnotation, dataUsedForInference,
+					pairsUsedForInference))
 				{
 					satisfies = true;
 				}
@@ -284,7 +685,9 @@ public class CausalitySearcher implements Cloneable
 	 * @param targetData the target data
 	 * @return true if the relation can explain/conflict the given data pair
 	 */
-	private boolean satisfiesCriteria(Relation rel, ExperimentData sourceData, ExperimentData targetData)
+	private boolean satisfiesCriteria(Relation rel, ExperimentData sourceData, ExperimentData targetData,
+		Set<SiteModProteinData> dataNeedsAnnotation, Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
 	{
 		int e = rel.chDet.getChangeSign(sourceData, targetData) * rel.getSign();
 
@@ -296,21 +699,28 @@ public class CausalitySearcher implements Cloneable
 		{
 			if (collectDataUsedForInference)
 			{
-				if (!dataUsedForInference.containsKey(rel))
-				{
-					dataUsedForInference.put(rel, new HashSet<>());
-					pairsUsedForInference.put(rel, new HashSet<>());
-				}
-
-				dataUsedForInference.get(rel).add(sourceData);
-				dataUsedForInference.get(rel).add(targetData);
-				pairsUsedForInference.get(rel).add(Arrays.asList(sourceData, targetData));
+				recordEvidence(rel, sourceData, targetData, dataUsedForInference, pairsUsedForInference);
 			}
 			return true;
 		}
 		return false;
 	}
 
+	private void recordEvidence(Relation rel, ExperimentData sourceData, ExperimentData targetData,
+		Map<Relation, Set<ExperimentData>> dataUsedForInference,
+		Map<Relation, Set<List<ExperimentData>>> pairsUsedForInference)
+	{
+		if (!dataUsedForInference.containsKey(rel))
+		{
+			dataUsedForInference.put(rel, new HashSet<>());
+			pairsUsedForInference.put(rel, new HashSet<>());
+		}
+
+		dataUsedForInference.get(rel).add(sourceData);
+		dataUsedForInference.get(rel).add(targetData);
+		pairsUsedForInference.get(rel).add(Arrays.asList(sourceData, targetData));
+	}
+
 	/**
 	 * Gets the source data that match with the given relation and target data.
 	 * @param rel the relation
@@ -320,7 +730,8 @@ public class CausalitySearcher implements Cloneable
 	public Set<ExperimentData> getSatisfyingSourceData(Relation rel, ExperimentData target)
 	{
 		return getAffectingSourceData(rel).stream()
-			.filter(source -> satisfiesCriteria(rel, source, target))
+			.filter(source -> satisfiesCriteria(rel, source, target, dataNeedsAnnotation, dataUsedForInference,
+				pairsUsedForInference))
 			.collect(Collectors.toSet());
 	}
 
@@ -539,8 +950,12 @@ public class CausalitySearcher implements Cloneable
 		if (corDet != null) writer.write("Source data type\tSource data ID\tSource site effect\tTarget data type\tTarget data ID\tTarget site effect\tCorrelation\tCorrelation pval");
 		else writer.write("Source data type\tSource data ID\tSource site effect\tSource change\t Source change pval\tTarget data type\tTarget data ID\tTarget site effect\tTarget change\tTarget change pval");
 
+		// Scores are calculated once for each relation, instead of at each comparison of the sort
+		Map<Relation, Double> scores = new HashMap<>();
+		pairsUsedForInference.keySet().forEach(r -> scores.put(r, getRelationScore(r)));
+
 		pairsUsedForInference.keySet().stream().
-			sorted(Comparator.comparing(this::getRelationScore).reversed()). // Sort relations to their significance
+			sorted(Comparator.comparing(scores::get).reversed()). // Sort relations to their significance
 			forEach(r -> pairsUsedForInference.get(r).stream().forEach(pair ->
 		{
 			Iterator<ExperimentData> iter = pair.iterator();
@@ -707,6 +1122,15 @@ public class CausalitySearcher implements Cloneable
 	}
 
 
+	/**
+	 * Tells if the candidate data of relations depend on the data values, in addition to the data types. If so, a
+	 * compiled network has to be rebuilt after the change thresholds are modified.
+	 */
+	public boolean isCandidateDataValueDependent()
+	{
+		return useStrongestProteomicsDataForActivity;
+	}
+
 	public void setPrioritizeActivityData(boolean prioritizeActivityData)
 	{
 		this.prioritizeActivityData = prioritizeActivityData;
@@ -727,6 +1151,20 @@ public class CausalitySearcher implements Cloneable
 		this.siteProximityThreshold = siteProximityThreshold;
 	}
 
+	/**
+	 * Sets the number of threads to use during the search. Results are the same with the sequential search.
+	 */
+	public void setThreads(int threads)
+	{
+		if (threads != this.threads) pool = null;
+		this.threads = threads;
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
 	public void setGraphFilter(GraphFilter graphFilter)
 	{
 		this.graphFilter = graphFilter;
@@ -742,6 +1180,18 @@ public class CausalitySearcher implements Cloneable
 		return graphFilter;
 	}
 
+	/**
+	 * Gets a key that is equal for searchers with the same reasoning settings. Threads and collection options are not
+	 * part of the key, since they do not change the results.
+	 */
+	public String getSettingsKey()
+	{
+		return causal + "\t" + forceSiteMatching + "\t" + siteProximityThreshold + "\t" +
+			mandateActivityDataUpstreamOfExpression + "\t" + Arrays.toString(expressionEvidence) + "\t" +
+			useStrongestProteomicsDataForActivity + "\t" + prioritizeActivityData + "\t" +
+			new TreeSet<>(generalActivityChangeIndicators) + "\t" + (graphFilter != null);
+	}
+
 	public void setExpressionEvidence(DataType... types)
 	{
 		expressionEvidence = types;
@@ -0,0 +1,277 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.causalpath.network.Relation;
+
+import java.util.*;
+
+/**
+ * An integer-indexed form of a set of relations that are decorated with experiment data. Genes, data rows and
+ * relations get dense IDs, and the candidate source and target data of each relation are kept in CSR-style int
+ * arrays. The candidate data are determined by the rules of the given causality searcher, at the time of
+ * construction, so this object has to be rebuilt when the data associations or the search settings change. Data
+ * values, however, can change freely (e.g. with shuffling).
+ *
+ * The IDs and the candidate data arrays are read-only after construction, and they can be shared by threads. The
+ * change signs of the data rows, however, are remembered in this object during an evaluation, and they are cleared
+ * with <code>resetChangeSigns</code>, which a search does when it is not given change signs explicitly. Threads that
+ * search the same object concurrently should therefore give their own change signs, and the remembered signs should
+ * not be reset while another thread is searching.
+ *
+ * Relations are ordered by their source, target and type, so relations between the same pair of genes are adjacent.
+ *
+ * @author Ozgun Babur
+ */
+public class CompiledNetwork
+{
+	/**
+	 * Marks a change sign that is not calculated yet.
+	 */
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	/**
+	 * The relations, indexed by their IDs.
+	 */
+	final Relation[] relations;
+
+	/**
+	 * Gene symbols, indexed by their IDs.
+	 */
+	final String[] genes;
+
+	/**
+	 * Gene IDs, mapped from gene symbols.
+	 */
+	private final Map<String, Integer> geneIDs;
+
+	/**
+	 * The data rows used by the relations, indexed by their IDs.
+	 */
+	final ExperimentData[] data;
+
+	/**
+	 * Source and target gene IDs, and the sign of each relation.
+	 */
+	final int[] source;
+	final int[] target;
+	final int[] sign;
+
+	/**
+	 * Candidate source data of relation r are in sourceData[sourceStart[r]] ... sourceData[sourceStart[r + 1] - 1].
+	 */
+	final int[] sourceStart;
+	final int[] sourceData;
+
+	/**
+	 * Candidate target data of relation r are in targetData[targetStart[r]] ... targetData[targetStart[r + 1] - 1].
+	 */
+	final int[] targetStart;
+	final int[] targetData;
+
+	/**
+	 * Effect of each data row.
+	 */
+	final int[] effect;
+
+	/**
+	 * Whether the change sign of a relation can be derived from the change signs of its data, without the pair
+	 * detector.
+	 */
+	final boolean[] signFromData;
+
+	/**
+	 * Change signs of data rows, calculated on demand and kept during one evaluation. See
+	 * <code>resetChangeSigns</code>.
+	 */
+	private final int[] changeSign;
+
+	public CompiledNetwork(Set<Relation> relations, CausalitySearcher cs)
+	{
+		List<Relation> list = new ArrayList<>(relations);
+		list.sort(Comparator.comparing((Relation r) -> r.source).thenComparing(r -> r.target)
+			.thenComparing(r -> r.type.getName()));
+
+		int n = list.size();
+		this.relations = list.toArray(new Relation[n]);
+		this.source = new int[n];
+		this.target = new int[n];
+		this.sign = new int[n];
+		this.signFromData = new boolean[n];
+		this.sourceStart = new int[n + 1];
+		this.targetStart = new int[n + 1];
+
+		this.geneIDs = new HashMap<>();
+		Map<ExperimentData, Integer> dataIDs = new IdentityHashMap<>();
+		List<String> geneList = new ArrayList<>();
+		List<ExperimentData> dataList = new ArrayList<>();
+		List<int[]> sources = new ArrayList<>(n);
+		List<int[]> targets = new ArrayList<>(n);
+		int sourceCnt = 0;
+		int targetCnt = 0;
+
+		for (int r = 0; r < n; r++)
+		{
+			Relation rel = this.relations[r];
+			source[r] = getID(rel.source, geneIDs, geneList);
+			target[r] = getID(rel.target, geneIDs, geneList);
+			sign[r] = rel.getSign();
+			signFromData[r] = rel.chDet instanceof CausalityHelper;
+
+			Set<ExperimentData> td = cs.getExplainableTargetDataWithSiteMatch(rel);
+			Set<ExperimentData> sd = td.isEmpty() ? Collections.emptySet() : cs.getAffectingSourceData(rel);
+
+			int[] t = td.stream().mapToInt(d -> getID(d, dataIDs, dataList)).toArray();
+			int[] s = sd.stream().mapToInt(d -> getID(d, dataIDs, dataList)).toArray();
+			targets.add(t);
+			sources.add(s);
+			sourceCnt += s.length;
+			targetCnt += t.length;
+		}
+
+		this.sourceData = new int[sourceCnt];
+		this.targetData = new int[targetCnt];
+		fillCSR(sources, sourceStart, sourceData);
+		fillCSR(targets, targetStart, targetData);
+
+		this.genes = geneList.toArray(new String[geneList.size()]);
+		this.data = dataList.toArray(new ExperimentData[dataList.size()]);
+		this.effect = new int[data.length];
+		for (int i = 0; i < data.length; i++)
+		{
+			effect[i] = data[i].getEffect();
+		}
+		this.changeSign = new int[data.length];
+		resetChangeSigns();
+	}
+
+	private static <T> int getID(T obj, Map<T, Integer> ids, List<T> list)
+	{
+		Integer id = ids.get(obj);
+		if (id == null)
+		{
+			id = list.size();
+			ids.put(obj, id);
+			list.add(obj);
+		}
+		return id;
+	}
+
+	private static void fillCSR(List<int[]> lists, int[] start, int[] content)
+	{
+		int k = 0;
+		for (int r = 0; r < lists.size(); r++)
+		{
+			start[r] = k;
+			int[] ids = lists.get(r);
+			System.arraycopy(ids, 0, content, k, ids.length);
+			k += ids.length;
+		}
+		start[lists.size()] = k;
+	}
+
+	/**
+	 * Clears the remembered change signs of the data. This has to be called whenever data values or detector
+	 * thresholds change.
+	 */
+	public void resetChangeSigns()
+	{
+		Arrays.fill(changeSign, UNKNOWN);
+	}
+
+	/**
+	 * Gets the change sign of the data row with the given ID. The sign is calculated once, then remembered until the
+	 * next reset. Concurrent calls are safe since the same value is calculated by each thread.
+	 */
+	int getChangeSign(int dataID)
+	{
+		int s = changeSign[dataID];
+		if (s == UNKNOWN)
+		{
+			s = data[dataID].getChangeSign();
+			changeSign[dataID] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Gets the change sign for the given data pair, using the pair detector of the relation.
+	 */
+	int getChangeSign(int relID, int sourceID, int targetID)
+	{
+		if (signFromData[relID]) return getChangeSign(sourceID) * getChangeSign(targetID);
+		return relations[relID].chDet.getChangeSign(data[sourceID], data[targetID]);
+	}
+
+	/**
+	 * Checks if the relation has any candidate target data.
+	 */
+	public boolean hasTargetData(int relID)
+	{
+		return targetStart[relID + 1] > targetStart[relID];
+	}
+
+	/**
+	 * Checks if the relation has any candidate source data and target data.
+	 */
+	public boolean hasSourceAndTargetData(int relID)
+	{
+		return hasTargetData(relID) && sourceStart[relID + 1] > sourceStart[relID];
+	}
+
+	public int getRelationCount()
+	{
+		return relations.length;
+	}
+
+	public Relation getRelation(int relID)
+	{
+		return relations[relID];
+	}
+
+	public int getGeneCount()
+	{
+		return genes.length;
+	}
+
+	public String getGene(int geneID)
+	{
+		return genes[geneID];
+	}
+
+	/**
+	 * Gets the ID of the given gene, or -1 if the gene is not in the network.
+	 */
+	public int getGeneID(String gene)
+	{
+		Integer id = geneIDs.get(gene);
+		return id == null ? -1 : id;
+	}
+
+	public int getSource(int relID)
+	{
+		return source[relID];
+	}
+
+	public int getTarget(int relID)
+	{
+		return target[relID];
+	}
+
+	public int getDataCount()
+	{
+		return data.length;
+	}
+
+	public ExperimentData getData(int dataID)
+	{
+		return data[dataID];
+	}
+
+	/**
+	 * Checks if the relation connects the same gene pair with the previous relation in the order.
+	 */
+	boolean isSameGenePairWithPrevious(int relID)
+	{
+		return relID > 0 && source[relID] == source[relID - 1] && target[relID] == target[relID - 1];
+	}
+}
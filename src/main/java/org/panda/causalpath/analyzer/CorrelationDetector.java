@@ -8,10 +8,12 @@ import org.panda.utility.Tuple;
 import org.panda.utility.statistics.*;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Change detector for experiment data pairs based on their correlation.
@@ -37,6 +39,17 @@ public class CorrelationDetector implements TwoDataChangeDetector
 
 	RandomMatrixUser rmu;
 
+	/**
+	 * Remembered correlations of the data pairs, shared by the users of this detector.
+	 */
+	private final CorrelationStore store = new CorrelationStore();
+
+	/**
+	 * Precomputed statistics of the numeric rows, mapped to the serial numbers of the data. They can be released when
+	 * memory is needed, which matters when the data values are in an off-heap store.
+	 */
+	private final Map<Integer, SoftReference<RowStats>> rowStats = new ConcurrentHashMap<>();
+
 	/**
 	 * If no threshold is needed, pass -1 for that threshold.
 	 */
@@ -61,6 +74,7 @@ public class CorrelationDetector implements TwoDataChangeDetector
 	public void setMinimumSampleSize(int minimumSampleSize)
 	{
 		this.minimumSampleSize = minimumSampleSize;
+		store.clear();
 	}
 
 	public void setCorrelationUpperThreshold(double correlationUpperThreshold)
@@ -71,23 +85,52 @@ public class CorrelationDetector implements TwoDataChangeDetector
 	public void setUseMissingData(boolean useMissingData)
 	{
 		this.useMissingData = useMissingData;
+		store.clear();
+	}
+
+	public boolean isUseMissingData()
+	{
+		return useMissingData;
 	}
 
 	public void setCategDataSufficiencyThreshold(double categDataSufficiencyThreshold)
 	{
 		this.categDataSufficiencyThreshold = categDataSufficiencyThreshold;
+		store.clear();
 	}
 
 	public void setRandomMatrices(RandomizedMatrices phosphoRandM, RandomizedMatrices totProtRandM,
 		List<String> valueColumn) throws IOException, ClassNotFoundException
 	{
 		this.rmu = new RandomMatrixUser(phosphoRandM, totProtRandM, valueColumn);
+		store.clear();
+	}
+
+	/**
+	 * Gets the correlation store of this detector, to forget the correlations when the data values are replaced.
+	 */
+	public CorrelationStore getStore()
+	{
+		return store;
 	}
 
 	@Override
 	public int getChangeSign(ExperimentData data1, ExperimentData data2)
 	{
-		Tuple corr = calcCorrelation(data1, data2);
+		return getChangeSign(calcCorrelation(data1, data2));
+	}
+
+	/**
+	 * Gets the change sign without remembering the correlation. This is for the randomized data, whose correlations
+	 * are not used again.
+	 */
+	int getChangeSignWithoutStore(ExperimentData data1, ExperimentData data2)
+	{
+		return getChangeSign(calcCorrelationWithoutStore(data1, data2));
+	}
+
+	private int getChangeSign(Tuple corr)
+	{
 		if (Double.isNaN(corr.p)) return 0;
 
 		if (pvalThreshold >= 0 && corr.p > pvalThreshold) return 0;
@@ -96,7 +139,16 @@ public class CorrelationDetector implements TwoDataChangeDetector
 		return (int) Math.signum(corr.v);
 	}
 
+	/**
+	 * Gets the correlation of the given data pair. The result is remembered until the values of the data change, and
+	 * should not be modified.
+	 */
 	public Tuple calcCorrelation(ExperimentData data1, ExperimentData data2)
+	{
+		return store.get(data1, data2, this::calcCorrelationWithoutStore);
+	}
+
+	Tuple calcCorrelationWithoutStore(ExperimentData data1, ExperimentData data2)
 	{
 		Tuple tup1 = calcCorrelationNaive(data1, data2);
 
@@ -121,7 +173,12 @@ public class CorrelationDetector implements TwoDataChangeDetector
 			NumericData nd1 = (NumericData) data1;
 			NumericData nd2 = (NumericData) data2;
 
-			double[][] v = ArrayUtil.trimNaNs(nd1.vals, nd2.vals);
+			if (nd1.getVals().length == nd2.getVals().length)
+			{
+				return pearson(getRowStats(nd1), getRowStats(nd2));
+			}
+
+			double[][] v = ArrayUtil.trimNaNs(nd1.getVals(), nd2.getVals());
 
 			if (v[0].length < minimumSampleSize) return new Tuple(Double.NaN, Double.NaN);
 
@@ -140,7 +197,7 @@ public class CorrelationDetector implements TwoDataChangeDetector
 			int catNum = qd.getNumberOfCategories(cat);
 			if (catNum == 1) return new Tuple();
 
-			double[] val = nd.vals;
+			double[] val = nd.getVals();
 
 			List<double[]> groups = ArrayUtil.separateToCategories(cat, val, minimumSampleSize);
 
@@ -166,10 +223,22 @@ public class CorrelationDetector implements TwoDataChangeDetector
 			CategoricalData qd1 = (CategoricalData) data1;
 			CategoricalData qd2 = (CategoricalData) data2;
 
-			int[] cat1 = qd1.getCategories();
-			int[] cat2 = qd2.getCategories();
+			// Binary rows are counted with bit operations
+			BinaryRow br1 = qd1.getBinaryRow();
+			BinaryRow br2 = qd2.getBinaryRow();
+			long[][] cont = br1 != null && br2 != null && br1.size() == br2.size() ?
+				br1.getContingencyTable(br2) : null;
+			boolean binary = cont != null;
+
+			int[] cat1 = null;
+			int[] cat2 = null;
+			if (!binary)
+			{
+				cat1 = qd1.getCategories();
+				cat2 = qd2.getCategories();
+				cont = ArrayUtil.convertCategoriesToContingencyTable(cat1, cat2);
+			}
 
-			long[][] cont = ArrayUtil.convertCategoriesToContingencyTable(cat1, cat2);
 			long[][] recon = GTest.reconfigure(cont);
 
 			double pval;
@@ -196,6 +265,8 @@ public class CorrelationDetector implements TwoDataChangeDetector
 				pval = ChiSquare.testDependence(cont);
 			}
 
+			if (binary) return new Tuple(br1.getCorrelation(br2), pval);
+
 			double[][] v = ArrayUtil.trimNaNs(ArrayUtil.toDouble(cat1), ArrayUtil.toDouble(cat2));
 			double corr = Correlation.pearsonVal(v[0], v[1]);
 			return new Tuple(corr, pval);
@@ -204,6 +275,180 @@ public class CorrelationDetector implements TwoDataChangeDetector
 		return new Tuple();
 	}
 
+	/**
+	 * Gets the precomputed statistics of the current values of the given data.
+	 */
+	private RowStats getRowStats(NumericData nd)
+	{
+		double[] vals = nd.getVals();
+		int epoch = nd.getValuesEpoch();
+		SoftReference<RowStats> ref = rowStats.get(nd.getSerial());
+		RowStats rs = ref == null ? null : ref.get();
+
+		if (rs == null || rs.vals != vals || rs.epoch != epoch)
+		{
+			rs = new RowStats(vals, epoch);
+			rowStats.put(nd.getSerial(), new SoftReference<>(rs));
+		}
+		return rs;
+	}
+
+	/**
+	 * Pearson correlation of two rows of the same length, using the samples where both rows have a value. If neither
+	 * row has a missing value, this is a dot product of the standardized rows.
+	 */
+	private Tuple pearson(RowStats rs1, RowStats rs2)
+	{
+		double r;
+		int n;
+
+		if (rs1.present == null && rs2.present == null)
+		{
+			n = rs1.vals.length;
+			if (n < minimumSampleSize) return new Tuple(Double.NaN, Double.NaN);
+
+			r = 0;
+			for (int i = 0; i < n; i++)
+			{
+				r += rs1.z[i] * rs2.z[i];
+			}
+		}
+		else
+		{
+			int words = (rs1.vals.length + 63) >>> 6;
+
+			n = 0;
+			double sum1 = 0;
+			double sum2 = 0;
+			for (int w = 0; w < words; w++)
+			{
+				long bits = rs1.getPresent(w) & rs2.getPresent(w);
+				n += Long.bitCount(bits);
+
+				for (; bits != 0; bits &= bits - 1)
+				{
+					int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+					sum1 += rs1.vals[i];
+					sum2 += rs2.vals[i];
+				}
+			}
+
+			if (n < minimumSampleSize) return new Tuple(Double.NaN, Double.NaN);
+
+			double mean1 = sum1 / n;
+			double mean2 = sum2 / n;
+			double ss1 = 0;
+			double ss2 = 0;
+			double sp = 0;
+			for (int w = 0; w < words; w++)
+			{
+				for (long bits = rs1.getPresent(w) & rs2.getPresent(w); bits != 0; bits &= bits - 1)
+				{
+					int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+					double d1 = rs1.vals[i] - mean1;
+					double d2 = rs2.vals[i] - mean2;
+					ss1 += d1 * d1;
+					ss2 += d2 * d2;
+					sp += d1 * d2;
+				}
+			}
+
+			r = sp / Math.sqrt(ss1 * ss2);
+		}
+
+		// Rounding can carry the value slightly out of range
+		if (r > 1) r = 1;
+		else if (r < -1) r = -1;
+
+		return new Tuple(r, getPValue(r, n));
+	}
+
+	/**
+	 * Two-tailed p-value of the Pearson correlation with the given sample size, using the t distribution with n - 2
+	 * degrees of freedom.
+	 */
+	static double getPValue(double r, int n)
+	{
+		if (Double.isNaN(r)) return Double.NaN;
+		int df = n - 2;
+		return BatchTTest.getTwoTailedP(r * Math.sqrt(df / (1 - r * r)), df);
+	}
+
+	/**
+	 * Statistics of a numeric row that are calculated once, instead of at each of its pairs.
+	 */
+	private static class RowStats
+	{
+		/**
+		 * The values these statistics are calculated from.
+		 */
+		final double[] vals;
+
+		/**
+		 * Value epoch of the data at the time of calculation.
+		 */
+		final int epoch;
+
+		/**
+		 * Bits of the samples that have a value. Null if all samples have a value.
+		 */
+		final long[] present;
+
+		/**
+		 * Centered values, scaled to unit length. Only calculated if all samples have a value.
+		 */
+		final double[] z;
+
+		RowStats(double[] vals, int epoch)
+		{
+			this.vals = vals;
+			this.epoch = epoch;
+
+			long[] mask = new long[(vals.length + 63) >>> 6];
+			int n = 0;
+			double sum = 0;
+			for (int i = 0; i < vals.length; i++)
+			{
+				if (!Double.isNaN(vals[i]))
+				{
+					mask[i >>> 6] |= 1L << i;
+					n++;
+					sum += vals[i];
+				}
+			}
+
+			if (n < vals.length)
+			{
+				present = mask;
+				z = null;
+			}
+			else
+			{
+				present = null;
+				z = new double[n];
+
+				double mean = sum / n;
+				double ss = 0;
+				for (int i = 0; i < n; i++)
+				{
+					z[i] = vals[i] - mean;
+					ss += z[i] * z[i];
+				}
+
+				double norm = Math.sqrt(ss);
+				for (int i = 0; i < n; i++)
+				{
+					z[i] /= norm;
+				}
+			}
+		}
+
+		long getPresent(int word)
+		{
+			return present == null ? -1L : present[word];
+		}
+	}
+
 	public Tuple calcCorrelationWithMissingData(ExperimentData data1, ExperimentData data2)
 	{
 		if (data1 instanceof ProteinData || data2 instanceof ProteinData)
@@ -294,12 +539,12 @@ public class CorrelationDetector implements TwoDataChangeDetector
 			if (presData.getType() == DataType.PHOSPHOPROTEIN)
 			{
 				return phosphoRandM.getPValueForSignificantT(
-					presData.getId(), protData.vals, obs.p, randPhosphoToCPIndexMap, minimumSampleSize);
+					presData.getId(), protData.getVals(), obs.p, randPhosphoToCPIndexMap, minimumSampleSize);
 			}
 			else
 			{
 				return totProtRandM.getPValueForSignificantT(
-					presData.getId(), protData.vals, obs.p, randTotProtToCPIndexMap, minimumSampleSize);
+					presData.getId(), protData.getVals(), obs.p, randTotProtToCPIndexMap, minimumSampleSize);
 			}
 		}
 	}
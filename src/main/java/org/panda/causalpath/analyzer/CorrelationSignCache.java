@@ -0,0 +1,236 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.causalpath.data.CategoricalData;
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.causalpath.data.NumericData;
+import org.panda.causalpath.network.Relation;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the correlation signs between the value rows of the data in a network, for label-shuffling
+ * randomizations. Shuffling only changes which row sits at which data, so the sign of each row pair needs to be
+ * calculated only once, and later permutations become index lookups.
+ *
+ * Signs are kept with 2 bits per row pair in a triangular matrix, if the matrix fits in the memory limit. Otherwise
+ * they are kept in a map with a bounded number of entries, and the pairs that do not fit are calculated on demand. The
+ * cache is also bypassed when the detector does not depend only on the value rows, e.g. when it uses missing data.
+ * This class is safe to use from multiple threads.
+ *
+ * @author Ozgun Babur
+ */
+public class CorrelationSignCache
+{
+	/**
+	 * Default memory limit in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 256L << 20;
+
+	/**
+	 * Approximate memory use of an entry in the sparse map.
+	 */
+	private static final int BYTES_PER_MAP_ENTRY = 80;
+
+	/**
+	 * The detector to calculate signs.
+	 */
+	private final TwoDataChangeDetector det;
+
+	/**
+	 * IDs of the value rows, mapped from the IDs of the data that originally have the values. Value arrays are not
+	 * used as keys, since the values that are read from an off-heap store may be read again into a new array.
+	 */
+	private final Map<String, Integer> rowIDs;
+
+	/**
+	 * A data for each row, holding the values of the row, to calculate signs on.
+	 */
+	private final ExperimentData[] rows;
+
+	/**
+	 * The dense triangular matrix of 2-bit sign codes. Null if not used.
+	 */
+	private final AtomicLongArray matrix;
+
+	/**
+	 * The sparse sign codes. Null if not used.
+	 */
+	private final Map<Long, Byte> map;
+
+	/**
+	 * Maximum number of entries in the sparse map.
+	 */
+	private final long maxMapSize;
+
+	/**
+	 * Constructor with the network, whose relations are all associated with the same correlation detector.
+	 *
+	 * @param relations relations with data
+	 * @param memoryLimit maximum number of bytes to use for storing signs
+	 */
+	public CorrelationSignCache(Set<Relation> relations, long memoryLimit)
+	{
+		this.det = relations.isEmpty() ? null : relations.iterator().next().chDet;
+		this.rowIDs = new HashMap<>();
+
+		// Data that share the same value array share the row
+		Map<Object, Integer> valueRows = new IdentityHashMap<>();
+		List<ExperimentData> list = new ArrayList<>();
+		relations.stream().map(Relation::getAllData).flatMap(Collection::stream).distinct()
+			.sorted(Comparator.comparing(ExperimentData::getId)).forEach(d ->
+		{
+			if (rowIDs.containsKey(d.getId())) return;
+
+			Object values = getValues(d);
+			if (values == null) return;
+
+			Integer row = valueRows.get(values);
+			if (row == null)
+			{
+				row = list.size();
+				valueRows.put(values, row);
+				list.add(d.copy());
+			}
+			rowIDs.put(d.getId(), row);
+		});
+		this.rows = list.toArray(new ExperimentData[list.size()]);
+
+		long pairs = (long) rows.length * (rows.length + 1) / 2;
+		long words = (pairs + 31) / 32;
+
+		if (!isCacheable(det))
+		{
+			this.matrix = null;
+			this.map = null;
+			this.maxMapSize = 0;
+		}
+		else if (words * 8 <= memoryLimit && words <= Integer.MAX_VALUE)
+		{
+			this.matrix = new AtomicLongArray((int) words);
+			this.map = null;
+			this.maxMapSize = 0;
+		}
+		else
+		{
+			this.matrix = null;
+			this.map = new ConcurrentHashMap<>();
+			this.maxMapSize = memoryLimit / BYTES_PER_MAP_ENTRY;
+		}
+	}
+
+	/**
+	 * The signs are cacheable only if they depend on the value rows alone.
+	 */
+	private static boolean isCacheable(TwoDataChangeDetector det)
+	{
+		return det instanceof CorrelationDetector && !((CorrelationDetector) det).isUseMissingData();
+	}
+
+	/**
+	 * Gets the value array of the data.
+	 */
+	static Object getValues(ExperimentData data)
+	{
+		if (data instanceof NumericData) return ((NumericData) data).getVals();
+		else if (data instanceof CategoricalData) return ((CategoricalData) data).categories;
+		return null;
+	}
+
+	/**
+	 * Checks if the signs are remembered, or always calculated on demand.
+	 */
+	public boolean isActive()
+	{
+		return matrix != null || map != null;
+	}
+
+	/**
+	 * Gets the row of the values that the given data originally has.
+	 *
+	 * @return the row, or -1 if the values of the data are not in the cache
+	 */
+	public int getRow(String dataID)
+	{
+		Integer row = rowIDs.get(dataID);
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * Gets the correlation sign between the given data, which have their original values.
+	 */
+	public int getChangeSign(ExperimentData data1, ExperimentData data2)
+	{
+		if (!isActive()) return calcSign(data1, data2);
+
+		Integer row1 = rowIDs.get(data1.getId());
+		Integer row2 = rowIDs.get(data2.getId());
+
+		if (row1 == null || row2 == null) return calcSign(data1, data2);
+
+		return getChangeSign(row1, row2);
+	}
+
+	/**
+	 * Gets the correlation sign between the given rows.
+	 */
+	int getChangeSign(int row1, int row2)
+	{
+		int i = Math.min(row1, row2);
+		int j = Math.max(row1, row2);
+		long pair = (long) j * (j + 1) / 2 + i;
+
+		if (matrix != null)
+		{
+			int w = (int) (pair >>> 5);
+			int shift = (int) (pair & 31) << 1;
+
+			int code = (int) (matrix.get(w) >>> shift) & 3;
+			if (code != 0) return decode(code);
+
+			int sign = calcSign(rows[i], rows[j]);
+			long bits = (long) encode(sign) << shift;
+			long word;
+			do
+			{
+				word = matrix.get(w);
+			}
+			while (((word >>> shift) & 3) == 0 && !matrix.compareAndSet(w, word, word | bits));
+
+			return sign;
+		}
+		else
+		{
+			Byte code = map.get(pair);
+			if (code != null) return decode(code);
+
+			int sign = calcSign(rows[i], rows[j]);
+			if (map.size() < maxMapSize) map.put(pair, (byte) encode(sign));
+			return sign;
+		}
+	}
+
+	/**
+	 * Calculates the sign of the current values. The correlations of the randomized values are not remembered by the
+	 * detector, since they are used only once.
+	 */
+	int calcSign(ExperimentData data1, ExperimentData data2)
+	{
+		return det instanceof CorrelationDetector ? ((CorrelationDetector) det).getChangeSignWithoutStore(data1, data2) :
+			det.getChangeSign(data1, data2);
+	}
+
+	/**
+	 * Zero is reserved for unknown signs.
+	 */
+	private static int encode(int sign)
+	{
+		return sign == 1 ? 1 : sign == -1 ? 2 : 3;
+	}
+
+	private static int decode(int code)
+	{
+		return code == 1 ? 1 : code == 2 ? -1 : 0;
+	}
+}
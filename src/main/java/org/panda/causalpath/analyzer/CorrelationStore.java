@@ -0,0 +1,70 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.utility.Tuple;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Remembers the correlation of data pairs, so that detection, FDR adjustment, sorting and output of the results do
+ * not calculate the same correlation again. Pairs are identified with the serial numbers of the data. A remembered
+ * result is used only if the values of both data are not changed since it was calculated.
+ *
+ * @author Ozgun Babur
+ */
+public class CorrelationStore
+{
+	/**
+	 * A correlation, and the value epochs of the data when it was calculated.
+	 */
+	private static class Entry
+	{
+		final int epoch1;
+		final int epoch2;
+		final Tuple result;
+
+		Entry(int epoch1, int epoch2, Tuple result)
+		{
+			this.epoch1 = epoch1;
+			this.epoch2 = epoch2;
+			this.result = result;
+		}
+	}
+
+	private final Map<Long, Entry> map = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the remembered correlation of the given pair, or calculates and remembers it.
+	 *
+	 * @param calculator calculates the correlation when it is not remembered or is outdated
+	 */
+	public Tuple get(ExperimentData data1, ExperimentData data2, BiFunction<ExperimentData, ExperimentData, Tuple> calculator)
+	{
+		long key = ((long) data1.getSerial() << 32) | (data2.getSerial() & 0xFFFFFFFFL);
+		int epoch1 = data1.getValuesEpoch();
+		int epoch2 = data2.getValuesEpoch();
+
+		Entry entry = map.get(key);
+		if (entry != null && entry.epoch1 == epoch1 && entry.epoch2 == epoch2) return entry.result;
+
+		Tuple result = calculator.apply(data1, data2);
+		map.put(key, new Entry(epoch1, epoch2, result));
+		return result;
+	}
+
+	/**
+	 * Forgets all remembered correlations. This is necessary when the way of calculation changes, and it releases the
+	 * memory when the values of the data are changed.
+	 */
+	public void clear()
+	{
+		map.clear();
+	}
+
+	public int size()
+	{
+		return map.size();
+	}
+}
@@ -19,7 +19,18 @@ public class DataLabelShuffler
 	Map<DataType, List<NumericData>> numDataLists;
 	Map<DataType, List<CategoricalData>> catDataLists;
 	Map<DataType, List<double[]>> numDataVals;
-	Map<DataType, List<SingleCategoricalData[]>> catDataVals;
+	Map<DataType, List<byte[]>> catDataVals;
+
+	/**
+	 * Original order of the values, used for shuffling with a given random number generator.
+	 */
+	Map<DataType, List<double[]>> numDataValsOrig;
+	Map<DataType, List<byte[]>> catDataValsOrig;
+
+	/**
+	 * Scratch array for permutations.
+	 */
+	int[] order;
 
 	/**
 	 * Empty constructor for the extending class.
@@ -61,22 +72,28 @@ public class DataLabelShuffler
 		for (DataType type : DataType.values())
 		{
 			List<ExperimentData> list = this.relations.stream().map(Relation::getAllData).flatMap(Collection::stream)
-				.filter(d -> d.getType().equals(type)).distinct().collect(Collectors.toList());
+				.filter(d -> d.getType().equals(type)).distinct().sorted(Comparator.comparing(ExperimentData::getId))
+				.collect(Collectors.toList());
 
 			if (!list.isEmpty())
 			{
 				if (type.isNumerical())
 				{
 					numDataLists.put(type, list.stream().map(d -> (NumericData) d).collect(Collectors.toList()));
-					numDataVals.put(type, numDataLists.get(type).stream().map(d -> d.vals).collect(Collectors.toList()));
+					numDataVals.put(type, numDataLists.get(type).stream().map(NumericData::getVals).collect(Collectors.toList()));
 				}
 				else
 				{
 					catDataLists.put(type, list.stream().map(d -> (CategoricalData) d).collect(Collectors.toList()));
-					catDataVals.put(type, catDataLists.get(type).stream().map(d -> d.data).collect(Collectors.toList()));
+					catDataVals.put(type, catDataLists.get(type).stream().map(d -> d.categories).collect(Collectors.toList()));
 				}
 			}
 		}
+
+		numDataValsOrig = new HashMap<>();
+		numDataVals.forEach((type, vals) -> numDataValsOrig.put(type, new ArrayList<>(vals)));
+		catDataValsOrig = new HashMap<>();
+		catDataVals.forEach((type, datas) -> catDataValsOrig.put(type, new ArrayList<>(datas)));
 	}
 
 	public void shuffle()
@@ -89,27 +106,100 @@ public class DataLabelShuffler
 			List<NumericData> list = numDataLists.get(type);
 			for (int i = 0; i < list.size(); i++)
 			{
-				list.get(i).vals = vals.get(i);
+				list.get(i).setVals(vals.get(i));
 			}
 		}
 		for (DataType type : catDataLists.keySet())
 		{
-			List<SingleCategoricalData[]> datas = catDataVals.get(type);
+			List<byte[]> datas = catDataVals.get(type);
 			Collections.shuffle(datas);
 
 			List<CategoricalData> list = catDataLists.get(type);
 			for (int i = 0; i < list.size(); i++)
 			{
-				list.get(i).data = datas.get(i);
+				list.get(i).setCategories(datas.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Shuffles the data values within each data type, starting from the original order of the values. The outcome
+	 * depends only on the given random number generator, hence it is reproducible.
+	 */
+	public void shuffle(SplittableRandom random)
+	{
+		for (DataType type : DataType.values())
+		{
+			if (numDataLists.containsKey(type))
+			{
+				List<double[]> vals = numDataValsOrig.get(type);
+				List<NumericData> list = numDataLists.get(type);
+				int[] order = getPermutation(list.size(), random);
+				for (int i = 0; i < order.length; i++)
+				{
+					list.get(i).setVals(vals.get(order[i]));
+				}
+				valuesMoved(list, order);
+			}
+			else if (catDataLists.containsKey(type))
+			{
+				List<byte[]> datas = catDataValsOrig.get(type);
+				List<CategoricalData> list = catDataLists.get(type);
+				int[] order = getPermutation(list.size(), random);
+				for (int i = 0; i < order.length; i++)
+				{
+					list.get(i).setCategories(datas.get(order[i]));
+				}
+				valuesMoved(list, order);
 			}
 		}
 	}
 
+	/**
+	 * Called after a reproducible shuffle of a data type.
+	 *
+	 * @param list the data of the type, in their fixed order
+	 * @param order the i-th data now has the original values of the order[i]-th data
+	 */
+	protected void valuesMoved(List<? extends ExperimentData> list, int[] order)
+	{
+		// Nothing to do by default
+	}
+
+	/**
+	 * Gets a random permutation of 0 ... size - 1, in a reused array.
+	 */
+	private int[] getPermutation(int size, SplittableRandom random)
+	{
+		if (order == null || order.length != size) order = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			order[i] = i;
+		}
+		for (int i = size - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		return order;
+	}
+
 	public Set<Relation> getRelations()
 	{
 		return relations;
 	}
 
+	/**
+	 * Gets a shuffler for the change signs of the data in the given compiled network, which has to be compiled from the
+	 * relations of this object, before any shuffling.
+	 */
+	public SignShuffler getSignShuffler(CompiledNetwork cn)
+	{
+		return new SignShuffler(cn);
+	}
+
 	private GeneWithData convert(GeneWithData orig, Map<String, ExperimentData> dataMap)
 	{
 		GeneWithData copy = new GeneWithData(orig.getId());
@@ -135,15 +225,15 @@ public class DataLabelShuffler
 		}
 		else if (copy instanceof MutationData)
 		{
-			((MutationData) copy).data = new SingleCategoricalData[]{new Mutation(orig.getChangeSign(), null)};
+			((MutationData) copy).categories = new byte[]{(byte) orig.getChangeSign()};
 		}
 		else if (copy instanceof CNAData)
 		{
-			((CNAData) copy).data = new SingleCategoricalData[]{new CNA(orig.getChangeSign())};
+			((CNAData) copy).categories = new byte[]{(byte) orig.getChangeSign()};
 		}
 		else if (copy instanceof ActivityData)
 		{
-			((ActivityData) copy).data = new SingleCategoricalData[]{new Activity(orig.getChangeSign())};
+			((ActivityData) copy).categories = new byte[]{(byte) orig.getChangeSign()};
 		}
 
 		dataMap.put(orig.id, copy);
@@ -157,11 +247,11 @@ public class DataLabelShuffler
 		{
 			if (data instanceof NumericData)
 			{
-				return (int) ((NumericData) data).vals[0];
+				return (int) ((NumericData) data).getVals()[0];
 			}
 			else
 			{
-				return ((CategoricalData) data).data[0].getCategory();
+				return ((CategoricalData) data).getCategory(0);
 			}
 		}
 
@@ -177,4 +267,140 @@ public class DataLabelShuffler
 			throw new UnsupportedOperationException("This is not a cloneable detector! Sorry.");
 		}
 	}
+
+	/**
+	 * Shuffles the change signs of the data in a compiled network. This is equivalent to the <code>shuffle</code>
+	 * method, but the data are not modified, hence multiple sign shufflers can be used concurrently. Each shuffle
+	 * starts from the canonical (sorted by data ID) order of the signs, so its outcome depends only on the given
+	 * random number generator.
+	 */
+	public class SignShuffler
+	{
+		/**
+		 * Original change signs of each data type, in canonical order.
+		 */
+		final int[][] canonical;
+
+		/**
+		 * The pool of each data in the compiled network, or -1 if the data is not shuffled.
+		 */
+		final int[] pool;
+
+		/**
+		 * Position of each data in the compiled network in its pool.
+		 */
+		final int[] position;
+
+		/**
+		 * Change signs of the data that are not shuffled.
+		 */
+		final int[] fixed;
+
+		/**
+		 * The pools being shuffled.
+		 */
+		final int[][] scratch;
+
+		SignShuffler(CompiledNetwork cn)
+		{
+			List<List<ExperimentData>> lists = new ArrayList<>();
+			for (DataType type : DataType.values())
+			{
+				if (numDataLists.containsKey(type)) lists.add(new ArrayList<>(numDataLists.get(type)));
+				else if (catDataLists.containsKey(type)) lists.add(new ArrayList<>(catDataLists.get(type)));
+			}
+
+			Map<ExperimentData, int[]> location = new IdentityHashMap<>();
+			canonical = new int[lists.size()][];
+			for (int k = 0; k < lists.size(); k++)
+			{
+				List<ExperimentData> list = lists.get(k);
+				list.sort(Comparator.comparing(ExperimentData::getId));
+				canonical[k] = new int[list.size()];
+				for (int i = 0; i < list.size(); i++)
+				{
+					canonical[k][i] = list.get(i).getChangeSign();
+					location.put(list.get(i), new int[]{k, i});
+				}
+			}
+
+			int n = cn.getDataCount();
+			pool = new int[n];
+			position = new int[n];
+			fixed = new int[n];
+			for (int d = 0; d < n; d++)
+			{
+				int[] loc = location.get(cn.getData(d));
+				if (loc == null)
+				{
+					pool[d] = -1;
+					fixed[d] = cn.getData(d).getChangeSign();
+				}
+				else
+				{
+					pool[d] = loc[0];
+					position[d] = loc[1];
+				}
+			}
+
+			scratch = newScratch(canonical);
+		}
+
+		/**
+		 * Copy constructor that shares the read-only parts.
+		 */
+		private SignShuffler(SignShuffler orig)
+		{
+			canonical = orig.canonical;
+			pool = orig.pool;
+			position = orig.position;
+			fixed = orig.fixed;
+			scratch = newScratch(canonical);
+		}
+
+		private int[][] newScratch(int[][] canonical)
+		{
+			int[][] s = new int[canonical.length][];
+			for (int k = 0; k < canonical.length; k++)
+			{
+				s[k] = new int[canonical[k].length];
+			}
+			return s;
+		}
+
+		/**
+		 * Gets a sign shuffler that can be used by another thread.
+		 */
+		public SignShuffler copy()
+		{
+			return new SignShuffler(this);
+		}
+
+		/**
+		 * Shuffles the change signs within each data type.
+		 *
+		 * @param random random number generator to use
+		 * @param changeSigns shuffled change signs are written here, indexed by the data IDs of the compiled network
+		 */
+		public void shuffle(SplittableRandom random, int[] changeSigns)
+		{
+			for (int k = 0; k < canonical.length; k++)
+			{
+				int[] p = scratch[k];
+				System.arraycopy(canonical[k], 0, p, 0, p.length);
+				for (int i = p.length - 1; i > 0; i--)
+				{
+					int j = random.nextInt(i + 1);
+					int tmp = p[i];
+					p[i] = p[j];
+					p[j] = tmp;
+				}
+			}
+
+			for (int d = 0; d < pool.length; d++)
+			{
+				changeSigns[d] = pool[d] < 0 ? fixed[d] : scratch[pool[d]][position[d]];
+			}
+		}
+	}
 }
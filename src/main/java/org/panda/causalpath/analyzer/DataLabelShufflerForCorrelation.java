@@ -4,7 +4,6 @@ import org.panda.causalpath.data.*;
 import org.panda.causalpath.network.Relation;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * This class is for shuffling the rows of the data. It first converts data in simpler format, then provides shuffling
@@ -14,18 +13,71 @@ import java.util.stream.Collectors;
  */
 public class DataLabelShufflerForCorrelation extends DataLabelShuffler
 {
-	private static final boolean USE_CACHE = false;
+	/**
+	 * Rows of the correlation sign cache whose values the data currently have, mapped from data IDs. Null when no cache
+	 * is used.
+	 */
+	private Map<String, Integer> currentRows;
 
-	Map<Object, Map<Object, Integer>> correlationMap;
+	/**
+	 * Rows of the original values of the data.
+	 */
+	private Map<String, Integer> origRows;
 
 	public DataLabelShufflerForCorrelation(Set<Relation> relations)
+	{
+		this(relations, null);
+	}
+
+	/**
+	 * Constructor with a cache of correlation signs, which may be shared by multiple shufflers of the same relations.
+	 *
+	 * @param relations relations to shuffle the data of
+	 * @param cache correlation sign cache for the relations, or null to calculate correlations on demand
+	 */
+	public DataLabelShufflerForCorrelation(Set<Relation> relations, CorrelationSignCache cache)
 	{
 		init(relations);
-		correlationMap = new HashMap<>();
 
 		TwoDataChangeDetector det = relations.iterator().next().chDet;
-		if (USE_CACHE) det = new ChDet(det);
-		this.relations.forEach(r -> r.setChDet(det));
+		if (cache != null && cache.isActive())
+		{
+			origRows = new HashMap<>();
+			this.relations.stream().map(Relation::getAllData).flatMap(Collection::stream).distinct().forEach(d ->
+			{
+				int row = cache.getRow(d.getId());
+				if (row >= 0) origRows.put(d.getId(), row);
+			});
+			currentRows = new HashMap<>(origRows);
+			det = new ChDet(cache);
+		}
+
+		TwoDataChangeDetector chDet = det;
+		this.relations.forEach(r -> r.setChDet(chDet));
+	}
+
+	/**
+	 * This shuffling does not tell where the values came from, hence the signs are calculated on demand afterwards.
+	 */
+	@Override
+	public void shuffle()
+	{
+		super.shuffle();
+		if (currentRows != null) currentRows.clear();
+	}
+
+	@Override
+	protected void valuesMoved(List<? extends ExperimentData> list, int[] order)
+	{
+		if (currentRows == null) return;
+
+		for (int i = 0; i < order.length; i++)
+		{
+			String id = list.get(i).getId();
+			Integer row = origRows.get(list.get(order[i]).getId());
+			if (row == null) currentRows.remove(id);
+			else currentRows.put(id, row);
+		}
 	}
 
 	/**
@@ -41,39 +93,26 @@ public class DataLabelShufflerForCorrelation extends DataLabelShuffler
 		return copy;
 	}
 
-	private Object getInnerData(ExperimentData data)
-	{
-		if (data instanceof NumericData) return ((NumericData) data).vals;
-		else if (data != null) return ((CategoricalData) data).data;
-		return null;
-	}
-
+	/**
+	 * Detector that reads correlation signs from the cache, using the rows whose values the data currently have.
+	 */
 	class ChDet implements TwoDataChangeDetector
 	{
-		TwoDataChangeDetector originalDet;
+		CorrelationSignCache cache;
 
-		public ChDet(TwoDataChangeDetector originalDet)
+		public ChDet(CorrelationSignCache cache)
 		{
-			this.originalDet = originalDet;
+			this.cache = cache;
 		}
 
 		@Override
 		public int getChangeSign(ExperimentData source, ExperimentData target)
 		{
-			Object os = getInnerData(source);
-			Object ot = getInnerData(target);
-
-			if (!correlationMap.containsKey(os)) correlationMap.put(os, new HashMap<>());
-			if (!correlationMap.containsKey(ot)) correlationMap.put(ot, new HashMap<>());
-
-			if (!correlationMap.get(os).containsKey(ot))
-			{
-				int corr = originalDet.getChangeSign(source, target);
-				correlationMap.get(os).put(ot, corr);
-				correlationMap.get(ot).put(os, corr);
-			}
+			Integer row1 = currentRows.get(source.getId());
+			Integer row2 = currentRows.get(target.getId());
 
-			return correlationMap.get(os).get(ot);
+			if (row1 == null || row2 == null) return cache.calcSign(source, target);
+			return cache.getChangeSign(row1, row2);
 		}
 	}
 }
@@ -0,0 +1,52 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.utility.Tuple;
+
+/**
+ * Result of a change detector on an experiment data, which is remembered by the data. The result is valid as long as
+ * the settings of the detector and the values of the data do not change, which is tracked with epoch counters. The
+ * change threshold is not part of the result, hence the change sign is derived from the result on each call.
+ *
+ * @author Ozgun Babur
+ */
+public class DetectionResult
+{
+	/**
+	 * The detector that generated the result.
+	 */
+	final OneDataChangeDetector detector;
+
+	/**
+	 * Settings epoch of the detector at the time of detection.
+	 */
+	final int detectorEpoch;
+
+	/**
+	 * Values epoch of the data at the time of detection.
+	 */
+	final int dataEpoch;
+
+	/**
+	 * The change value.
+	 */
+	final double value;
+
+	/**
+	 * The result of the statistical test, if the detector uses one.
+	 */
+	final Tuple test;
+
+	DetectionResult(OneDataChangeDetector detector, int detectorEpoch, int dataEpoch, double value, Tuple test)
+	{
+		this.detector = detector;
+		this.detectorEpoch = detectorEpoch;
+		this.dataEpoch = dataEpoch;
+		this.value = value;
+		this.test = test;
+	}
+
+	boolean isValid(OneDataChangeDetector detector, int detectorEpoch, int dataEpoch)
+	{
+		return this.detector == detector && this.detectorEpoch == detectorEpoch && this.dataEpoch == dataEpoch;
+	}
+}
@@ -15,12 +15,13 @@ public class DifferenceDetector extends ComparisonDetector
 		super(threshold, control, test);
 	}
 
-	public double getChangeValue(ExperimentData data)
+	@Override
+	protected double calculateChangeValue(ExperimentData data)
 	{
 		if (data instanceof NumericData)
 		{
 			NumericData nd = (NumericData) data;
-			return ArrayUtil.mean(nd.vals, test) - ArrayUtil.mean(nd.vals, control);
+			return ArrayUtil.mean(nd.getVals(), test) - ArrayUtil.mean(nd.getVals(), control);
 		}
 		else if (data instanceof CategoricalData)
 		{
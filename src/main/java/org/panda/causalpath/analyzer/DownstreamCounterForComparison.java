@@ -1,12 +1,8 @@
 package org.panda.causalpath.analyzer;
 
-import org.panda.causalpath.data.ExperimentData;
 import org.panda.causalpath.network.Relation;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -19,62 +15,109 @@ import java.util.stream.Collectors;
  */
 public class DownstreamCounterForComparison extends DownstreamCounterForCorrelation
 {
-	Map<Relation, Set<ExperimentData>> rel2Datas;
+	/**
+	 * Compiled form of the relations, holding the explainable target data of each relation.
+	 */
+	CompiledNetwork cn;
 
 	public DownstreamCounterForComparison(CausalitySearcher cs, Set<Relation> relations)
 	{
-		super(cs);
+		this(cs, new CompiledNetwork(relations, cs));
+	}
 
-		rel2Datas = new HashMap<>();
-		for (Relation rel : relations)
-		{
-			rel2Datas.put(rel, cs.getExplainableTargetDataWithSiteMatch(rel));
-		}
+	public DownstreamCounterForComparison(CausalitySearcher cs, CompiledNetwork cn)
+	{
+		super(cs);
+		this.cn = cn;
 	}
 
 	public Map<String, Integer>[] run()
 	{
-		Map<String, Set<String>> total = new HashMap<>();
-		Map<String, Set<String>> activ = new HashMap<>();
-		Map<String, Set<String>> inhib = new HashMap<>();
+		int[][] counts = new int[3][cn.getGeneCount()];
+		count(counts);
 
-		Set<Relation> relations = rel2Datas.keySet();
+		Map<String, Integer>[] maps = new Map[]{new HashMap<>(), new HashMap<>(), new HashMap<>()};
 
-		relations.forEach(r ->
+		for (int r = 0; r < cn.getRelationCount(); r++)
 		{
-			Set<ExperimentData> td = rel2Datas.get(r);
-
-			if (!td.isEmpty())
+			if (cn.hasTargetData(r))
 			{
-				if (!total.containsKey(r.source))
+				int gene = cn.source[r];
+				for (int i = 0; i < 3; i++)
 				{
-					total.put(r.source, new HashSet<>());
-					activ.put(r.source, new HashSet<>());
-					inhib.put(r.source, new HashSet<>());
+					maps[i].put(cn.genes[gene], counts[i][gene]);
 				}
 			}
+		}
+
+		return maps;
+	}
 
-			td.forEach(d ->
+	/**
+	 * Counts the downstream targets with changed data for each source gene, without allocating any objects.
+	 *
+	 * @param counts three arrays indexed by the gene IDs in the compiled network, to fill with the counts of targets
+	 * that are changed, that suggest activation, and that suggest inhibition, respectively
+	 */
+	public void count(int[][] counts)
+	{
+		count(null, counts);
+	}
+
+	/**
+	 * Same with <code>count(int[][])</code>, but optionally uses the given change signs instead of the ones of the
+	 * data.
+	 *
+	 * @param changeSigns change signs indexed by data IDs, or null to use the change signs of the data
+	 * @param counts arrays to fill with the counts
+	 */
+	public void count(int[] changeSigns, int[][] counts)
+	{
+		if (changeSigns == null) cn.resetChangeSigns();
+		for (int[] c : counts)
+		{
+			Arrays.fill(c, 0);
+		}
+
+		boolean total = false;
+		boolean activ = false;
+		boolean inhib = false;
+
+		for (int r = 0; r < cn.getRelationCount(); r++)
+		{
+			// Targets are counted once even if there are multiple relations to the same target
+			if (!cn.isSameGenePairWithPrevious(r))
 			{
-				int sign = d.getChangeSign() * r.getSign();
+				total = false;
+				activ = false;
+				inhib = false;
+			}
+
+			int gene = cn.source[r];
 
-				if (sign != 0)
+			for (int j = cn.targetStart[r]; j < cn.targetStart[r + 1]; j++)
+			{
+				int t = cn.targetData[j];
+				int sign = (changeSigns == null ? cn.getChangeSign(t) : changeSigns[t]) * cn.sign[r];
+
+				if (sign != 0 && !total)
 				{
-					total.get(r.source).add(r.target);
+					counts[0][gene]++;
+					total = true;
 				}
 
-				if (sign == 1)
+				if (sign == 1 && !activ)
 				{
-					activ.get(r.source).add(r.target);
+					counts[1][gene]++;
+					activ = true;
 				}
-				else if (sign == -1)
+				else if (sign == -1 && !inhib)
 				{
-					inhib.get(r.source).add(r.target);
+					counts[2][gene]++;
+					inhib = true;
 				}
-			});
-		});
-
-		return new Map[]{convertToCounts(total), convertToCounts(activ), convertToCounts(inhib)};
+			}
+		}
 	}
 
 	public Map<String, Integer> getGenesPotentialDownstreamMax(Set<Relation> relations)
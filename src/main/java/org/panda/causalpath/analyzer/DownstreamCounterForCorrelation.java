@@ -2,10 +2,7 @@ package org.panda.causalpath.analyzer;
 
 import org.panda.causalpath.network.Relation;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -35,6 +32,32 @@ public class DownstreamCounterForCorrelation
 		return new Map[]{convertToCounts(total)};
 	}
 
+	/**
+	 * Counts the targets of each source gene that are connected with a relation satisfying the causality criteria,
+	 * without allocating any objects.
+	 *
+	 * @param cn the compiled network
+	 * @param satisfies the relations that satisfy the criteria, as marked by <code>CausalitySearcher.search</code>
+	 * @param counts array indexed by the gene IDs in the compiled network, to fill with the counts
+	 */
+	public void count(CompiledNetwork cn, boolean[] satisfies, int[] counts)
+	{
+		Arrays.fill(counts, 0);
+		boolean counted = false;
+
+		for (int r = 0; r < cn.getRelationCount(); r++)
+		{
+			// Targets are counted once even if there are multiple relations to the same target
+			if (!cn.isSameGenePairWithPrevious(r)) counted = false;
+
+			if (satisfies[r] && !counted)
+			{
+				counts[cn.source[r]]++;
+				counted = true;
+			}
+		}
+	}
+
 	protected Map<String, Integer> convertToCounts(Map<String, Set<String>> map)
 	{
 		return map.keySet().stream().collect(Collectors.toMap(s -> s, s -> map.get(s).size()));
@@ -8,7 +8,6 @@ import org.panda.utility.ArrayUtil;
 import org.panda.utility.CollectionUtil;
 import org.panda.utility.Tuple;
 import org.panda.utility.statistics.Correlation;
-import org.panda.utility.statistics.FDR;
 import org.panda.utility.statistics.Histogram2D;
 import org.panda.utility.statistics.UniformityChecker;
 
@@ -56,41 +55,7 @@ public class FDRAdjuster
 
 	public void adjustPValueThresholdsOfDatas(Set<ExperimentData> datas, Map<DataType, Double> fdrMap) throws IOException
 	{
-		Map<DataType, Set<ExperimentData>> dataMap = new HashMap<>();
-
-		// classify data according to type
-
-		for (ExperimentData data : datas)
-		{
-			OneDataChangeDetector chDet = data.getChDet();
-
-			if (chDet instanceof SignificanceDetector)
-			{
-				DataType type = data.getType();
-				if (!dataMap.containsKey(type)) dataMap.put(type, new HashSet<>());
-				dataMap.get(type).add(data);
-			}
-		}
-
-		// unite proteomics if needed
-		if (poolProteomics && dataMap.containsKey(DataType.PROTEIN))
-		{
-			if (dataMap.containsKey(DataType.PHOSPHOPROTEIN))
-			{
-				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.PHOSPHOPROTEIN));
-				dataMap.remove(DataType.PHOSPHOPROTEIN);
-			}
-			if (dataMap.containsKey(DataType.ACETYLPROTEIN))
-			{
-				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.ACETYLPROTEIN));
-				dataMap.remove(DataType.ACETYLPROTEIN);
-			}
-			if (dataMap.containsKey(DataType.METHYLPROTEIN))
-			{
-				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.METHYLPROTEIN));
-				dataMap.remove(DataType.METHYLPROTEIN);
-			}
-		}
+		Map<DataType, Set<ExperimentData>> dataMap = groupByType(datas);
 
 		// for each type detect the p-value threshold and set it
 
@@ -105,22 +70,18 @@ public class FDRAdjuster
 		{
 			if (!fdrMap.containsKey(type)) continue;
 
-			Map<ExperimentData, Double> pvalues = new HashMap<>();
-			dataMap.get(type).forEach(d ->
-			{
-				double p = ((SignificanceDetector) d.getChDet()).getPValue(d);
-				if (!Double.isNaN(p)) pvalues.put(d, p);
-			});
+			BenjaminiHochberg bh = new BenjaminiHochberg(getPValues(dataMap.get(type)));
 
 			// Record uniformity
 
 			if (writer != null)
 			{
 				writer.write("\nData type = " + type + "\n");
-				UniformityChecker.plot(pvalues.values().stream().collect(Collectors.toList()), writer);
+				UniformityChecker.plot(Arrays.stream(getPValues(dataMap.get(type))).filter(p -> !Double.isNaN(p))
+					.boxed().collect(Collectors.toList()), writer);
 			}
 
-			double pThr = FDR.getPValueThreshold(pvalues, null, fdrMap.get(type));
+			double pThr = bh.getPValueThreshold(fdrMap.get(type));
 
 //			if (type == DataType.PROTEIN || type == DataType.PHOSPHOPROTEIN)
 //			{
@@ -164,4 +125,101 @@ public class FDRAdjuster
 //		debug code ----------------------
 
 	}
+
+	/**
+	 * Groups the data that are tested for significance by their types, pooling proteomics if needed.
+	 */
+	private Map<DataType, Set<ExperimentData>> groupByType(Set<ExperimentData> datas)
+	{
+		Map<DataType, Set<ExperimentData>> dataMap = new HashMap<>();
+
+		// classify data according to type
+
+		for (ExperimentData data : datas)
+		{
+			OneDataChangeDetector chDet = data.getChDet();
+
+			if (chDet instanceof SignificanceDetector)
+			{
+				DataType type = data.getType();
+				if (!dataMap.containsKey(type)) dataMap.put(type, new HashSet<>());
+				dataMap.get(type).add(data);
+			}
+		}
+
+		// unite proteomics if needed
+		if (poolProteomics && dataMap.containsKey(DataType.PROTEIN))
+		{
+			if (dataMap.containsKey(DataType.PHOSPHOPROTEIN))
+			{
+				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.PHOSPHOPROTEIN));
+				dataMap.remove(DataType.PHOSPHOPROTEIN);
+			}
+			if (dataMap.containsKey(DataType.ACETYLPROTEIN))
+			{
+				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.ACETYLPROTEIN));
+				dataMap.remove(DataType.ACETYLPROTEIN);
+			}
+			if (dataMap.containsKey(DataType.METHYLPROTEIN))
+			{
+				dataMap.get(DataType.PROTEIN).addAll(dataMap.get(DataType.METHYLPROTEIN));
+				dataMap.remove(DataType.METHYLPROTEIN);
+			}
+		}
+
+		return dataMap;
+	}
+
+	private static double[] getPValues(Set<ExperimentData> datas)
+	{
+		return datas.stream().mapToDouble(d -> ((SignificanceDetector) d.getChDet()).getPValue(d)).toArray();
+	}
+
+	/**
+	 * Sorts the p-values of the given data once for each data type, so that the thresholds for many FDR levels can be
+	 * found without testing or sorting again.
+	 *
+	 * @param datas data to control FDR
+	 * @return sorted p-values and detectors of each data type
+	 */
+	public SortedPValues sortPValues(Set<ExperimentData> datas)
+	{
+		SortedPValues sorted = new SortedPValues();
+
+		groupByType(datas).forEach((type, set) ->
+		{
+			sorted.pvals.put(type, new BenjaminiHochberg(getPValues(set)));
+			sorted.detectors.put(type, set.stream().map(d -> (ThresholdDetector) d.getChDet())
+				.collect(Collectors.toSet()));
+		});
+
+		return sorted;
+	}
+
+	/**
+	 * Sets the p-value thresholds of the detectors to control the false discovery rate at the given levels.
+	 *
+	 * @param sorted the sorted p-values
+	 * @param fdrMap desired FDR threshold for each data type
+	 */
+	public void adjustPValueThresholds(SortedPValues sorted, Map<DataType, Double> fdrMap)
+	{
+		sorted.pvals.forEach((type, bh) ->
+		{
+			if (!fdrMap.containsKey(type)) return;
+
+			double pThr = bh.getPValueThreshold(fdrMap.get(type));
+			System.out.println("type = " + type + "\tfdr = " + fdrMap.get(type) + "\tpThr = " + pThr);
+			sorted.detectors.get(type).forEach(det -> det.setThreshold(pThr));
+		});
+	}
+
+	/**
+	 * Sorted p-values of data, and the detectors of the data, for each data type.
+	 */
+	public static class SortedPValues
+	{
+		final Map<DataType, BenjaminiHochberg> pvals = new HashMap<>();
+		final Map<DataType, Set<ThresholdDetector>> detectors = new HashMap<>();
+	}
 }
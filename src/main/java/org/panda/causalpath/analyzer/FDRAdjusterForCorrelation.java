@@ -33,7 +33,11 @@ public class FDRAdjusterForCorrelation
 
 	public void adjustPValueThresholdsForFDR(double fdrForCorrelation) throws IOException
 	{
-		Map<String, Double> pvals = new HashMap<>();
+		// The same pair can be used in both directions, but it is tested once
+		Map<ExperimentData, Integer> ids = new IdentityHashMap<>();
+		Set<Long> tested = new HashSet<>();
+		double[] pvals = new double[pairs.size()];
+		int n = 0;
 
 		for (List<ExperimentData> pair : pairs)
 		{
@@ -41,23 +45,27 @@ public class FDRAdjusterForCorrelation
 			ExperimentData data1 = iter.next();
 			ExperimentData data2 = iter.next();
 
+			if (!tested.add(getKey(getID(data1, ids), getID(data2, ids)))) continue;
+
 			Tuple corr = cd.calcCorrelation(data1, data2);
 			if (!corr.isNaN())
 			{
-				pvals.put(getID(pair), corr.p);
+				pvals[n++] = corr.p;
 			}
 		}
+		pvals = Arrays.copyOf(pvals, n);
 
 		if (directory != null)
 		{
 			BufferedWriter writer = Files.newBufferedWriter(Paths.get(directory + "/pval-uniformity.txt"));
-			UniformityChecker.plot(pvals.values().stream().collect(Collectors.toList()), writer);
+			UniformityChecker.plot(Arrays.stream(pvals).boxed().collect(Collectors.toList()), writer);
 			writer.close();
 		}
 
-		double pThr = FDR.getPValueThreshold(pvals, null, fdrForCorrelation);
-		System.out.println("Correlation p-value thr is " + pThr + " on " + pvals.size() + " correlations, selecting " +
-			pvals.keySet().stream().filter(k -> pvals.get(k) <= pThr).count());
+		BenjaminiHochberg bh = new BenjaminiHochberg(pvals, true);
+		double pThr = bh.getPValueThreshold(fdrForCorrelation);
+		System.out.println("Correlation p-value thr is " + pThr + " on " + n + " correlations, selecting " +
+			bh.getSelectedCount(fdrForCorrelation));
 
 		cd.setPvalThreshold(pThr);
 
@@ -91,12 +99,23 @@ public class FDRAdjusterForCorrelation
 		// end of debug-----------------------------------------------------------------
 	}
 
-	private String getID(List<ExperimentData> pair)
+	private static int getID(ExperimentData data, Map<ExperimentData, Integer> ids)
+	{
+		Integer id = ids.get(data);
+		if (id == null)
+		{
+			id = ids.size();
+			ids.put(data, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Gets a key for the unordered pair of data IDs.
+	 */
+	private static long getKey(int id1, int id2)
 	{
-		StringBuilder sb = new StringBuilder();
-		pair.stream().sorted(Comparator.comparing(ExperimentData::getId))
-			.forEach(e -> sb.append(e.getId()).append(":"));
-		return sb.toString();
+		return ((long) Math.min(id1, id2) << 32) | Math.max(id1, id2);
 	}
 
 	private boolean allNumeric(Set<ExperimentData> pair)
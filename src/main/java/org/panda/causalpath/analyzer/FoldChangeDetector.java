@@ -14,13 +14,14 @@ public class FoldChangeDetector extends ComparisonDetector
 		super(threshold, control, test);
 	}
 
-	public double getChangeValue(ExperimentData data)
+	@Override
+	protected double calculateChangeValue(ExperimentData data)
 	{
 		if (data instanceof NumericData)
 		{
 			NumericData nd = (NumericData) data;
-			double t = ArrayUtil.mean(nd.vals, test);
-			double c = ArrayUtil.mean(nd.vals, control);
+			double t = ArrayUtil.mean(nd.getVals(), test);
+			double c = ArrayUtil.mean(nd.getVals(), control);
 
 			if (t > c) return t / c;
 
@@ -0,0 +1,533 @@
+package org.panda.causalpath.analyzer;
+
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.causalpath.data.SiteModProteinData;
+import org.panda.causalpath.network.Relation;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the causal and conflicting relations of a compiled network up to date while the change thresholds are
+ * modified, without searching the whole network again. Data rows are kept sorted by the statistic that their detector
+ * compares to its threshold, and pairs of correlation relations are kept sorted by their p-values. When a threshold
+ * moves, only the rows or pairs between the old and the new thresholds can change status, and only the relations
+ * that touch those are evaluated again.
+ *
+ * This class assumes that only the thresholds change. Data values and the candidate data of relations should stay the
+ * same, otherwise the network has to be compiled and searched again. If other settings of a detector change, all
+ * relations that depend on that detector are evaluated again.
+ *
+ * @author Ozgun Babur
+ */
+public class IncrementalSearch
+{
+	private final CompiledNetwork cn;
+	private final CausalitySearcher cs;
+
+	/**
+	 * Relations that each data row is candidate source or target of, in CSR form. Only relations whose change sign
+	 * derives from their data are included.
+	 */
+	private final int[] incidenceStart;
+	private final int[] incidence;
+
+	/**
+	 * Change signs of the data rows at the last evaluation.
+	 */
+	private final int[] dataSign;
+
+	/**
+	 * Data rows grouped by their detectors.
+	 */
+	private final List<RowGroup> rowGroups;
+
+	/**
+	 * Data rows whose detectors do not use a threshold in a known way. These are checked at every update.
+	 */
+	private final int[] otherRows;
+
+	/**
+	 * Relations grouped by their correlation detectors.
+	 */
+	private final List<PairGroup> pairGroups;
+
+	/**
+	 * Relations whose pair detectors are not known. These are evaluated at every update.
+	 */
+	private final int[] otherRelations;
+
+	/**
+	 * Outcome of the last evaluation of each relation: 1 for causal, 2 for conflicting, 3 for both.
+	 */
+	private final byte[] status;
+
+	/**
+	 * Evidence recorded at the last evaluation of each relation. Null if there is none.
+	 */
+	private final Set<ExperimentData>[] causalData;
+	private final Set<ExperimentData>[] conflictingData;
+	private final Set<List<ExperimentData>>[] causalPairs;
+	private final Set<List<ExperimentData>>[] conflictingPairs;
+	private final Set<SiteModProteinData>[] dataNeedsAnnotation;
+
+	/**
+	 * Reusable collections for evaluating a relation.
+	 */
+	private final ThreadLocal<CausalityResults> scratch;
+
+	/**
+	 * Number of relations evaluated at the last update.
+	 */
+	private int lastUpdateSize;
+
+	/**
+	 * Evaluates all relations of the given network.
+	 *
+	 * @param cn the compiled network
+	 * @param cs the searcher that compiled the network
+	 */
+	@SuppressWarnings("unchecked")
+	public IncrementalSearch(CompiledNetwork cn, CausalitySearcher cs)
+	{
+		this.cn = cn;
+		this.cs = cs;
+
+		int n = cn.getRelationCount();
+		int d = cn.getDataCount();
+
+		this.status = new byte[n];
+		this.causalData = new Set[n];
+		this.conflictingData = new Set[n];
+		this.causalPairs = new Set[n];
+		this.conflictingPairs = new Set[n];
+		this.dataNeedsAnnotation = new Set[n];
+		this.scratch = ThreadLocal.withInitial(() ->
+			new CausalityResults(cs.collectDataWithMissingEffect, cs.collectDataUsedForInference));
+
+		// Find data rows whose change signs are used, and the relations they touch
+
+		int[] count = new int[d + 1];
+		boolean[] signRow = new boolean[d];
+		List<Integer> others = new ArrayList<>();
+		Map<CorrelationDetector, List<Integer>> correlationRels = new IdentityHashMap<>();
+
+		for (int r = 0; r < n; r++)
+		{
+			if (!cn.hasSourceAndTargetData(r)) continue;
+
+			if (cn.signFromData[r])
+			{
+				forEachData(r, id ->
+				{
+					count[id]++;
+					signRow[id] = true;
+				});
+			}
+			else if (cn.relations[r].chDet instanceof CorrelationDetector)
+			{
+				correlationRels.computeIfAbsent((CorrelationDetector) cn.relations[r].chDet, k -> new ArrayList<>())
+					.add(r);
+			}
+			else others.add(r);
+		}
+
+		this.incidenceStart = new int[d + 1];
+		for (int i = 0; i < d; i++)
+		{
+			incidenceStart[i + 1] = incidenceStart[i] + count[i];
+		}
+		this.incidence = new int[incidenceStart[d]];
+		int[] pos = Arrays.copyOf(incidenceStart, d);
+		for (int r = 0; r < n; r++)
+		{
+			int rel = r;
+			if (cn.signFromData[r] && cn.hasSourceAndTargetData(r)) forEachData(r, id -> incidence[pos[id]++] = rel);
+		}
+
+		this.otherRelations = others.stream().mapToInt(Integer::intValue).toArray();
+
+		// Group the data rows by their detectors
+
+		Map<ThresholdDetector, List<Integer>> rowsOfDet = new IdentityHashMap<>();
+		List<Integer> otherRowList = new ArrayList<>();
+		for (int i = 0; i < d; i++)
+		{
+			if (!signRow[i]) continue;
+
+			OneDataChangeDetector det = cn.data[i].getChDet();
+			if (det instanceof ThresholdDetector)
+			{
+				rowsOfDet.computeIfAbsent((ThresholdDetector) det, k -> new ArrayList<>()).add(i);
+			}
+			else otherRowList.add(i);
+		}
+		this.rowGroups = new ArrayList<>();
+		rowsOfDet.forEach((det, rows) -> rowGroups.add(new RowGroup(det, rows)));
+		this.otherRows = otherRowList.stream().mapToInt(Integer::intValue).toArray();
+
+		this.pairGroups = new ArrayList<>();
+		correlationRels.forEach((det, rels) -> pairGroups.add(new PairGroup(det, rels)));
+
+		// Evaluate everything
+
+		cn.resetChangeSigns();
+		this.dataSign = new int[d];
+		for (int i = 0; i < d; i++)
+		{
+			if (signRow[i]) dataSign[i] = cn.getChangeSign(i);
+		}
+
+		evaluate(IntStream.range(0, n).filter(cn::hasSourceAndTargetData).toArray());
+	}
+
+	private void forEachData(int r, IntConsumer action)
+	{
+		for (int i = cn.sourceStart[r]; i < cn.sourceStart[r + 1]; i++)
+		{
+			action.accept(cn.sourceData[i]);
+		}
+		for (int j = cn.targetStart[r]; j < cn.targetStart[r + 1]; j++)
+		{
+			// A row can be both a source and a target candidate of the same relation
+			if (!contains(cn.sourceData, cn.sourceStart[r], cn.sourceStart[r + 1], cn.targetData[j]))
+			{
+				action.accept(cn.targetData[j]);
+			}
+		}
+	}
+
+	private static boolean contains(int[] array, int from, int to, int value)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (array[i] == value) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Brings the results up to date with the current thresholds of the detectors.
+	 *
+	 * @return number of relations evaluated again
+	 */
+	public int update()
+	{
+		BitSet dirty = new BitSet(cn.getRelationCount());
+
+		// Find the data rows whose status may have flipped
+		cn.resetChangeSigns();
+		for (RowGroup group : rowGroups)
+		{
+			group.collectCandidates(row -> checkRow(row, dirty));
+		}
+		for (int row : otherRows)
+		{
+			checkRow(row, dirty);
+		}
+
+		// Find the correlation relations whose status may have flipped
+		for (PairGroup group : pairGroups)
+		{
+			group.collectCandidates(dirty);
+		}
+		for (int r : otherRelations)
+		{
+			dirty.set(r);
+		}
+
+		int[] rels = dirty.stream().toArray();
+		evaluate(rels);
+		lastUpdateSize = rels.length;
+		return rels.length;
+	}
+
+	/**
+	 * Marks the relations of the data row if its change sign is flipped.
+	 */
+	private void checkRow(int row, BitSet dirty)
+	{
+		int sign = cn.getChangeSign(row);
+		if (sign != dataSign[row])
+		{
+			dataSign[row] = sign;
+			for (int i = incidenceStart[row]; i < incidenceStart[row + 1]; i++)
+			{
+				dirty.set(incidence[i]);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the given relations, in parallel if the searcher is multi-threaded.
+	 */
+	private void evaluate(int[] rels)
+	{
+		if (cs.getThreads() > 1 && rels.length > 512)
+		{
+			ForkJoinPool pool = new ForkJoinPool(cs.getThreads());
+			try
+			{
+				pool.submit(() -> Arrays.stream(rels).parallel().forEach(this::evaluate)).get();
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		else
+		{
+			for (int r : rels)
+			{
+				evaluate(r);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the relation with the given ID, and replaces its previous outcome and evidence.
+	 */
+	private void evaluate(int r)
+	{
+		CausalityResults res = scratch.get();
+		res.clear();
+		cs.classify(cn, r, res);
+
+		Relation rel = cn.relations[r];
+		status[r] = (byte) ((res.causal.isEmpty() ? 0 : 1) | (res.conflicting.isEmpty() ? 0 : 2));
+
+		if (res.causalData != null)
+		{
+			causalData[r] = res.causalData.get(rel);
+			conflictingData[r] = res.conflictingData.get(rel);
+			causalPairs[r] = res.causalPairs.get(rel);
+			conflictingPairs[r] = res.conflictingPairs.get(rel);
+		}
+		if (res.dataNeedsAnnotation != null)
+		{
+			dataNeedsAnnotation[r] = res.dataNeedsAnnotation.isEmpty() ? null : new HashSet<>(res.dataNeedsAnnotation);
+		}
+	}
+
+	/**
+	 * Gets the current causal and conflicting relations with their evidence. The graph filter of the searcher is
+	 * applied, and the evidence collections of the searcher are set as in
+	 * <code>CausalitySearcher.runCausalAndConflicting</code>.
+	 */
+	public CausalityResults getResults()
+	{
+		CausalityResults res = new CausalityResults(cs.collectDataWithMissingEffect, cs.collectDataUsedForInference);
+
+		for (int r = 0; r < status.length; r++)
+		{
+			Relation rel = cn.relations[r];
+			if ((status[r] & 1) != 0)
+			{
+				res.causal.add(rel);
+				if (res.causalData != null)
+				{
+					res.causalData.put(rel, causalData[r]);
+					res.causalPairs.put(rel, causalPairs[r]);
+				}
+			}
+			if ((status[r] & 2) != 0)
+			{
+				res.conflicting.add(rel);
+				if (res.conflictingData != null)
+				{
+					res.conflictingData.put(rel, conflictingData[r]);
+					res.conflictingPairs.put(rel, conflictingPairs[r]);
+				}
+			}
+			if (res.dataNeedsAnnotation != null && dataNeedsAnnotation[r] != null)
+			{
+				res.dataNeedsAnnotation.addAll(dataNeedsAnnotation[r]);
+			}
+		}
+
+		cs.applyGraphFilter(res);
+		cs.adopt(res);
+		return res;
+	}
+
+	/**
+	 * Gets the number of relations that are evaluated again at the last update.
+	 */
+	public int getLastUpdateSize()
+	{
+		return lastUpdateSize;
+	}
+
+	/**
+	 * Data rows of a threshold detector, sorted by the statistic that is compared to the threshold.
+	 */
+	private class RowGroup
+	{
+		final ThresholdDetector det;
+		final int[] allRows;
+		int[] rows;
+		double[] stats;
+		double threshold;
+		int epoch;
+
+		RowGroup(ThresholdDetector det, List<Integer> rowList)
+		{
+			this.det = det;
+			this.allRows = rowList.stream().mapToInt(Integer::intValue).toArray();
+			sort();
+		}
+
+		private void sort()
+		{
+			this.threshold = det.threshold;
+			this.epoch = det.epoch;
+
+			double[] s = new double[allRows.length];
+			for (int i = 0; i < allRows.length; i++)
+			{
+				s[i] = det.getDecisionStatistic(cn.data[allRows[i]]);
+			}
+
+			Integer[] order = new Integer[allRows.length];
+			for (int i = 0; i < order.length; i++)
+			{
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparingDouble(i -> s[i]));
+
+			this.rows = new int[order.length];
+			this.stats = new double[order.length];
+			for (int i = 0; i < order.length; i++)
+			{
+				rows[i] = allRows[order[i]];
+				stats[i] = s[order[i]];
+			}
+		}
+
+		/**
+		 * Passes the rows whose status may have changed since the last call.
+		 */
+		void collectCandidates(IntConsumer action)
+		{
+			if (det.epoch != epoch)
+			{
+				sort();
+				for (int row : rows)
+				{
+					action.accept(row);
+				}
+			}
+			else if (det.threshold != threshold)
+			{
+				double lo = Math.min(threshold, det.threshold);
+				double hi = Math.max(threshold, det.threshold);
+				for (int i = lowerBound(stats, lo); i < stats.length && stats[i] <= hi; i++)
+				{
+					action.accept(rows[i]);
+				}
+				threshold = det.threshold;
+			}
+		}
+	}
+
+	/**
+	 * Data pairs of the relations of a correlation detector, sorted by their p-values.
+	 */
+	private class PairGroup
+	{
+		final CorrelationDetector det;
+		final int[] allRelations;
+		final int[] pairRelation;
+		final double[] pairP;
+
+		double pvalThreshold;
+		double correlationThreshold;
+		double correlationUpperThreshold;
+
+		PairGroup(CorrelationDetector det, List<Integer> rels)
+		{
+			this.det = det;
+			this.allRelations = rels.stream().mapToInt(Integer::intValue).toArray();
+
+			List<double[]> pairs = new ArrayList<>();
+			for (int r : allRelations)
+			{
+				for (int i = cn.sourceStart[r]; i < cn.sourceStart[r + 1]; i++)
+				{
+					for (int j = cn.targetStart[r]; j < cn.targetStart[r + 1]; j++)
+					{
+						double p = det.calcCorrelation(cn.data[cn.sourceData[i]], cn.data[cn.targetData[j]]).p;
+						pairs.add(new double[]{p, r});
+					}
+				}
+			}
+			pairs.sort(Comparator.comparingDouble(a -> a[0]));
+
+			this.pairP = new double[pairs.size()];
+			this.pairRelation = new int[pairs.size()];
+			for (int i = 0; i < pairP.length; i++)
+			{
+				pairP[i] = pairs.get(i)[0];
+				pairRelation[i] = (int) pairs.get(i)[1];
+			}
+
+			remember();
+		}
+
+		private void remember()
+		{
+			pvalThreshold = det.pvalThreshold;
+			correlationThreshold = det.correlationThreshold;
+			correlationUpperThreshold = det.correlationUpperThreshold;
+		}
+
+		/**
+		 * Marks the relations whose status may have changed since the last call.
+		 */
+		void collectCandidates(BitSet dirty)
+		{
+			if (det.correlationThreshold != correlationThreshold ||
+				det.correlationUpperThreshold != correlationUpperThreshold ||
+				(det.pvalThreshold < 0) != (pvalThreshold < 0))
+			{
+				for (int r : allRelations)
+				{
+					dirty.set(r);
+				}
+			}
+			else if (det.pvalThreshold != pvalThreshold)
+			{
+				double lo = Math.min(pvalThreshold, det.pvalThreshold);
+				double hi = Math.max(pvalThreshold, det.pvalThreshold);
+				for (int i = lowerBound(pairP, lo); i < pairP.length && pairP[i] <= hi; i++)
+				{
+					dirty.set(pairRelation[i]);
+				}
+			}
+			remember();
+		}
+	}
+
+	/**
+	 * Gets the index of the first value that is not less than the given key, in the sorted array.
+	 */
+	private static int lowerBound(double[] sorted, double key)
+	{
+		int lo = 0;
+		int hi = sorted.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < key) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
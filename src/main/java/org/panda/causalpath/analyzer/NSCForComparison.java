@@ -3,8 +3,6 @@ package org.panda.causalpath.analyzer;
 import org.panda.causalpath.network.Relation;
 import org.panda.utility.ArrayUtil;
 import org.panda.utility.FileUtil;
-import org.panda.utility.Progress;
-import org.panda.utility.statistics.FDR;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -28,6 +26,11 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 	 */
 	Map<String, Double>[] pvalMaps;
 
+	/**
+	 * Number of randomizations each p-value is based on.
+	 */
+	Map<String, Integer>[] iterationMaps;
+
 
 	protected double[] significanceThreshold;
 
@@ -47,7 +50,8 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 		significanceThreshold = new double[pvalMaps.length];
 		for (int i = 0; i < pvalMaps.length; i++)
 		{
-			significanceThreshold[i] = FDR.getPValueThreshold(pvalMaps[i], null, fdrThr);
+			significanceThreshold[i] = BenjaminiHochberg.getPValueThreshold(
+				pvalMaps[i].values().stream().mapToDouble(Double::doubleValue).toArray(), fdrThr);
 		}
 	}
 
@@ -62,8 +66,11 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 
 		rels = rels.stream().filter(cs::hasConsiderableDownstreamData).collect(Collectors.toSet());
 
+		// Compile the network for fast evaluation of the randomizations
+		CompiledNetwork cn = new CompiledNetwork(rels, cs);
+
 		// Init counter
-		DownstreamCounterForComparison dc = new DownstreamCounterForComparison(cs, rels);
+		DownstreamCounterForComparison dc = new DownstreamCounterForComparison(cs, cn);
 
 		// Get the genes with no sufficient data or their downstream have no such data even to be considered
 		Set<String> ignore = dc.getGenesWithNoPotential(rels);
@@ -94,79 +101,198 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 				});
 		}
 
-		// Get a run with non-randomized data to find current size
-		Set<Relation> result = cs.run(rels);
-		long sizeCurrent = result.size();
-
-		long sizeCnt = 0;
-
-		// Init counters for the randomizations
-		Map<String, Integer>[] cnt = new Map[3];
-		for (int i = 0; i < 3; i++)
+		// Current counts, indexed by gene IDs of the compiled network
+		int genes = cn.getGeneCount();
+		boolean[] track = new boolean[genes];
+		int[][] currentCnt = new int[3][genes];
+		for (int g = 0; g < genes; g++)
 		{
-			cnt[i] = new HashMap<>();
+			String gene = cn.getGene(g);
+			if (current[0].containsKey(gene))
+			{
+				track[g] = true;
+				for (int j = 0; j < 3; j++)
+				{
+					currentCnt[j][g] = current[j].get(gene);
+				}
+			}
 		}
 
-		Progress prog = new Progress(iterations, "Calculating significances");
-
-		for (int i = 0; i < iterations; i++)
+		// Get a run with non-randomized data to find current size
+		long sizeCurrent = getResultSize(cn, new boolean[cn.getRelationCount()]);
+
+		// Resume from the checkpoint, or merge the shards, if any
+		String[] geneNames = getGenes(cn);
+		long fingerprint = getFingerprint(cn, cs.copy().run(cn), track, currentCnt);
+		PermutationCheckpoint start = loadCheckpoint(geneNames, 3, fingerprint, iterations);
+		int from = start == null ? 0 : start.done;
+		int limit = getIterationLimit(start, iterations);
+
+		// Shuffle change signs on parallel workers. The candidate data of relations are chosen once from the observed
+		// data, even when they depend on the data values, and they are kept for all permutations.
+		DataLabelShuffler.SignShuffler shuffler = dls.getSignShuffler(cn);
+		List<Worker> workers = createWorkers(limit - from, () ->
+			new Worker(cn, dc, shuffler.copy(), track, currentCnt, sizeCurrent));
+
+		// The p-values of each kind are corrected together
+		SequentialPValues[] seqP = new SequentialPValues[3];
+		for (int j = 0; j < 3; j++)
 		{
-			// Shuffle data labels and count downstream of each gene
-			dls.shuffle();
-			Map<String, Integer>[] run = dc.run();
+			boolean[] certain = new boolean[genes];
+			for (int g = 0; g < genes; g++)
+			{
+				certain[g] = track[g] && currentCnt[j][g] == 0;
+			}
+			seqP[j] = new SequentialPValues(track, certain);
+		}
 
-			// Count the cases shuffling provided as good results
+		int[][] cnt = new int[3][genes];
+		if (start == null) graphSizeIterations = 0;
+		else
+		{
+			// The first worker carries the restored counts
+			Worker first = workers.get(0);
+			first.sizeCnt = start.sizeCnt;
 			for (int j = 0; j < 3; j++)
 			{
-				for (String gene : run[j].keySet())
-				{
-					if (ignore.contains(gene))
-					{
-						continue;
-					}
+				System.arraycopy(start.cnt[j], 0, first.cnt[j], 0, genes);
+				seqP[j].restore(start.finalCnt[j], start.finalIter[j]);
+			}
+		}
 
-					if (!cnt[j].containsKey(gene)) cnt[j].put(gene, 0);
-//					if (!current[j].containsKey(gene)) current[j].put(gene, 0);
+		int done = runPermutations(from, limit, workers, d ->
+		{
+			long sizeCnt = reduce(workers, cnt);
 
-					if (run[j].get(gene) >= current[j].get(gene)) cnt[j].put(gene, cnt[j].get(gene) + 1);
+			boolean decided = true;
+			if (isAdaptive())
+			{
+				updateGraphSizePval(sizeCnt, d);
+				for (int j = 0; j < 3; j++)
+				{
+					seqP[j].update(cnt[j], d, exceedanceLimit);
+					decided = seqP[j].isDecided(cnt[j], d, limit, adaptiveFDRThreshold) && decided;
 				}
 			}
 
-			// Generate a result network for the randomized data
-			result = cs.run(rels);
-
-			// Note if the network is as big
-			if (result.size() >= sizeCurrent) sizeCnt++;
+			saveCheckpoint(false, d, sizeCnt, geneNames, cnt, seqP);
+			return isAdaptive() && decided;
+		});
 
-			prog.tick();
-		}
+		long sizeCnt = reduce(workers, cnt);
+		saveCheckpoint(true, done, sizeCnt, geneNames, cnt, seqP);
 
 		// Convert counts to p-values
 
-		graphSizePval = sizeCnt / (double) iterations;
+		setGraphSizePval(sizeCnt, done);
 
 		this.pvalMaps = new Map[3];
+		this.iterationMaps = new Map[3];
 		for (int i = 0; i < 3; i++)
 		{
 			pvalMaps[i] = new HashMap<>();
+			iterationMaps[i] = new HashMap<>();
 
 			for (String gene : current[i].keySet())
 			{
-				double pval;
+				int g = cn.getGeneID(gene);
+				pvalMaps[i].put(gene, seqP[i].getPValue(g, cnt[i], done));
+				iterationMaps[i].put(gene, seqP[i].getIterations(g, done));
+			}
+		}
+	}
+
+	/**
+	 * Sums the counts of the workers.
+	 *
+	 * @param workers the workers
+	 * @param cnt the downstream counts are written here
+	 * @return the graph size count
+	 */
+	private long reduce(List<Worker> workers, int[][] cnt)
+	{
+		long sizeCnt = 0;
+		for (int[] c : cnt)
+		{
+			Arrays.fill(c, 0);
+		}
 
-				if (current[i].get(gene) == 0)
+		for (Worker worker : workers)
+		{
+			sizeCnt += worker.sizeCnt;
+			for (int j = 0; j < cnt.length; j++)
+			{
+				for (int g = 0; g < cnt[j].length; g++)
 				{
-					pval = 1;
+					cnt[j][g] += worker.cnt[j][g];
 				}
-				else
+			}
+		}
+		return sizeCnt;
+	}
+
+	/**
+	 * Performs randomizations on its own shuffled change signs and searcher copy.
+	 */
+	private class Worker implements PermutationWorker
+	{
+		final CompiledNetwork cn;
+		final DownstreamCounterForComparison dc;
+		final DataLabelShuffler.SignShuffler shuffler;
+		final CausalitySearcher cs;
+		final boolean[] track;
+		final int[][] currentCnt;
+		final long sizeCurrent;
+
+		final int[] changeSigns;
+		final boolean[] satisfies;
+		final int[][] run;
+
+		/**
+		 * Number of iterations where the downstream counts were at least as high as the current counts.
+		 */
+		final int[][] cnt;
+
+		/**
+		 * Number of iterations where the result network was at least as big as the current one.
+		 */
+		long sizeCnt;
+
+		Worker(CompiledNetwork cn, DownstreamCounterForComparison dc, DataLabelShuffler.SignShuffler shuffler,
+			boolean[] track, int[][] currentCnt, long sizeCurrent)
+		{
+			this.cn = cn;
+			this.dc = dc;
+			this.shuffler = shuffler;
+			this.cs = NSCForComparison.this.cs.copy();
+			this.cs.setThreads(1);
+			this.track = track;
+			this.currentCnt = currentCnt;
+			this.sizeCurrent = sizeCurrent;
+			this.changeSigns = new int[cn.getDataCount()];
+			this.satisfies = new boolean[cn.getRelationCount()];
+			this.run = new int[3][cn.getGeneCount()];
+			this.cnt = new int[3][cn.getGeneCount()];
+		}
+
+		@Override
+		public void permute(int iteration, SplittableRandom random)
+		{
+			// Shuffle data labels and count downstream of each gene
+			shuffler.shuffle(random, changeSigns);
+			dc.count(changeSigns, run);
+
+			// Count the cases shuffling provided as good results
+			for (int j = 0; j < 3; j++)
+			{
+				for (int g = 0; g < track.length; g++)
 				{
-					int c = !cnt[i].containsKey(gene) ? 0 : cnt[i].get(gene);
-					if (c == 0) c++; // we don't want 0 as a p-value because they will always pass multiple hypothesis correction
-					pval = c / (double) iterations;
+					if (track[g] && run[j][g] >= currentCnt[j][g]) cnt[j][g]++;
 				}
-
-				pvalMaps[i].put(gene, pval);
 			}
+
+			// Note if the result network for the randomized data is as big
+			if (getResultSize(cs, cn, changeSigns, satisfies) >= sizeCurrent) sizeCnt++;
 		}
 	}
 
@@ -260,12 +386,19 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 		writer.write("Overall graph size pval = " + getOverallGraphSizePval());
 		writer.write("\nGene\tDownstream crowded pval\tDownstream suggests activation pval\tDownstream suggests inhibition pval");
 
+		// In the adaptive mode, number of randomizations behind each p-value is also reported
+		boolean writeIterations = isAdaptive() && iterationMaps != null;
+		if (writeIterations) writer.write("\tDownstream crowded iterations\tDownstream suggests activation " +
+			"iterations\tDownstream suggests inhibition iterations");
+
 		Stream.concat(pvalMaps[0].keySet().stream(), Stream.concat(pvalMaps[1].keySet().stream(), pvalMaps[2].keySet().stream()))
 			.distinct().sorted((g1, g2) -> getMinimumPval(g1).compareTo(getMinimumPval(g2))).forEach(gene ->
 			FileUtil.lnwrite(ArrayUtil.getString("\t", gene,
 				pvalMaps[0].containsKey(gene) ? pvalMaps[0].get(gene) : 1,
 				pvalMaps[1].containsKey(gene) ? pvalMaps[1].get(gene) : 1,
-				pvalMaps[2].containsKey(gene) ? pvalMaps[2].get(gene) : 1), writer));
+				pvalMaps[2].containsKey(gene) ? pvalMaps[2].get(gene) : 1) + (!writeIterations ? "" :
+				ArrayUtil.getString("\t", "", iterationMaps[0].get(gene), iterationMaps[1].get(gene),
+				iterationMaps[2].get(gene))), writer));
 
 		writer.close();
 	}
@@ -276,16 +409,20 @@ public class NSCForComparison extends NetworkSignificanceCalculator
 		this.graphSizePval = Double.valueOf(line.substring(line.lastIndexOf(" ") + 1));
 
 		this.pvalMaps = new Map[3];
+		this.iterationMaps = new Map[3];
 		for (int i = 0; i < pvalMaps.length; i++)
 		{
 			pvalMaps[i] = new HashMap<>();
+			iterationMaps[i] = new HashMap<>();
 		}
 
 		Files.lines(Paths.get(filename)).skip(2).map(l -> l.split("\t")).forEach(t ->
 		{
-			pvalMaps[0].put(t[0], Double.valueOf(t[1]));
-			pvalMaps[1].put(t[0], Double.valueOf(t[2]));
-			pvalMaps[2].put(t[0], Double.valueOf(t[3]));
+			for (int i = 0; i < 3; i++)
+			{
+				pvalMaps[i].put(t[0], Double.valueOf(t[i + 1]));
+				if (t.length > 6) iterationMaps[i].put(t[0], Integer.valueOf(t[i + 4]));
+			}
 		});
 	}
 }
@@ -3,18 +3,13 @@ package org.panda.causalpath.analyzer;
 import org.panda.causalpath.network.Relation;
 import org.panda.utility.ArrayUtil;
 import org.panda.utility.FileUtil;
-import org.panda.utility.Progress;
-import org.panda.utility.statistics.FDR;
 import org.panda.utility.statistics.KernelDensityPlot;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Calculates the significance of several things in the result network. These are the size of the network overall, and
@@ -29,23 +24,40 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 	 */
 	Map<String, Double> pvals;
 
+	/**
+	 * Number of randomizations each p-value is based on.
+	 */
+	Map<String, Integer> iterationMap;
+
 	/**
 	 * If this parameter is set, this class can record the null distribution of network sizes.
 	 */
 	private String fileToWriteNullDistVals;
 
+	/**
+	 * Memory limit in bytes for remembering the correlation signs during randomizations.
+	 */
+	private long correlationCacheMemoryLimit;
+
 	/**
 	 * Constructor with the network.
 	 */
 	public NSCForCorrelation(Set<Relation> relations, CausalitySearcher cs)
 	{
 		super(relations, cs);
+		this.correlationCacheMemoryLimit = CorrelationSignCache.DEFAULT_MEMORY_LIMIT;
+	}
+
+	public void setCorrelationCacheMemoryLimit(long correlationCacheMemoryLimit)
+	{
+		this.correlationCacheMemoryLimit = correlationCacheMemoryLimit;
 	}
 
 	@Override
 	public void setFDRThreshold(double fdrThr)
 	{
-		setPvalThreshold(FDR.getPValueThreshold(pvals, null, fdrThr));
+		setPvalThreshold(BenjaminiHochberg.getPValueThreshold(
+			pvals.values().stream().mapToDouble(Double::doubleValue).toArray(), fdrThr));
 	}
 
 	/**
@@ -77,55 +89,73 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 		Set<Relation> result = cs.run(relations);
 		int sizeCurrent = result.size();
 
-		int sizeCnt = 0;
+		// Current counts, indexed by gene IDs of the compiled network. Gene IDs depend only on the relations, hence
+		// they are the same in the networks compiled by the workers.
+		CompiledNetwork cn = new CompiledNetwork(relations, cs);
+		int genes = cn.getGeneCount();
+		boolean[] track = new boolean[genes];
+		int[] currentCnt = new int[genes];
+		for (int g = 0; g < genes; g++)
+		{
+			String gene = cn.getGene(g);
+			if (current.containsKey(gene))
+			{
+				track[g] = true;
+				currentCnt[g] = current.get(gene);
+			}
+		}
 
-		// Init counters for the randomizations
-		Map<String, Integer> cnt = new HashMap<>();
+		// Correlation signs of the value rows are calculated once, and shared by the workers
+		CorrelationSignCache cache = new CorrelationSignCache(relations, correlationCacheMemoryLimit);
 
-		// Replace relations with a shuffle-safe copy
-		DataLabelShufflerForCorrelation dls = new DataLabelShufflerForCorrelation(relations);
-		Set<Relation> rels = dls.getRelations();
+		// Resume from the checkpoint, or merge the shards, if any
+		String[] geneNames = getGenes(cn);
+		long fingerprint = getFingerprint(cn, result, track, new int[][]{currentCnt});
+		PermutationCheckpoint start = loadCheckpoint(geneNames, 1, fingerprint, iterations);
+		int from = start == null ? 0 : start.done;
+		int limit = getIterationLimit(start, iterations);
 
-		Progress prog = new Progress(iterations, "Calculating significances");
-		double[] sizes = new double[iterations];
+		// Run the randomizations on parallel workers
+		double[] sizes = new double[limit];
+		List<Worker> workers = createWorkers(limit - from, () ->
+			new Worker(cache, track, currentCnt, sizeCurrent, sizes));
 
-		for (int i = 0; i < iterations; i++)
+		boolean[] certain = new boolean[genes];
+		for (int g = 0; g < genes; g++)
 		{
-			System.gc();
+			certain[g] = track[g] && currentCnt[g] == 0;
+		}
+		SequentialPValues[] seqP = {new SequentialPValues(track, certain)};
 
-			// Shuffle data labels and count downstream of each gene
-			dls.shuffle();
-			Map<String, Integer> run = dc.run(rels)[0];
+		int[] cnt = new int[genes];
+		if (start == null) graphSizeIterations = 0;
+		else
+		{
+			// The first worker carries the restored counts
+			Worker first = workers.get(0);
+			first.sizeCnt = start.sizeCnt;
+			System.arraycopy(start.cnt[0], 0, first.cnt, 0, genes);
+			seqP[0].restore(start.finalCnt[0], start.finalIter[0]);
+		}
 
-			assert !run.keySet().stream().filter(ignore::contains).filter(gene -> run.get(gene) > 0).findAny()
-				.isPresent() : "Ignored gene contains non-zero downstream!";
+		int done = runPermutations(from, limit, workers, d ->
+		{
+			long sizeCnt = reduce(workers, cnt);
 
-			// Count the cases shuffling provided as good results
-			for (String gene : run.keySet())
+			boolean decided = true;
+			if (isAdaptive())
 			{
-				if (minimumPotentialTargetsToConsider > 1 && maxPotential.get(gene) < minimumPotentialTargetsToConsider)
-				{
-					continue;
-				}
-
-				assert !ignore.contains(gene);
-
-				if (!cnt.containsKey(gene)) cnt.put(gene, 0);
-				if (!current.containsKey(gene)) current.put(gene, 0);
-
-				if (run.get(gene) >= current.get(gene)) cnt.put(gene, cnt.get(gene) + 1);
+				updateGraphSizePval(sizeCnt, d);
+				seqP[0].update(cnt, d, exceedanceLimit);
+				decided = seqP[0].isDecided(cnt, d, limit, adaptiveFDRThreshold);
 			}
 
-			// Generate a result network for the randomized data
-			result = cs.run(rels);
-
-			// Note if the network is as big
-			if (result.size() >= sizeCurrent) sizeCnt++;
+			saveCheckpoint(false, d, sizeCnt, geneNames, new int[][]{cnt}, seqP);
+			return isAdaptive() && decided;
+		});
 
-			sizes[i] = result.size();
-
-			prog.tick();
-		}
+		long sizeCnt = reduce(workers, cnt);
+		saveCheckpoint(true, done, sizeCnt, geneNames, new int[][]{cnt}, seqP);
 
 		fileToWriteNullDistVals = "graph-size-null-dist.txt";
 		if (fileToWriteNullDistVals != null)
@@ -134,9 +164,10 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 			{
 				BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileToWriteNullDistVals));
 				writer.write("Actual graph size\n" + sizeCurrent + "\n\nNull distribution");
-				for (double size : sizes)
+				// Sizes of the iterations before a resume are not available
+				for (int i = from; i < done; i++)
 				{
-					writer.write("\n" + size);
+					writer.write("\n" + sizes[i]);
 				}
 				writer.close();
 			}
@@ -156,26 +187,107 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 
 		// Convert counts to p-values
 
-		graphSizePval = sizeCnt / (double) iterations;
+		setGraphSizePval(sizeCnt, done);
 
 		this.pvals = new HashMap<>();
+		this.iterationMap = new HashMap<>();
 
 		for (String gene : current.keySet())
 		{
-			double pval;
+			int g = cn.getGeneID(gene);
+			pvals.put(gene, g < 0 ? 1 : seqP[0].getPValue(g, cnt, done));
+			iterationMap.put(gene, g < 0 ? done : seqP[0].getIterations(g, done));
+		}
+	}
+
+	/**
+	 * Sums the counts of the workers.
+	 *
+	 * @param workers the workers
+	 * @param cnt the downstream counts are written here
+	 * @return the graph size count
+	 */
+	private long reduce(List<Worker> workers, int[] cnt)
+	{
+		long sizeCnt = 0;
+		Arrays.fill(cnt, 0);
 
-			if (current.get(gene) == 0)
+		for (Worker worker : workers)
+		{
+			sizeCnt += worker.sizeCnt;
+			for (int g = 0; g < cnt.length; g++)
 			{
-				pval = 1;
+				cnt[g] += worker.cnt[g];
 			}
-			else
+		}
+		return sizeCnt;
+	}
+
+	/**
+	 * Performs randomizations on its own shuffle-safe copy of the relations, reusing its buffers.
+	 */
+	private class Worker implements PermutationWorker
+	{
+		final DataLabelShufflerForCorrelation dls;
+		final CompiledNetwork cn;
+		final CausalitySearcher cs;
+		final DownstreamCounterForCorrelation dc;
+		final boolean[] track;
+		final int[] currentCnt;
+		final int sizeCurrent;
+
+		/**
+		 * Result network sizes of each iteration, shared between the workers.
+		 */
+		final double[] sizes;
+
+		final boolean[] satisfies;
+		final int[] run;
+
+		/**
+		 * Number of iterations where the downstream counts were at least as high as the current counts.
+		 */
+		final int[] cnt;
+
+		/**
+		 * Number of iterations where the result network was at least as big as the current one.
+		 */
+		long sizeCnt;
+
+		Worker(CorrelationSignCache cache, boolean[] track, int[] currentCnt, int sizeCurrent, double[] sizes)
+		{
+			this.dls = new DataLabelShufflerForCorrelation(relations, cache);
+			this.cs = NSCForCorrelation.this.cs.copy();
+			this.cs.setThreads(1);
+			this.cn = new CompiledNetwork(dls.getRelations(), cs);
+			this.dc = new DownstreamCounterForCorrelation(cs);
+			this.track = track;
+			this.currentCnt = currentCnt;
+			this.sizeCurrent = sizeCurrent;
+			this.sizes = sizes;
+			this.satisfies = new boolean[cn.getRelationCount()];
+			this.run = new int[cn.getGeneCount()];
+			this.cnt = new int[cn.getGeneCount()];
+		}
+
+		@Override
+		public void permute(int iteration, SplittableRandom random)
+		{
+			// Shuffle data labels and count downstream of each gene
+			dls.shuffle(random);
+			int size = cs.search(cn, satisfies);
+			dc.count(cn, satisfies, run);
+
+			// Count the cases shuffling provided as good results
+			for (int g = 0; g < run.length; g++)
 			{
-				int c = !cnt.containsKey(gene) ? 0 : cnt.get(gene);
-				if (c == 0) c++; // pval = 0 is non-realistic. bring it to the smallest nonzero value
-				pval = c / (double) iterations;
+				if (track[g] && run[g] > 0 && run[g] >= currentCnt[g]) cnt[g]++;
 			}
 
-			pvals.put(gene, pval);
+			// Note if the result network for the randomized data is as big
+			if (!cs.hasNoGraphFilter()) size = cs.run(cn).size();
+			if (size >= sizeCurrent) sizeCnt++;
+			sizes[iteration] = size;
 		}
 	}
 
@@ -191,8 +303,13 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 		writer.write("Overall graph size pval = " + getOverallGraphSizePval());
 		writer.write("\nGene\tDownstream crowded pval");
 
+		// In the adaptive mode, number of randomizations behind each p-value is also reported
+		boolean writeIterations = isAdaptive() && iterationMap != null;
+		if (writeIterations) writer.write("\tIterations");
+
 		pvals.keySet().stream().sorted((g1, g2) -> pvals.get(g1).compareTo(pvals.get(g2))).forEach(gene ->
-			FileUtil.lnwrite(gene + "\t" + pvals.get(gene), writer));
+			FileUtil.lnwrite(gene + "\t" + pvals.get(gene) + (writeIterations ? "\t" + iterationMap.get(gene) : ""),
+				writer));
 
 		writer.close();
 	}
@@ -203,8 +320,12 @@ public class NSCForCorrelation extends NetworkSignificanceCalculator
 		this.graphSizePval = Double.valueOf(line.substring(line.lastIndexOf(" ") + 1));
 
 		this.pvals = new HashMap<>();
+		this.iterationMap = new HashMap<>();
 
 		Files.lines(Paths.get(filename)).skip(2).map(l -> l.split("\t")).forEach(t ->
-			pvals.put(t[0], Double.valueOf(t[1])));
+		{
+			pvals.put(t[0], Double.valueOf(t[1]));
+			if (t.length > 2) iterationMap.put(t[0], Integer.valueOf(t[2]));
+		});
 	}
 }
@@ -1,12 +1,25 @@
 package org.panda.causalpath.analyzer;
 
+import org.panda.causalpath.data.CategoricalData;
+import org.panda.causalpath.data.ExperimentData;
+import org.panda.causalpath.data.NumericData;
 import org.panda.causalpath.network.GraphFilter;
 import org.panda.causalpath.network.Relation;
+import org.panda.utility.Progress;
 import org.panda.utility.statistics.FDR;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
 /**
  * Calculates the significance of several things in the result network. These are the size of the network overall, the
@@ -39,6 +52,69 @@ public abstract class NetworkSignificanceCalculator
 
 	protected int minimumPotentialTargetsToConsider;
 
+	/**
+	 * Number of threads to use in randomizations.
+	 */
+	protected int threads;
+
+	/**
+	 * Seed for the random number generators of the randomizations. The same seed produces the same result,
+	 * independent of the number of threads.
+	 */
+	protected long seed;
+
+	/**
+	 * In the adaptive mode, a p-value is finalized once this many randomizations are at least as extreme as the
+	 * observation. Zero means the adaptive mode is off.
+	 */
+	protected int exceedanceLimit;
+
+	/**
+	 * In the adaptive mode, randomizations stop when the significance of every p-value at this FDR is certain.
+	 */
+	protected double adaptiveFDRThreshold;
+
+	/**
+	 * Number of iterations between the checks for stopping in the adaptive mode.
+	 */
+	protected static final int PERMUTATION_BATCH_SIZE = 100;
+
+	/**
+	 * Number of iterations the graph size p-value is based on.
+	 */
+	protected int graphSizeIterations;
+
+	/**
+	 * Exceedance count of the graph size when it is finalized in the adaptive mode.
+	 */
+	private long graphSizeFinalCnt;
+
+	/**
+	 * The file to save the state of randomizations to, and to resume from. Null if not used.
+	 */
+	protected String checkpointFile;
+
+	/**
+	 * Minimum number of seconds between two checkpoints.
+	 */
+	protected int checkpointInterval;
+
+	/**
+	 * Time of the last checkpoint.
+	 */
+	private long lastCheckpointTime;
+
+	/**
+	 * Checkpoint files of independent randomization experiments to merge, instead of running new randomizations.
+	 */
+	protected List<String> shardFiles;
+
+	/**
+	 * Fingerprint of the current observation, and the requested number of iterations, saved with the checkpoints.
+	 */
+	private long fingerprint;
+	private int iterationTarget;
+
 	/**
 	 * Constructor with the network.
 	 */
@@ -48,6 +124,61 @@ public abstract class NetworkSignificanceCalculator
 		this.cs = cs;
 		cs.initRelationDataMappingMemory();
 		this.minimumPotentialTargetsToConsider = 0;
+		this.threads = 1;
+		this.seed = new Random().nextLong();
+	}
+
+	public void setThreads(int threads)
+	{
+		this.threads = threads;
+	}
+
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Turns on the adaptive mode, where the p-values are estimated with sequential stopping (Besag and Clifford,
+	 * 1991).
+	 *
+	 * @param exceedanceLimit a p-value is finalized after this many randomizations are as extreme as the observation
+	 * @param fdrThr randomizations stop when the significance of every p-value at this FDR is certain
+	 */
+	public void setAdaptive(int exceedanceLimit, double fdrThr)
+	{
+		this.exceedanceLimit = exceedanceLimit;
+		this.adaptiveFDRThreshold = fdrThr;
+	}
+
+	public boolean isAdaptive()
+	{
+		return exceedanceLimit > 0;
+	}
+
+	/**
+	 * Turns on checkpoints. The state of randomizations is saved to the given file at most once in the given interval,
+	 * and at the end. If the file already exists, randomizations resume from it, with its seed, provided that it is
+	 * of the same observation and the same number of iterations. Otherwise it is discarded.
+	 *
+	 * @param checkpointFile the checkpoint file
+	 * @param checkpointInterval minimum number of seconds between two checkpoints
+	 */
+	public void setCheckpoint(String checkpointFile, int checkpointInterval)
+	{
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Sets the checkpoint files of independent randomization experiments (shards) on the same data, which were run
+	 * with different seeds. The p-values are calculated from their merged counts, without new randomizations.
+	 *
+	 * @param shardFiles checkpoint files of the shards
+	 */
+	public void setShards(List<String> shardFiles)
+	{
+		this.shardFiles = shardFiles;
 	}
 
 	public void setMinimumPotentialTargetsToConsider(int minimumPotentialTargetsToConsider)
@@ -72,6 +203,414 @@ public abstract class NetworkSignificanceCalculator
 	 */
 	public abstract void run(int iterations);
 
+	/**
+	 * Gets the size of the result network on the compiled network, with the current data.
+	 *
+	 * @param cn the compiled network
+	 * @param satisfies array to use for marking the relations that satisfy the criteria
+	 * @return the number of relations in the result network
+	 */
+	protected int getResultSize(CompiledNetwork cn, boolean[] satisfies)
+	{
+		return getResultSize(cs, cn, null, satisfies);
+	}
+
+	/**
+	 * Gets the size of the result network on the compiled network, optionally with the given change signs.
+	 *
+	 * @param cs the causality searcher to use
+	 * @param cn the compiled network
+	 * @param changeSigns change signs indexed by data IDs, or null to use the change signs of the data
+	 * @param satisfies array to use for marking the relations that satisfy the criteria
+	 * @return the number of relations in the result network
+	 */
+	protected int getResultSize(CausalitySearcher cs, CompiledNetwork cn, int[] changeSigns, boolean[] satisfies)
+	{
+		if (cs.hasNoGraphFilter()) return cs.search(cn, changeSigns, satisfies);
+		return cs.run(cn, changeSigns).size();
+	}
+
+	/**
+	 * Creates the workers for a randomization experiment, one for each thread. Workers are created in the calling
+	 * thread, and they should keep their own counts, to be reduced by the caller.
+	 *
+	 * @param iterations maximum number of iterations
+	 * @param workerSupplier creates a new worker
+	 * @return the workers
+	 */
+	protected <W extends PermutationWorker> List<W> createWorkers(int iterations, Supplier<W> workerSupplier)
+	{
+		int n = Math.max(1, Math.min(threads, iterations));
+		List<W> workers = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+		{
+			workers.add(workerSupplier.get());
+		}
+		return workers;
+	}
+
+	/**
+	 * Runs the iterations of a randomization experiment on the workers. Each iteration gets its own random number
+	 * generator, seeded in advance from the seed of this object, so the outcome does not depend on which worker runs
+	 * which iteration, nor on where the experiment was resumed.
+	 *
+	 * In the adaptive mode, or when checkpoints are on, iterations are run in batches of fixed size, and the given
+	 * callback is called with the number of iterations done after each batch. Batch boundaries do not depend on the
+	 * number of threads either.
+	 *
+	 * @param from the iteration to start from, when resuming
+	 * @param iterations maximum number of iterations
+	 * @param workers the workers
+	 * @param batchDone called after each batch with the number of iterations done, returns true to stop early
+	 * @return the number of iterations done
+	 */
+	protected int runPermutations(int from, int iterations, List<? extends PermutationWorker> workers,
+		IntPredicate batchDone)
+	{
+		SplittableRandom random = new SplittableRandom(seed);
+		long[] seeds = new long[iterations];
+		for (int i = 0; i < iterations; i++)
+		{
+			seeds[i] = random.nextLong();
+		}
+
+		Progress prog = new Progress(iterations - from, "Calculating significances");
+		int batchSize = isAdaptive() || checkpointFile != null ? PERMUTATION_BATCH_SIZE : iterations;
+		ExecutorService executor = workers.size() > 1 ? Executors.newFixedThreadPool(workers.size()) : null;
+
+		try
+		{
+			int done = from;
+			while (done < iterations)
+			{
+				if (Thread.currentThread().isInterrupted())
+				{
+					throw new RuntimeException("Randomizations are interrupted.");
+				}
+
+				int to = Math.min(done + batchSize, iterations);
+				runPermutations(workers, seeds, done, to, prog, executor);
+				done = to;
+
+				if (done < iterations && batchDone.test(done)) break;
+			}
+			return done;
+		}
+		finally
+		{
+			if (executor != null) executor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the iterations in the given range on the workers.
+	 */
+	private void runPermutations(List<? extends PermutationWorker> workers, long[] seeds, int from, int to,
+		Progress prog, ExecutorService executor)
+	{
+		if (executor == null)
+		{
+			PermutationWorker worker = workers.get(0);
+			for (int i = from; i < to; i++)
+			{
+				worker.permute(i, new SplittableRandom(seeds[i]));
+				prog.tick();
+			}
+			return;
+		}
+
+		AtomicInteger next = new AtomicInteger(from);
+		List<Future<?>> futures = new ArrayList<>(workers.size());
+
+		for (PermutationWorker worker : workers)
+		{
+			futures.add(executor.submit(() ->
+			{
+				for (int i = next.getAndIncrement(); i < to; i = next.getAndIncrement())
+				{
+					worker.permute(i, new SplittableRandom(seeds[i]));
+					synchronized (prog)
+					{
+						prog.tick();
+					}
+				}
+			}));
+		}
+
+		try
+		{
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Finalizes the graph size p-value in the adaptive mode, if it reached the exceedance limit.
+	 *
+	 * @param sizeCnt number of randomizations that produced a network at least as big
+	 * @param done iterations done
+	 */
+	protected void updateGraphSizePval(long sizeCnt, int done)
+	{
+		if (isAdaptive() && graphSizeIterations == 0 && sizeCnt >= exceedanceLimit)
+		{
+			graphSizeFinalCnt = sizeCnt;
+			graphSizeIterations = done;
+		}
+	}
+
+	/**
+	 * Sets the graph size p-value at the end of randomizations.
+	 *
+	 * @param sizeCnt number of randomizations that produced a network at least as big
+	 * @param done iterations done
+	 */
+	protected void setGraphSizePval(long sizeCnt, int done)
+	{
+		if (graphSizeIterations == 0)
+		{
+			graphSizeFinalCnt = sizeCnt;
+			graphSizeIterations = done;
+		}
+		graphSizePval = graphSizeFinalCnt / (double) graphSizeIterations;
+	}
+
+	/**
+	 * Loads the state to start the randomizations from. This is the merge of the shards if they are set, or the
+	 * checkpoint if it exists. The seed is taken from the checkpoint, so that the resumed experiment is the same as an
+	 * uninterrupted one. Shards that do not match the current observation are an error, but a checkpoint that does
+	 * not match is left from another analysis, and it is ignored.
+	 *
+	 * @param genes genes of the compiled network, in the order of their IDs
+	 * @param families number of count families
+	 * @param fingerprint fingerprint of the current observation, see {@link #getFingerprint}
+	 * @param iterations requested number of iterations
+	 * @return the state to start from, or null to start from scratch
+	 */
+	protected PermutationCheckpoint loadCheckpoint(String[] genes, int families, long fingerprint, int iterations)
+	{
+		this.fingerprint = fingerprint;
+		this.iterationTarget = iterations;
+
+		PermutationCheckpoint cp;
+
+		if (shardFiles != null && !shardFiles.isEmpty())
+		{
+			List<PermutationCheckpoint> shards = new ArrayList<>();
+			try
+			{
+				for (String file : shardFiles)
+				{
+					shards.add(PermutationCheckpoint.read(file));
+				}
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			cp = PermutationCheckpoint.merge(shards);
+
+			String mismatch = getMismatch(cp, genes, families, fingerprint);
+			if (mismatch != null) throw new RuntimeException("Randomization shards are " + mismatch);
+		}
+		else if (checkpointFile != null && Files.exists(Paths.get(checkpointFile)))
+		{
+			String mismatch;
+			try
+			{
+				cp = PermutationCheckpoint.read(checkpointFile);
+				mismatch = getMismatch(cp, genes, families, fingerprint);
+				if (mismatch == null && cp.target != iterations) mismatch = "for " + cp.target + " iterations.";
+			}
+			catch (IOException | RuntimeException e)
+			{
+				cp = null;
+				mismatch = "not readable: " + e.getMessage();
+			}
+
+			if (mismatch != null)
+			{
+				System.err.println("Randomization checkpoint is " + mismatch + " Starting from scratch.");
+				return null;
+			}
+		}
+		else return null;
+
+		seed = cp.seed;
+		graphSizeFinalCnt = cp.graphSizeFinalCnt;
+		graphSizeIterations = cp.graphSizeIterations;
+		lastCheckpointTime = System.currentTimeMillis();
+		return cp;
+	}
+
+	/**
+	 * Tells why the given state cannot be continued on the current observation.
+	 *
+	 * @return the reason, or null if it can be continued
+	 */
+	private String getMismatch(PermutationCheckpoint cp, String[] genes, int families, long fingerprint)
+	{
+		if (cp.cnt.length != families || !Arrays.equals(cp.genes, genes)) return "not of the current network.";
+		if (cp.fingerprint != fingerprint) return "not of the current data and settings.";
+		if (cp.exceedanceLimit != exceedanceLimit) return "of a different exceedance limit: " + cp.exceedanceLimit + ".";
+		return null;
+	}
+
+	/**
+	 * Calculates the fingerprint of an observation, which is what the randomizations are compared to. This covers the
+	 * observed counts and result, the values and change signs of the data, and the settings that affect them.
+	 *
+	 * @param cn the compiled network
+	 * @param result the result network of the current data
+	 * @param track genes whose counts are tracked
+	 * @param currentCnt current counts of each family
+	 */
+	protected long getFingerprint(CompiledNetwork cn, Collection<Relation> result, boolean[] track, int[][] currentCnt)
+	{
+		long h = 0xcbf29ce484222325L;
+		h = hash(h, cs.getSettingsKey().hashCode());
+		h = hash(h, minimumPotentialTargetsToConsider);
+		h = hash(h, Double.doubleToLongBits(adaptiveFDRThreshold));
+
+		for (int g = 0; g < track.length; g++)
+		{
+			h = hash(h, cn.getGene(g).hashCode());
+			h = hash(h, track[g] ? 1 : 0);
+			for (int[] c : currentCnt)
+			{
+				h = hash(h, c[g]);
+			}
+		}
+
+		List<String> rels = new ArrayList<>();
+		for (Relation rel : result)
+		{
+			rels.add(rel.toString());
+		}
+		Collections.sort(rels);
+		for (String rel : rels)
+		{
+			h = hash(h, rel.hashCode());
+		}
+
+		List<ExperimentData> datas = new ArrayList<>();
+		for (int d = 0; d < cn.getDataCount(); d++)
+		{
+			datas.add(cn.getData(d));
+		}
+		datas.sort(Comparator.comparing(ExperimentData::getId));
+		for (ExperimentData data : datas)
+		{
+			h = hash(h, data.getId().hashCode());
+			h = hash(h, data.hasChangeDetector() ? data.getChangeSign() : 2);
+			if (data instanceof NumericData) h = hash(h, Arrays.hashCode(((NumericData) data).getVals()));
+			else if (data instanceof CategoricalData) h = hash(h, Arrays.hashCode(((CategoricalData) data).categories));
+		}
+		return h;
+	}
+
+	private static long hash(long h, long v)
+	{
+		return (h ^ v) * 0x100000001b3L;
+	}
+
+	/**
+	 * Gets the number of iterations to reach when starting from the given state. Merged shards are not continued.
+	 *
+	 * @param cp the state to start from, or null
+	 * @param iterations requested number of iterations
+	 */
+	protected int getIterationLimit(PermutationCheckpoint cp, int iterations)
+	{
+		if (cp == null) return iterations;
+		if (cp.shards > 1) return cp.done;
+		return Math.max(cp.done, iterations);
+	}
+
+	/**
+	 * Saves the state of randomizations to the checkpoint file, if checkpoints are on and the interval has passed.
+	 *
+	 * @param force save even if the interval has not passed
+	 * @param done iterations done
+	 * @param sizeCnt number of iterations where the result network was at least as big as the current one
+	 * @param genes genes of the compiled network, in the order of their IDs
+	 * @param cnt exceedance counts of each family
+	 * @param seqP sequential p-values of each family
+	 */
+	protected void saveCheckpoint(boolean force, int done, long sizeCnt, String[] genes, int[][] cnt,
+		SequentialPValues[] seqP)
+	{
+		if (checkpointFile == null) return;
+
+		long time = System.currentTimeMillis();
+		if (!force && time - lastCheckpointTime < checkpointInterval * 1000L) return;
+		lastCheckpointTime = time;
+
+		int shards = shardFiles == null || shardFiles.isEmpty() ? 1 : shardFiles.size();
+		int[][] finalCnt = new int[cnt.length][];
+		int[][] finalIter = new int[cnt.length][];
+		for (int i = 0; i < cnt.length; i++)
+		{
+			finalCnt[i] = seqP[i].getFinalCounts();
+			finalIter[i] = seqP[i].getFinalIterations();
+		}
+
+		try
+		{
+			new PermutationCheckpoint(seed, shards, fingerprint, iterationTarget, exceedanceLimit, done, sizeCnt,
+				graphSizeFinalCnt, graphSizeIterations, genes, cnt, finalCnt, finalIter).write(checkpointFile);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Moves the checkpoint of a finished experiment to the given file, after its p-values are written, so that later
+	 * analyses do not resume from it. The moved file can still be used as a shard.
+	 *
+	 * @param countsFile file to keep the final counts in
+	 */
+	public void finishCheckpoint(String countsFile) throws IOException
+	{
+		if (checkpointFile == null || !Files.exists(Paths.get(checkpointFile))) return;
+		Files.move(Paths.get(checkpointFile), Paths.get(countsFile), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Gets the genes of the compiled network, in the order of their IDs.
+	 */
+	protected static String[] getGenes(CompiledNetwork cn)
+	{
+		String[] genes = new String[cn.getGeneCount()];
+		for (int g = 0; g < genes.length; g++)
+		{
+			genes[g] = cn.getGene(g);
+		}
+		return genes;
+	}
+
+	/**
+	 * Performs randomization iterations on its own copy of the data, and keeps its own counts.
+	 */
+	protected interface PermutationWorker
+	{
+		/**
+		 * Performs one iteration.
+		 *
+		 * @param iteration index of the iteration
+		 * @param random random number generator of the iteration
+		 */
+		void permute(int iteration, SplittableRandom random);
+	}
+
 	/**
 	 * Gets the p-val for the network size.
 	 *
@@ -82,6 +621,14 @@ public abstract class NetworkSignificanceCalculator
 		return graphSizePval;
 	}
 
+	/**
+	 * Gets the number of randomizations the network size p-value is based on.
+	 */
+	public int getGraphSizeIterations()
+	{
+		return graphSizeIterations;
+	}
+
 	/**
 	 * Gets the map of downstream activity size p-vals for each gene.
 	 *
@@ -0,0 +1,265 @@
+package org.panda.causalpath.analyzer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * State of a network significance randomization experiment, that can be saved to a compact binary file and restored.
+ * Checkpoints let an interrupted experiment resume where it left off, and let independent experiments with different
+ * seeds (shards) run as separate processes, to be merged afterwards.
+ *
+ * Counts are kept in families, each indexed by the gene IDs of the compiled network, which are listed with the
+ * checkpoint to make sure it is restored on the same network. A checkpoint also has a fingerprint of the observed
+ * statistics, the data and the search settings, and it is restored only if the fingerprint is the same, since counts
+ * against a different observation are meaningless.
+ *
+ * @author Ozgun Babur
+ */
+public class PermutationCheckpoint
+{
+	private static final int MAGIC = 0x4350434B;
+	private static final int VERSION = 2;
+
+	/**
+	 * Seed of the experiment. Meaningless for merged shards.
+	 */
+	final long seed;
+
+	/**
+	 * Number of experiments merged into this one. Merged experiments cannot be continued, since their random number
+	 * streams would overlap.
+	 */
+	final int shards;
+
+	/**
+	 * Fingerprint of the observation that the randomizations are compared to.
+	 */
+	final long fingerprint;
+
+	/**
+	 * Requested number of iterations.
+	 */
+	final int target;
+
+	/**
+	 * Exceedance limit of the adaptive mode, zero if not adaptive.
+	 */
+	final int exceedanceLimit;
+
+	/**
+	 * Iterations done.
+	 */
+	final int done;
+
+	/**
+	 * Number of iterations where the result network was at least as big as the current one.
+	 */
+	final long sizeCnt;
+
+	/**
+	 * Finalized graph size count and iterations in the adaptive mode. Iterations are zero if not finalized.
+	 */
+	final long graphSizeFinalCnt;
+	final int graphSizeIterations;
+
+	/**
+	 * Genes, in the order of their IDs.
+	 */
+	final String[] genes;
+
+	/**
+	 * Exceedance counts of each family.
+	 */
+	final int[][] cnt;
+
+	/**
+	 * Finalized counts and iterations of each family in the adaptive mode.
+	 */
+	final int[][] finalCnt;
+	final int[][] finalIter;
+
+	PermutationCheckpoint(long seed, int shards, long fingerprint, int target, int exceedanceLimit, int done,
+		long sizeCnt, long graphSizeFinalCnt, int graphSizeIterations, String[] genes, int[][] cnt, int[][] finalCnt,
+		int[][] finalIter)
+	{
+		this.seed = seed;
+		this.shards = shards;
+		this.fingerprint = fingerprint;
+		this.target = target;
+		this.exceedanceLimit = exceedanceLimit;
+		this.done = done;
+		this.sizeCnt = sizeCnt;
+		this.graphSizeFinalCnt = graphSizeFinalCnt;
+		this.graphSizeIterations = graphSizeIterations;
+		this.genes = genes;
+		this.cnt = cnt;
+		this.finalCnt = finalCnt;
+		this.finalIter = finalIter;
+	}
+
+	/**
+	 * Writes the checkpoint to the given file. The file is replaced at once, so an interruption during writing does
+	 * not corrupt the previous checkpoint.
+	 */
+	public void write(String filename) throws IOException
+	{
+		Path path = Paths.get(filename).toAbsolutePath();
+		Path tmp = Paths.get(path + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(Files.newOutputStream(tmp)))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(seed);
+			out.writeInt(shards);
+			out.writeLong(fingerprint);
+			out.writeInt(target);
+			out.writeInt(exceedanceLimit);
+			out.writeInt(done);
+			out.writeLong(sizeCnt);
+			out.writeLong(graphSizeFinalCnt);
+			out.writeInt(graphSizeIterations);
+
+			out.writeInt(genes.length);
+			for (String gene : genes)
+			{
+				out.writeUTF(gene);
+			}
+
+			out.writeInt(cnt.length);
+			for (int i = 0; i < cnt.length; i++)
+			{
+				writeArray(out, cnt[i]);
+				writeArray(out, finalCnt[i]);
+				writeArray(out, finalIter[i]);
+			}
+		}
+
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeArray(DataOutputStream out, int[] arr) throws IOException
+	{
+		for (int v : arr)
+		{
+			out.writeInt(v);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint from the given file.
+	 */
+	public static PermutationCheckpoint read(String filename) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new GZIPInputStream(Files.newInputStream(Paths.get(filename))))))
+		{
+			if (in.readInt() != MAGIC) throw new RuntimeException("Not a randomization checkpoint: " + filename);
+			int version = in.readInt();
+			if (version != VERSION) throw new RuntimeException("Unsupported checkpoint version " + version +
+				" in " + filename);
+
+			long seed = in.readLong();
+			int shards = in.readInt();
+			long fingerprint = in.readLong();
+			int target = in.readInt();
+			int exceedanceLimit = in.readInt();
+			int done = in.readInt();
+			long sizeCnt = in.readLong();
+			long graphSizeFinalCnt = in.readLong();
+			int graphSizeIterations = in.readInt();
+
+			String[] genes = new String[in.readInt()];
+			for (int g = 0; g < genes.length; g++)
+			{
+				genes[g] = in.readUTF();
+			}
+
+			int families = in.readInt();
+			int[][] cnt = new int[families][];
+			int[][] finalCnt = new int[families][];
+			int[][] finalIter = new int[families][];
+			for (int i = 0; i < families; i++)
+			{
+				cnt[i] = readArray(in, genes.length);
+				finalCnt[i] = readArray(in, genes.length);
+				finalIter[i] = readArray(in, genes.length);
+			}
+
+			return new PermutationCheckpoint(seed, shards, fingerprint, target, exceedanceLimit, done, sizeCnt, graphSizeFinalCnt,
+				graphSizeIterations, genes, cnt, finalCnt, finalIter);
+		}
+	}
+
+	private static int[] readArray(DataInputStream in, int length) throws IOException
+	{
+		int[] arr = new int[length];
+		for (int i = 0; i < length; i++)
+		{
+			arr[i] = in.readInt();
+		}
+		return arr;
+	}
+
+	/**
+	 * Merges the checkpoints of independent experiments on the same network, by summing their counts and iterations.
+	 * Experiments have to use different seeds on the same observation, and they cannot be adaptive, since sequential
+	 * stopping decisions of separate experiments do not add up.
+	 *
+	 * @param shards checkpoints of the experiments
+	 * @return the merged checkpoint
+	 */
+	public static PermutationCheckpoint merge(List<PermutationCheckpoint> shards)
+	{
+		if (shards.isEmpty()) throw new RuntimeException("No shards to merge.");
+		if (shards.size() == 1) return shards.get(0);
+
+		PermutationCheckpoint first = shards.get(0);
+		Set<Long> seeds = new HashSet<>();
+		int shardCnt = 0;
+		int done = 0;
+		long sizeCnt = 0;
+		int[][] cnt = new int[first.cnt.length][first.genes.length];
+
+		for (PermutationCheckpoint shard : shards)
+		{
+			if (shard.exceedanceLimit > 0)
+			{
+				throw new RuntimeException("Shards of adaptive randomizations cannot be merged.");
+			}
+			if (shard.cnt.length != first.cnt.length || !Arrays.equals(shard.genes, first.genes))
+			{
+				throw new RuntimeException("Shards are not based on the same network.");
+			}
+			if (shard.fingerprint != first.fingerprint)
+			{
+				throw new RuntimeException("Shards are not based on the same data and settings.");
+			}
+			if (shard.shards == 1 && !seeds.add(shard.seed))
+			{
+				throw new RuntimeException("Shards have the same seed, hence the same randomizations: " + shard.seed);
+			}
+
+			shardCnt += shard.shards;
+			done += shard.done;
+			sizeCnt += shard.sizeCnt;
+			for (int i = 0; i < cnt.length; i++)
+			{
+				for (int g = 0; g < cnt[i].length; g++)
+				{
+					cnt[i][g] += shard.cnt[i][g];
+				}
+			}
+		}
+
+		return new PermutationCheckpoint(first.seed, shardCnt, first.fingerprint, done, 0, done, sizeCnt, 0, 0,
+			first.genes, cnt, new int[cnt.length][first.genes.length], new int[cnt.length][first.genes.length]);
+	}
+}
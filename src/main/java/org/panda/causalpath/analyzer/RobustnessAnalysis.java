@@ -62,6 +62,9 @@ public class RobustnessAnalysis
 		{
 			addNoise(relations);
 
+			// Remembered correlations of the previous values are not useful anymore
+			if (corrDet != null) corrDet.getStore().clear();
+
 			Set<Relation> newRels = getARun(relations);
 
 			int overlap = CollectionUtil.countOverlap(newRels, trueRels);
@@ -143,10 +146,14 @@ public class RobustnessAnalysis
 			{
 				NumericData nd = (NumericData) data;
 
-				for (int i = 0; i < nd.vals.length; i++)
+				// Noise is added to a copy, since the values may be shared, such as the ones read from an off-heap store
+				double[] vals = nd.getVals().clone();
+
+				for (int i = 0; i < vals.length; i++)
 				{
-					nd.vals[i] += rand.nextGaussian() * noiseStDev;
+					vals[i] += rand.nextGaussian() * noiseStDev;
 				}
+				nd.setVals(vals);
 			}
 		}
 	}
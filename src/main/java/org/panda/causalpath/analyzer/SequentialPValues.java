@@ -0,0 +1,181 @@
+package org.panda.causalpath.analyzer;
+
+/**
+ * Randomization p-values of a family of tests, which are corrected together for multiple hypothesis testing. Supports
+ * sequential stopping (Besag and Clifford, 1991): a test is finalized once its exceedance count reaches a limit, and
+ * its p-value becomes the count divided by the iterations done at that point. Unfinalized tests get the count divided
+ * by all iterations done.
+ *
+ * The family is decided when the significance of each test under the Benjamini-Hochberg procedure is certain,
+ * whatever the remaining iterations bring.
+ *
+ * @author Ozgun Babur
+ */
+public class SequentialPValues
+{
+	/**
+	 * Tests that are in the family.
+	 */
+	private final boolean[] include;
+
+	/**
+	 * Tests that have the p-value 1 without any randomization.
+	 */
+	private final boolean[] certain;
+
+	/**
+	 * Exceedance counts of the finalized tests.
+	 */
+	private final int[] finalCnt;
+
+	/**
+	 * Iterations the finalized tests are based on. Zero if not finalized.
+	 */
+	private final int[] finalIter;
+
+	/**
+	 * Constructor with the tests.
+	 *
+	 * @param include the tests that are in the family
+	 * @param certain the tests that have the p-value 1 without any randomization
+	 */
+	public SequentialPValues(boolean[] include, boolean[] certain)
+	{
+		this.include = include;
+		this.certain = certain;
+		this.finalCnt = new int[include.length];
+		this.finalIter = new int[include.length];
+	}
+
+	/**
+	 * Finalizes the tests that reached the exceedance limit.
+	 *
+	 * @param cnt exceedance counts
+	 * @param done iterations done
+	 * @param limit the exceedance limit
+	 */
+	public void update(int[] cnt, int done, int limit)
+	{
+		for (int i = 0; i < include.length; i++)
+		{
+			if (include[i] && !certain[i] && finalIter[i] == 0 && cnt[i] >= limit)
+			{
+				finalCnt[i] = cnt[i];
+				finalIter[i] = done;
+			}
+		}
+	}
+
+	/**
+	 * Gets the exceedance counts of the finalized tests, for saving the state.
+	 */
+	int[] getFinalCounts()
+	{
+		return finalCnt.clone();
+	}
+
+	/**
+	 * Gets the iterations of the finalized tests, for saving the state. Zero for the tests that are not finalized.
+	 */
+	int[] getFinalIterations()
+	{
+		return finalIter.clone();
+	}
+
+	/**
+	 * Restores a saved state.
+	 */
+	void restore(int[] finalCnt, int[] finalIter)
+	{
+		System.arraycopy(finalCnt, 0, this.finalCnt, 0, this.finalCnt.length);
+		System.arraycopy(finalIter, 0, this.finalIter, 0, this.finalIter.length);
+	}
+
+	/**
+	 * Checks if the significance of every test at the given FDR is certain.
+	 *
+	 * @param cnt exceedance counts
+	 * @param done iterations done
+	 * @param max maximum number of iterations
+	 * @param fdrThr the FDR threshold
+	 * @return true if no more iterations are needed
+	 */
+	public boolean isDecided(int[] cnt, int done, int max, double fdrThr)
+	{
+		if (done >= max) return true;
+
+		int m = 0;
+		for (boolean b : include)
+		{
+			if (b) m++;
+		}
+
+		// The lowest and highest p-values that the tests can end up with
+		double[] low = new double[include.length];
+		double[] high = new double[include.length];
+		double[] lowInc = new double[m];
+		double[] highInc = new double[m];
+
+		for (int i = 0, k = 0; i < include.length; i++)
+		{
+			if (!include[i]) continue;
+
+			if (certain[i])
+			{
+				low[i] = 1;
+				high[i] = 1;
+			}
+			else if (finalIter[i] > 0)
+			{
+				low[i] = finalCnt[i] / (double) finalIter[i];
+				high[i] = low[i];
+			}
+			else
+			{
+				int c = Math.max(cnt[i], 1);
+				low[i] = c / (double) max;
+				high[i] = Math.max(Math.min(1, (cnt[i] + max - done) / (double) max), c / (double) done);
+			}
+			lowInc[k] = low[i];
+			highInc[k++] = high[i];
+		}
+
+		// The BH threshold cannot go out of these bounds, since it does not decrease when p-values decrease
+		double thrHigh = BenjaminiHochberg.getPValueThreshold(lowInc, fdrThr);
+		double thrLow = BenjaminiHochberg.getPValueThreshold(highInc, fdrThr);
+
+		for (int i = 0; i < include.length; i++)
+		{
+			if (include[i] && !certain[i] && finalIter[i] == 0 && low[i] <= thrHigh && high[i] > thrLow) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the p-value of the test.
+	 *
+	 * @param i index of the test
+	 * @param cnt exceedance counts
+	 * @param done iterations done
+	 */
+	public double getPValue(int i, int[] cnt, int done)
+	{
+		if (certain[i]) return 1;
+		if (finalIter[i] > 0) return finalCnt[i] / (double) finalIter[i];
+
+		// we don't want 0 as a p-value because they will always pass multiple hypothesis correction
+		return Math.max(cnt[i], 1) / (double) done;
+	}
+
+	/**
+	 * Gets the number of iterations the p-value of the test is based on.
+	 *
+	 * @param i index of the test
+	 * @param done iterations done
+	 */
+	public int getIterations(int i, int done)
+	{
+		if (finalIter[i] > 0) return finalIter[i];
+		return done;
+	}
+}
@@ -8,6 +8,8 @@ import org.panda.utility.statistics.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Checks the significance of separation of control and test groups.
@@ -22,6 +24,21 @@ public class SignificanceDetector extends DifferenceDetector
 
 	RandomMatrixUser rmu;
 
+	/**
+	 * The t-test engine, created on first use.
+	 */
+	private volatile BatchTTest batchTTest;
+
+	/**
+	 * Control and test groups as bitsets, created on first use.
+	 */
+	private volatile long[][] groupMasks;
+
+	/**
+	 * Number of threads to use in batch tests.
+	 */
+	protected int threads = 1;
+
 	public SignificanceDetector(double threshold, boolean[] control, boolean[] test)
 	{
 		super(threshold, control, test);
@@ -33,34 +50,51 @@ public class SignificanceDetector extends DifferenceDetector
 	public void setPaired(boolean paired)
 	{
 		this.paired = paired;
+		this.batchTTest = null;
+		settingsChanged();
+	}
+
+	public void setThreads(int threads)
+	{
+		this.threads = threads;
+		this.batchTTest = null;
 	}
 
 	public void setUseMissingData(boolean useMissingData)
 	{
 		this.useMissingData = useMissingData;
+		settingsChanged();
 	}
 
 	public void setCategDataSufficiencyThreshold(double categDataSufficiencyThreshold)
 	{
 		this.categDataSufficiencyThreshold = categDataSufficiencyThreshold;
+		settingsChanged();
 	}
 
 	public void setMinimumSampleSize(int minimumSampleSize)
 	{
 		this.minimumSampleSize = minimumSampleSize;
+		settingsChanged();
 	}
 
 	public void setRadomizedMatrices(RandomizedMatrices phosphoRM, RandomizedMatrices totProtRM,
 		Set<String> testValueColumn) throws IOException, ClassNotFoundException
 	{
 		this.rmu = new RandomMatrixUser(phosphoRM, totProtRM, testValueColumn);
+		settingsChanged();
+	}
+
+	@Override
+	protected int getChangeSign(DetectionResult result)
+	{
+		return result.test.p <= threshold ? result.value > 0 ? 1 : -1 : 0;
 	}
 
 	@Override
-	public int getChangeSign(ExperimentData data)
+	double getDecisionStatistic(ExperimentData data)
 	{
-		double p = getPValue(data);
-		return p <= threshold ? getChangeValue(data) > 0 ? 1 : -1 : 0;
+		return getResult(data).test.p;
 	}
 
 	/**
@@ -71,7 +105,79 @@ public class SignificanceDetector extends DifferenceDetector
 		return testData(data).p;
 	}
 
+	/**
+	 * Gets the test result that is remembered by the data, or performs the test if there is no valid result. The
+	 * returned tuple should not be modified.
+	 */
 	public Tuple testData(ExperimentData data)
+	{
+		return getResult(data).test;
+	}
+
+	/**
+	 * Tests the numeric data in one batch, and lets the data remember the results so that they are not tested one by
+	 * one later. Data with repeats, and data that are not associated with this detector are skipped.
+	 */
+	public void testInBatch(Collection<? extends ExperimentData> datas)
+	{
+		List<NumericData> list = datas.stream().filter(d -> d instanceof NumericData && d.getChDet() == this &&
+			!d.hasRepeatData()).map(d -> (NumericData) d).collect(Collectors.toList());
+
+		if (list.isEmpty()) return;
+
+		int detectorEpoch = epoch;
+		int[] dataEpochs = new int[list.size()];
+		double[][] rows = new double[list.size()][];
+		for (int i = 0; i < rows.length; i++)
+		{
+			dataEpochs[i] = list.get(i).getValuesEpoch();
+			rows[i] = list.get(i).getVals();
+		}
+
+		double[] t = new double[rows.length];
+		double[] p = new double[rows.length];
+		getBatchTTest().test(rows, minimumSampleSize, t, p);
+
+		for (int i = 0; i < rows.length; i++)
+		{
+			NumericData data = list.get(i);
+			Tuple tup = getTuple(t[i], p[i]);
+			if (useMissingData) tup = tup.getCombined(testDataMissing(data));
+			data.setDetectionResult(new DetectionResult(this, detectorEpoch, dataEpochs[i], tup.v, tup));
+		}
+	}
+
+	private BatchTTest getBatchTTest()
+	{
+		BatchTTest engine = batchTTest;
+		if (engine == null)
+		{
+			engine = new BatchTTest(control, test, paired);
+			engine.setThreads(threads);
+			batchTTest = engine;
+		}
+		return engine;
+	}
+
+	/**
+	 * Converts the t-test result to the value-significance pair of the detector.
+	 */
+	private Tuple getTuple(double t, double p)
+	{
+		return new Tuple(Math.signum(t) * (p == 0 ? 100 : -Math.log(p)), p);
+	}
+
+	@Override
+	protected DetectionResult detect(ExperimentData data, int detectorEpoch, int dataEpoch)
+	{
+		Tuple test = calculateTest(data);
+		return new DetectionResult(this, detectorEpoch, dataEpoch, test.v, test);
+	}
+
+	/**
+	 * Performs the test without using the remembered results.
+	 */
+	protected Tuple calculateTest(ExperimentData data)
 	{
 		Tuple tup1 = testDataNaive(data);
 
@@ -141,28 +247,30 @@ public class SignificanceDetector extends DifferenceDetector
 		{
 //			if (true) return new Tuple();
 
-			double[] vals = ((NumericData) data).vals;
-
-			double[] testVals = paired ? ArrayUtil.subset(vals, test, control) : ArrayUtil.subset(vals, test);
-			double[] ctrlVals = paired ? ArrayUtil.subset(vals, control, test) : ArrayUtil.subset(vals, control);
+			double[][] rows = new double[][]{((NumericData) data).getVals()};
+			double[] t = new double[1];
+			double[] p = new double[1];
 
-			double p = Double.NaN;
-			double sign = Double.NaN;
+			getBatchTTest().test(rows, minimumSampleSize, t, p);
 
-			if (testVals.length >= minimumSampleSize && ctrlVals.length >= minimumSampleSize)
-			{
-				Tuple ttest = paired ? TTest.testPaired(ctrlVals, testVals) : TTest.test(ctrlVals, testVals);
-				p = ttest.p;
-				sign = Math.signum(ttest.v);
-			}
-
-			return new Tuple(sign * (p == 0 ? 100 : -Math.log(p)), p);
+			return getTuple(t[0], p[0]);
 		}
 		else if (data instanceof CategoricalData)
 		{
-			int[] cat = ((CategoricalData) data).getCategories();
+			CategoricalData qd = (CategoricalData) data;
 
-			long[][] c = ArrayUtil.convertCategorySubsetsToContingencyTables(cat, control, test);
+			// Binary rows are counted with bit operations
+			BinaryRow br = qd.getBinaryRow();
+			long[][] c = br != null && br.size() == control.length ?
+				br.getContingencyTable(getGroupMasks()[0], getGroupMasks()[1]) : null;
+			boolean binary = c != null;
+
+			int[] cat = null;
+			if (!binary)
+			{
+				cat = qd.getCategories();
+				c = ArrayUtil.convertCategorySubsetsToContingencyTables(cat, control, test);
+			}
 
 			if (c.length < 2) return new Tuple();
 
@@ -186,14 +294,35 @@ public class SignificanceDetector extends DifferenceDetector
 				p = ChiSquare.testDependence(cat, control, test);
 			}
 
-			double meanC = ArrayUtil.mean(cat, control);
-			double meanT = ArrayUtil.mean(cat, test);
-			int sign = (int) Math.signum(meanT - meanC);
+			int sign;
+			if (binary)
+			{
+				// Rows are ordered by category, and columns by group, so the mean is larger where the higher
+				// category has a larger share
+				sign = Long.signum(c[1][1] * (c[0][0] + c[1][0]) - c[1][0] * (c[0][1] + c[1][1]));
+			}
+			else
+			{
+				double meanC = ArrayUtil.mean(cat, control);
+				double meanT = ArrayUtil.mean(cat, test);
+				sign = (int) Math.signum(meanT - meanC);
+			}
 			return new Tuple(sign * (p == 0 ? 100 : -Math.log(p)), p);
 		}
 		throw new RuntimeException("Unhandled kind of experiment data: " + data);
 	}
 
+	private long[][] getGroupMasks()
+	{
+		long[][] masks = groupMasks;
+		if (masks == null)
+		{
+			masks = new long[][]{BinaryRow.toMask(control), BinaryRow.toMask(test)};
+			groupMasks = masks;
+		}
+		return masks;
+	}
+
 	public Tuple testDataMissing(ExperimentData data)
 	{
 		if (data instanceof ProteinData)
@@ -218,9 +347,9 @@ public class SignificanceDetector extends DifferenceDetector
 	}
 
 	@Override
-	public double getChangeValue(ExperimentData data)
+	protected double calculateChangeValue(ExperimentData data)
 	{
-		return testData(data).v;
+		return calculateTest(data).v;
 	}
 
 	@Override
@@ -231,6 +360,8 @@ public class SignificanceDetector extends DifferenceDetector
 		det.setCategDataSufficiencyThreshold(categDataSufficiencyThreshold);
 		det.setMinimumSampleSize(minimumSampleSize);
 		det.rmu = rmu;
+		det.setPaired(paired);
+		det.setThreads(threads);
 		return det;
 	}
 
@@ -250,7 +381,7 @@ public class SignificanceDetector extends DifferenceDetector
 			totProtRandM = totProtRM;
 			totProtTestMark = totProtRandM.convertSamplesToBooleanArray(testValueColumn);
 			phosphoTestMark = phosphoRandM.convertSamplesToBooleanArray(testValueColumn);
-			cache = new HashMap<>();
+			cache = new ConcurrentHashMap<>();
 		}
 
 		double getPval(PresenceData data)
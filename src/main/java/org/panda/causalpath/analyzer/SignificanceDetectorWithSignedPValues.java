@@ -19,16 +19,17 @@ public class SignificanceDetectorWithSignedPValues extends SignificanceDetector
 		super(threshold, null, null);
 	}
 
+	/**
+	 * Signed p-values are read from the data, so there is nothing to test in batch.
+	 */
 	@Override
-	public int getChangeSign(ExperimentData data)
+	public void testInBatch(Collection<? extends ExperimentData> datas)
 	{
-		double p = getPValue(data);
-		return p <= threshold ? getChangeValue(data) > 0 ? 1 : -1 : 0;
 	}
 
 	public Tuple testDataNaiveOnSingleData(ExperimentData data)
 	{
-		double signedP = ((NumericData) data).vals[0];
+		double signedP = ((NumericData) data).getVals()[0];
 
 		if (Double.isNaN(signedP)) return Tuple.NaN;
 
@@ -38,12 +39,6 @@ public class SignificanceDetectorWithSignedPValues extends SignificanceDetector
 		return new Tuple(sign * (p == 0 ? 100 : -Math.log(p)), p);
 	}
 
-	@Override
-	public double getChangeValue(ExperimentData data)
-	{
-		return testData(data).v;
-	}
-
 	@Override
 	public OneDataChangeDetector makeACopy()
 	{
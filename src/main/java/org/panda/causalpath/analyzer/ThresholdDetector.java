@@ -20,6 +20,12 @@ public class ThresholdDetector implements OneDataChangeDetector
 	 */
 	AveragingMethod avgMet;
 
+	/**
+	 * Incremented whenever a setting that affects the change values changes. Detection results remembered by the data
+	 * become invalid then. Threshold is not one of those settings since it is applied after remembering.
+	 */
+	protected volatile int epoch;
+
 	public ThresholdDetector(double threshold)
 	{
 		this.threshold = threshold;
@@ -34,6 +40,7 @@ public class ThresholdDetector implements OneDataChangeDetector
 	public void setAveragingMethod(AveragingMethod method)
 	{
 		this.avgMet = method;
+		settingsChanged();
 	}
 
 	public void setThreshold(double threshold)
@@ -41,25 +48,85 @@ public class ThresholdDetector implements OneDataChangeDetector
 		this.threshold = threshold;
 	}
 
+	public double getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * Gets the statistic of the data that is compared to the threshold for deciding the change sign.
+	 */
+	double getDecisionStatistic(ExperimentData data)
+	{
+		return Math.abs(getResult(data).value);
+	}
+
+	/**
+	 * Invalidates the detection results that are remembered by the data.
+	 */
+	protected void settingsChanged()
+	{
+		epoch++;
+	}
+
 	@Override
 	public int getChangeSign(ExperimentData data)
 	{
-		double v = getChangeValue(data);
+		return getChangeSign(getResult(data));
+	}
+
+	/**
+	 * Decides the change sign from the detection result, using the current threshold.
+	 */
+	protected int getChangeSign(DetectionResult result)
+	{
+		double v = result.value;
 		if (Math.abs(v) >= threshold) return v > 0 ? 1 : -1;
 		else return 0;
 	}
 
+	@Override
 	public double getChangeValue(ExperimentData data)
+	{
+		return getResult(data).value;
+	}
+
+	/**
+	 * Gets the detection result that is remembered by the data, or performs the detection if there is no valid result.
+	 */
+	protected DetectionResult getResult(ExperimentData data)
+	{
+		int detectorEpoch = epoch;
+		int dataEpoch = data.getValuesEpoch();
+		DetectionResult result = data.getDetectionResult();
+
+		if (result == null || !result.isValid(this, detectorEpoch, dataEpoch))
+		{
+			result = detect(data, detectorEpoch, dataEpoch);
+			data.setDetectionResult(result);
+		}
+		return result;
+	}
+
+	protected DetectionResult detect(ExperimentData data, int detectorEpoch, int dataEpoch)
+	{
+		return new DetectionResult(this, detectorEpoch, dataEpoch, calculateChangeValue(data), null);
+	}
+
+	/**
+	 * Calculates the change value without using the remembered results.
+	 */
+	protected double calculateChangeValue(ExperimentData data)
 	{
 		if (data instanceof NumericData)
 		{
 			NumericData nd = (NumericData) data;
 			switch (avgMet)
 			{
-				case FIRST_VALUE: return nd.vals[0];
-				case ARITHMETIC_MEAN: return ArrayUtil.mean(nd.vals);
-				case FOLD_CHANGE_MEAN: return foldChangeGeometricMean(nd.vals);
-				case MAX: return maxOfAbs(nd.vals);
+				case FIRST_VALUE: return nd.getVals()[0];
+				case ARITHMETIC_MEAN: return ArrayUtil.mean(nd.getVals());
+				case FOLD_CHANGE_MEAN: return foldChangeGeometricMean(nd.getVals());
+				case MAX: return maxOfAbs(nd.getVals());
 			}
 		}
 		else if (data instanceof CategoricalData)
@@ -19,10 +19,10 @@ public class ActivityData extends CategoricalData
 	public ActivityData(ProteomicsFileRow rppa)
 	{
 		super(rppa.id, rppa.genes.iterator().next());
-		data = new SingleCategoricalData[rppa.vals.length];
-		for (int i = 0; i < data.length; i++)
+		categories = new byte[rppa.vals.length];
+		for (int i = 0; i < categories.length; i++)
 		{
-			data[i] = new Activity((int) rppa.vals[i]);
+			categories[i] = toByte((int) rppa.vals[i]);
 		}
 	}
 
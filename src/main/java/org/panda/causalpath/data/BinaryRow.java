@@ -0,0 +1,198 @@
+package org.panda.causalpath.data;
+
+/**
+ * Bitset representation of a categorical row that has at most two categories other than absent, such as presence,
+ * mutation, or two-level copy number data. Contingency tables of such rows are counted with bit operations, instead
+ * of a loop over the samples.
+ *
+ * @author Ozgun Babur
+ */
+public class BinaryRow
+{
+	/**
+	 * Categories this representation is created from.
+	 */
+	final byte[] source;
+
+	/**
+	 * Value epoch of the data at the time of creation.
+	 */
+	final int epoch;
+
+	/**
+	 * Lower and higher categories. If the row has a single category, they are the same.
+	 */
+	private int low;
+	private int high;
+
+	/**
+	 * Bits of the samples that are not absent.
+	 */
+	private long[] present;
+
+	/**
+	 * Bits of the samples that have the higher category.
+	 */
+	private long[] highBits;
+
+	private boolean binary;
+
+	BinaryRow(byte[] source, int epoch)
+	{
+		this.source = source;
+		this.epoch = epoch;
+
+		boolean seen = false;
+		for (byte b : source)
+		{
+			if (b == CategoricalData.ABSENT_BYTE || (seen && (b == low || b == high))) continue;
+
+			if (!seen)
+			{
+				low = high = b;
+				seen = true;
+			}
+			else if (low != high) return;
+			else if (b < low) low = b;
+			else high = b;
+		}
+
+		binary = true;
+
+		present = new long[getWordCount(source.length)];
+		highBits = new long[present.length];
+		for (int i = 0; i < source.length; i++)
+		{
+			if (source[i] != CategoricalData.ABSENT_BYTE)
+			{
+				present[i >>> 6] |= 1L << i;
+				if (source[i] == high && high != low) highBits[i >>> 6] |= 1L << i;
+			}
+		}
+	}
+
+	boolean isBinary()
+	{
+		return binary;
+	}
+
+	public int getLow()
+	{
+		return low;
+	}
+
+	public int getHigh()
+	{
+		return high;
+	}
+
+	/**
+	 * Gets the number of samples.
+	 */
+	public int size()
+	{
+		return source.length;
+	}
+
+	/**
+	 * Gets the number of words to hold the given number of bits.
+	 */
+	public static int getWordCount(int size)
+	{
+		return (size + 63) >>> 6;
+	}
+
+	/**
+	 * Converts the given sample marks to a bitset.
+	 */
+	public static long[] toMask(boolean[] marks)
+	{
+		long[] mask = new long[getWordCount(marks.length)];
+		for (int i = 0; i < marks.length; i++)
+		{
+			if (marks[i]) mask[i >>> 6] |= 1L << i;
+		}
+		return mask;
+	}
+
+	/**
+	 * Contingency table of the categories versus the control and test groups, in the form [category][group], with
+	 * the lower category first.
+	 *
+	 * @return the table, or null if it would not be 2x2 because a category or a group has no observation
+	 */
+	public long[][] getContingencyTable(long[] control, long[] test)
+	{
+		if (control.length != present.length || test.length != present.length)
+		{
+			throw new IllegalArgumentException("Group masks do not match the row size.");
+		}
+
+		long lowC = 0, lowT = 0, highC = 0, highT = 0;
+		for (int w = 0; w < present.length; w++)
+		{
+			long c = present[w] & control[w];
+			long t = present[w] & test[w];
+			long hc = highBits[w] & control[w];
+			long ht = highBits[w] & test[w];
+			highC += Long.bitCount(hc);
+			highT += Long.bitCount(ht);
+			lowC += Long.bitCount(c & ~hc);
+			lowT += Long.bitCount(t & ~ht);
+		}
+		return getIfFull(lowC, lowT, highC, highT);
+	}
+
+	/**
+	 * Contingency table of the categories of two rows, over the samples where neither is absent, in the form
+	 * [category of this][category of other], with the lower categories first.
+	 *
+	 * @return the table, or null if it would not be 2x2 because a category has no observation
+	 */
+	public long[][] getContingencyTable(BinaryRow other)
+	{
+		long[] c = count(other);
+		return getIfFull(c[0], c[1], c[2], c[3]);
+	}
+
+	/**
+	 * Pearson correlation of the categories of two rows, over the samples where neither is absent. This is the phi
+	 * coefficient of their contingency table.
+	 */
+	public double getCorrelation(BinaryRow other)
+	{
+		long[] c = count(other);
+		double l1 = c[0] + c[1];
+		double h1 = c[2] + c[3];
+		double l2 = c[0] + c[2];
+		double h2 = c[1] + c[3];
+		return ((double) c[0] * c[3] - (double) c[1] * c[2]) / Math.sqrt(l1 * h1 * l2 * h2);
+	}
+
+	/**
+	 * Counts the samples in the low-low, low-high, high-low and high-high categories of this and the other row.
+	 */
+	private long[] count(BinaryRow other)
+	{
+		long[] c = new long[4];
+		for (int w = 0; w < present.length; w++)
+		{
+			long both = present[w] & other.present[w];
+			long h1 = highBits[w] & both;
+			long h2 = other.highBits[w] & both;
+			long l1 = both & ~h1;
+			long l2 = both & ~h2;
+			c[0] += Long.bitCount(l1 & l2);
+			c[1] += Long.bitCount(l1 & h2);
+			c[2] += Long.bitCount(h1 & l2);
+			c[3] += Long.bitCount(h1 & h2);
+		}
+		return c;
+	}
+
+	private static long[][] getIfFull(long c00, long c01, long c10, long c11)
+	{
+		if (c00 + c01 == 0 || c10 + c11 == 0 || c00 + c10 == 0 || c01 + c11 == 0) return null;
+		return new long[][]{{c00, c01}, {c10, c11}};
+	}
+}
@@ -1,12 +0,0 @@
-package org.panda.causalpath.data;
-
-/**
- * A single copy number alteration.
- */
-public class CNA extends SingleCategoricalData
-{
-	public CNA(int category)
-	{
-		super(category);
-	}
-}
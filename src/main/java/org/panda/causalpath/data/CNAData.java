@@ -14,7 +14,7 @@ public class CNAData extends CategoricalData
 	public ExperimentData copy()
 	{
 		CNAData copy = new CNAData(id, getGeneSymbols().iterator().next());
-		copy.data = data;
+		copy.categories = categories;
 		return copy;
 	}
 
@@ -1,14 +1,35 @@
 package org.panda.causalpath.data;
 
+import org.panda.utility.ArrayUtil;
+
 import java.util.Set;
 import java.util.stream.IntStream;
 
 /**
- * Holds an array of categorical data points.
+ * Holds an array of categorical data points. Categories are small integers, hence they are stored in a byte array,
+ * with the absent category mapped to a reserved byte value.
  */
 public abstract class CategoricalData extends ExperimentData
 {
-	public SingleCategoricalData[] data;
+	/**
+	 * Byte value that represents the absent category.
+	 */
+	public static final byte ABSENT_BYTE = Byte.MIN_VALUE;
+
+	/**
+	 * Category of each sample.
+	 */
+	public byte[] categories;
+
+	/**
+	 * Integer categories, converted from the byte categories at first request.
+	 */
+	private volatile IntCategories intCategories;
+
+	/**
+	 * Bitset representation of the categories, created at first request.
+	 */
+	private volatile BinaryRow binaryRow;
 
 	public CategoricalData(String id, String symbol)
 	{
@@ -22,23 +43,79 @@ public abstract class CategoricalData extends ExperimentData
 
 	/**
 	 * Sometimes we need the data array to be less structured for practical purposes. This method represents the
-	 * category array as an integer array.
+	 * category array as an integer array. The array is reused until the categories change, hence it should not be
+	 * modified.
 	 */
 	public int[] getCategories()
 	{
-		int[] c = new int[data.length];
+		byte[] source = categories;
+		int epoch = getValuesEpoch();
+
+		IntCategories ic = intCategories;
+		if (ic == null || ic.source != source || ic.epoch != epoch)
+		{
+			ic = new IntCategories(source, epoch);
+			intCategories = ic;
+		}
+		return ic.cat;
+	}
+
+	/**
+	 * Gets the bitset representation of the categories, if there are at most two categories other than absent. The
+	 * representation is reused until the categories change.
+	 *
+	 * @return the bitset representation, or null if the row has more than two categories
+	 */
+	public BinaryRow getBinaryRow()
+	{
+		byte[] source = categories;
+		int epoch = getValuesEpoch();
 
-		for (int i = 0; i < c.length; i++)
+		BinaryRow br = binaryRow;
+		if (br == null || br.source != source || br.epoch != epoch)
 		{
-			c[i] = data[i].getCategory();
+			br = new BinaryRow(source, epoch);
+			binaryRow = br;
 		}
+		return br.isBinary() ? br : null;
+	}
+
+	/**
+	 * Gets the category of the sample with the given index.
+	 */
+	public int getCategory(int index)
+	{
+		return toInt(categories[index]);
+	}
+
+	/**
+	 * Gets the number of samples.
+	 */
+	public int size()
+	{
+		return categories.length;
+	}
+
+	/**
+	 * Replaces the category array.
+	 */
+	public void setCategories(byte[] categories)
+	{
+		this.categories = categories;
+		valuesChanged();
+	}
 
-		return c;
+	/**
+	 * Replaces the category array with the given integer categories.
+	 */
+	public void setCategories(int[] categories)
+	{
+		setCategories(toBytes(categories));
 	}
 
 	public int getNumberOfCategories()
 	{
-		return (int) IntStream.of(getCategories()).distinct().count();
+		return getNumberOfCategories(getCategories());
 	}
 
 	/**
@@ -48,4 +125,56 @@ public abstract class CategoricalData extends ExperimentData
 	{
 		return (int) IntStream.of(cat).distinct().count();
 	}
+
+	/**
+	 * Converts an integer category to its byte representation.
+	 */
+	public static byte toByte(int category)
+	{
+		if (category == ArrayUtil.ABSENT_INT) return ABSENT_BYTE;
+		if (category <= ABSENT_BYTE || category > Byte.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Category out of range: " + category);
+		}
+		return (byte) category;
+	}
+
+	/**
+	 * Converts a byte category to its integer representation.
+	 */
+	public static int toInt(byte category)
+	{
+		return category == ABSENT_BYTE ? ArrayUtil.ABSENT_INT : category;
+	}
+
+	public static byte[] toBytes(int[] categories)
+	{
+		byte[] b = new byte[categories.length];
+		for (int i = 0; i < b.length; i++)
+		{
+			b[i] = toByte(categories[i]);
+		}
+		return b;
+	}
+
+	/**
+	 * Integer categories of a byte array, at a values epoch of the data.
+	 */
+	private static class IntCategories
+	{
+		final byte[] source;
+		final int epoch;
+		final int[] cat;
+
+		IntCategories(byte[] source, int epoch)
+		{
+			this.source = source;
+			this.epoch = epoch;
+			this.cat = new int[source.length];
+			for (int i = 0; i < cat.length; i++)
+			{
+				cat[i] = toInt(source[i]);
+			}
+		}
+	}
 }
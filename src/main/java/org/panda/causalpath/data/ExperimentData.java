@@ -1,10 +1,12 @@
 package org.panda.causalpath.data;
 
+import org.panda.causalpath.analyzer.DetectionResult;
 import org.panda.causalpath.analyzer.OneDataChangeDetector;
 
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for a series of experiment data for a gene.
@@ -42,6 +44,23 @@ public abstract class ExperimentData
 	 */
 	protected Set<ExperimentData> repeatData;
 
+	/**
+	 * The last result of the change detector, remembered to prevent repeating the same statistical test.
+	 */
+	private volatile DetectionResult detectionResult;
+
+	/**
+	 * Incremented whenever the values of this data change, which invalidates the remembered detection result.
+	 */
+	private volatile int valuesEpoch;
+
+	private static final AtomicInteger SERIAL_COUNTER = new AtomicInteger();
+
+	/**
+	 * A dense number that is unique to this data object, including its copies.
+	 */
+	private final int serial = SERIAL_COUNTER.getAndIncrement();
+
 	public ExperimentData(String id, Set<String> geneSymbols)
 	{
 		this.id = id;
@@ -135,6 +154,7 @@ public abstract class ExperimentData
 	{
 		if (this.repeatData == null) this.repeatData = new HashSet<>();
 		this.repeatData.add(data);
+		valuesChanged();
 	}
 
 	public boolean hasRepeatData()
@@ -146,4 +166,47 @@ public abstract class ExperimentData
 	{
 		return repeatData;
 	}
+
+	public DetectionResult getDetectionResult()
+	{
+		return detectionResult;
+	}
+
+	public void setDetectionResult(DetectionResult detectionResult)
+	{
+		this.detectionResult = detectionResult;
+	}
+
+	/**
+	 * This method has to be called when the values of the data are modified in place, after the change detector is
+	 * used.
+	 */
+	public void valuesChanged()
+	{
+		valuesEpoch++;
+	}
+
+	/**
+	 * Gets a number that changes whenever the values of this data, or of its repeats, change.
+	 */
+	public int getValuesEpoch()
+	{
+		int epoch = valuesEpoch;
+		if (repeatData != null)
+		{
+			for (ExperimentData rep : repeatData)
+			{
+				epoch += rep.getValuesEpoch();
+			}
+		}
+		return epoch;
+	}
+
+	/**
+	 * Gets the dense number that identifies this object. Unlike the ID, it is different for the copies of the data.
+	 */
+	public int getSerial()
+	{
+		return serial;
+	}
 }
@@ -0,0 +1,231 @@
+package org.panda.causalpath.data;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Off-heap store for the values of numeric data. The values are written once to a binary file, which is then memory
+ * mapped, and the data release their on-heap value arrays. Values of a data row are read from the mapped file when
+ * requested, and the operating system decides which parts of the file stay in memory. Processes that map the same file
+ * share its pages.
+ *
+ * The file starts with a header that has the number of rows, the number of columns, and a checksum of the data IDs
+ * and values. An existing file is reused if its header matches, otherwise it is replaced.
+ *
+ * @author Ozgun Babur
+ */
+public class MappedValueStore
+{
+	private static final long MAGIC = 0x4350564d41503031L; // "CPVMAP01"
+
+	/**
+	 * Header size in bytes, which keeps the values aligned.
+	 */
+	private static final int HEADER_SIZE = 32;
+
+	private final Path file;
+	private final int rows;
+	private final int columns;
+
+	/**
+	 * The file is mapped in segments of whole rows, since a single mapping cannot exceed 2 GB.
+	 */
+	private final int rowsPerSegment;
+	private final DoubleBuffer[] segments;
+
+	/**
+	 * Rows that are last read, shared by all data of the same row, including their copies. The garbage collector can
+	 * release them when memory is needed.
+	 */
+	private final AtomicReferenceArray<SoftReference<double[]>> cache;
+
+	private MappedValueStore(Path file, int rows, int columns) throws IOException
+	{
+		this.file = file;
+		this.rows = rows;
+		this.columns = columns;
+		this.rowsPerSegment = columns == 0 ? Math.max(rows, 1) : Math.max(1, Integer.MAX_VALUE / 8 / columns);
+
+		int segmentCount = (rows + rowsPerSegment - 1) / rowsPerSegment;
+		this.segments = new DoubleBuffer[segmentCount];
+		this.cache = new AtomicReferenceArray<>(rows);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			for (int s = 0; s < segmentCount; s++)
+			{
+				int segRows = Math.min(rowsPerSegment, rows - s * rowsPerSegment);
+				long offset = HEADER_SIZE + (long) s * rowsPerSegment * columns * 8;
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) segRows * columns * 8)
+					.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Writes the values of the given data to the file, or reuses the file if it already has them, and makes the data
+	 * read their values from the mapped file. Data without values, or with differing numbers of values, are left as
+	 * they are.
+	 *
+	 * @return the store, or null if there is no data to store
+	 */
+	public static MappedValueStore spill(Path file, List<? extends NumericData> datas) throws IOException
+	{
+		int columns = datas.stream().filter(d -> d.vals != null).findFirst().map(d -> d.vals.length).orElse(-1);
+		if (columns < 0) return null;
+
+		List<NumericData> list = datas.stream().filter(d -> d.vals != null && d.vals.length == columns)
+			.collect(Collectors.toList());
+
+		long checksum = getChecksum(list);
+
+		if (!hasHeader(file, list.size(), columns, checksum)) write(file, list, columns, checksum);
+
+		MappedValueStore store = new MappedValueStore(file, list.size(), columns);
+
+		for (int i = 0; i < list.size(); i++)
+		{
+			NumericData data = list.get(i);
+			data.store = store;
+			data.storeRow = i;
+			data.vals = null;
+		}
+		return store;
+	}
+
+	private static long getChecksum(List<? extends NumericData> datas)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (NumericData data : datas)
+		{
+			h = (h ^ data.getId().hashCode()) * 0x100000001b3L;
+			for (double v : data.vals)
+			{
+				h = (h ^ Double.doubleToLongBits(v)) * 0x100000001b3L;
+			}
+		}
+		return h;
+	}
+
+	private static boolean hasHeader(Path file, int rows, int columns, long checksum) throws IOException
+	{
+		if (!Files.exists(file) || Files.size(file) != HEADER_SIZE + (long) rows * columns * 8) return false;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+
+			return header.remaining() == HEADER_SIZE && header.getLong() == MAGIC && header.getInt() == rows &&
+				header.getInt() == columns && header.getLong() == checksum;
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first, so that other processes never map a partially written file.
+	 */
+	private static void write(Path file, List<? extends NumericData> datas, int columns, long checksum)
+		throws IOException
+	{
+		Path dir = file.toAbsolutePath().getParent();
+		if (dir != null) Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			header.putLong(MAGIC).putInt(datas.size()).putInt(columns).putLong(checksum);
+			header.clear();
+			while (header.hasRemaining()) channel.write(header);
+
+			ByteBuffer buf = ByteBuffer.allocate(Math.max(columns * 8, 1 << 16)).order(ByteOrder.nativeOrder());
+			for (NumericData data : datas)
+			{
+				if (buf.remaining() < columns * 8)
+				{
+					buf.flip();
+					while (buf.hasRemaining()) channel.write(buf);
+					buf.clear();
+				}
+				for (double v : data.vals)
+				{
+					buf.putDouble(v);
+				}
+			}
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+		}
+
+		try
+		{
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	public int getRowCount()
+	{
+		return rows;
+	}
+
+	public int getColumnCount()
+	{
+		return columns;
+	}
+
+	/**
+	 * Gets the values of a row. The same array is returned for the row until the garbage collector releases it, hence
+	 * it should not be modified.
+	 */
+	public double[] getRow(int row)
+	{
+		while (true)
+		{
+			SoftReference<double[]> ref = cache.get(row);
+			double[] vals = ref == null ? null : ref.get();
+			if (vals != null) return vals;
+
+			vals = readRow(row);
+			if (cache.compareAndSet(row, ref, new SoftReference<>(vals))) return vals;
+		}
+	}
+
+	/**
+	 * Reads the values of a row into a new array.
+	 */
+	public double[] readRow(int row)
+	{
+		double[] vals = new double[columns];
+		DoubleBuffer segment = segments[row / rowsPerSegment];
+		int offset = (row % rowsPerSegment) * columns;
+
+		// Absolute reads do not move the shared buffer position, so they are safe with other threads
+		for (int j = 0; j < columns; j++)
+		{
+			vals[j] = segment.get(offset + j);
+		}
+		return vals;
+	}
+
+	public double get(int row, int column)
+	{
+		return segments[row / rowsPerSegment].get((row % rowsPerSegment) * columns + column);
+	}
+}
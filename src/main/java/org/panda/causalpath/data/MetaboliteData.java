@@ -25,7 +25,7 @@ public class MetaboliteData extends NumericData
 	public ExperimentData copy()
 	{
 		MetaboliteData copy = new MetaboliteData(id, getGeneSymbols().iterator().next());
-		copy.vals = vals;
+		copyValuesTo(copy);
 		return copy;
 	}
 
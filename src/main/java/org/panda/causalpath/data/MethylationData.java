@@ -23,7 +23,7 @@ public class MethylationData extends NumericData
 	public ExperimentData copy()
 	{
 		MethylationData copy = new MethylationData(id, getGeneSymbols().iterator().next());
-		copy.vals = vals;
+		copyValuesTo(copy);
 		return copy;
 	}
 
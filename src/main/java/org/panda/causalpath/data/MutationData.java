@@ -1,6 +1,8 @@
 package org.panda.causalpath.data;
 
-import org.panda.utility.ArrayUtil;
+import org.panda.resource.tcga.MutTuple;
+
+import java.util.List;
 
 /**
  * Data array for mutations.
@@ -14,6 +16,11 @@ public class MutationData extends CategoricalData
 	 */
 	private int effect;
 
+	/**
+	 * Detected mutations in each sample. This is an optional side table to the categories, which can be null.
+	 */
+	public List<MutTuple>[] details;
+
 	public MutationData(String id, String symbol, int effect)
 	{
 		super(id, symbol);
@@ -27,10 +34,10 @@ public class MutationData extends CategoricalData
 	{
 		// Why don't java 8 have boolean streams?
 
-		boolean[] b = new boolean[data.length];
+		boolean[] b = new boolean[categories.length];
 		for (int i = 0; i < b.length; i++)
 		{
-			b[i] = data[i].category != 0 && data[i].category != ArrayUtil.ABSENT_INT;
+			b[i] = categories[i] != 0 && categories[i] != ABSENT_BYTE;
 		}
 		return b;
 	}
@@ -40,14 +47,22 @@ public class MutationData extends CategoricalData
 	 */
 	public boolean[] getNotMutated()
 	{
-		boolean[] b = new boolean[data.length];
+		boolean[] b = new boolean[categories.length];
 		for (int i = 0; i < b.length; i++)
 		{
-			b[i] = data[i].category == 0;
+			b[i] = categories[i] == 0;
 		}
 		return b;
 	}
 
+	/**
+	 * Gets the detected mutations in the sample with the given index, or null if not available.
+	 */
+	public List<MutTuple> getDetails(int index)
+	{
+		return details == null ? null : details[index];
+	}
+
 	@Override
 	public int getEffect()
 	{
@@ -64,7 +79,8 @@ public class MutationData extends CategoricalData
 	public ExperimentData copy()
 	{
 		MutationData copy = new MutationData(id, getGeneSymbols().iterator().next(), getEffect());
-		copy.data = data;
+		copy.categories = categories;
+		copy.details = details;
 		return copy;
 	}
 
@@ -8,10 +8,21 @@ import java.util.Set;
 public abstract class NumericData extends ExperimentData
 {
 	/**
-	 * Array for the numerical values.
+	 * Array for the numerical values. This is null if the values are in an off-heap store, hence readers should use
+	 * getVals().
 	 */
 	public double[] vals;
 
+	/**
+	 * The off-heap store that has the values of this data, if any.
+	 */
+	MappedValueStore store;
+
+	/**
+	 * Index of this data in the store.
+	 */
+	int storeRow;
+
 	public NumericData(String id, String symbol)
 	{
 		super(id, symbol);
@@ -21,4 +32,36 @@ public abstract class NumericData extends ExperimentData
 	{
 		super(id, geneSymbols);
 	}
+
+	/**
+	 * Gets the values, reading them from the off-heap store if necessary. Values read from the store are shared with
+	 * the copies of this data as long as they are not released, and should be modified only after they are set with
+	 * setVals.
+	 */
+	public double[] getVals()
+	{
+		double[] v = vals;
+		if (v != null || store == null) return v;
+		return store.getRow(storeRow);
+	}
+
+	/**
+	 * Lets the copy have the same values, without reading them from the store. Values that are read from the store
+	 * are shared with the copy.
+	 */
+	protected void copyValuesTo(NumericData copy)
+	{
+		copy.vals = vals;
+		copy.store = store;
+		copy.storeRow = storeRow;
+	}
+
+	/**
+	 * Replaces the values array.
+	 */
+	public void setVals(double[] vals)
+	{
+		this.vals = vals;
+		valuesChanged();
+	}
 }
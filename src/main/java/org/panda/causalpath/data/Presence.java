@@ -1,12 +0,0 @@
-package org.panda.causalpath.data;
-
-/**
- * A single copy number alteration.
- */
-public class Presence extends SingleCategoricalData
-{
-	public Presence(int category)
-	{
-		super(category);
-	}
-}
@@ -23,7 +23,7 @@ public class PresenceData extends CategoricalData
 	public ExperimentData copy()
 	{
 		PresenceData copy = new PresenceData(id, new HashSet<>(getGeneSymbols()), type);
-		copy.data = data;
+		copy.categories = categories;
 		return copy;
 	}
 
@@ -1,7 +1,6 @@
 package org.panda.causalpath.data;
 
 import org.panda.resource.tcga.ProteomicsFileRow;
-import org.panda.utility.ArrayUtil;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -30,18 +29,29 @@ public class ProteinData extends NumericData
 	public void initPresenceData(boolean[] consider)
 	{
 		pres = new PresenceData(id, getGeneSymbols(), getType());
-		pres.data = new SingleCategoricalData[vals.length];
+		double[] vals = getVals();
+		pres.categories = new byte[vals.length];
 		for (int i = 0; i < vals.length; i++)
 		{
-			pres.data[i] = new Presence(!consider[i] ? ArrayUtil.ABSENT_INT : Double.isNaN(vals[i]) ? 0 : 1);
+			pres.categories[i] = !consider[i] ? CategoricalData.ABSENT_BYTE : Double.isNaN(vals[i]) ? (byte) 0 : (byte) 1;
 		}
+		valuesChanged();
+	}
+
+	/**
+	 * Presence data is also used in the change detection.
+	 */
+	@Override
+	public int getValuesEpoch()
+	{
+		return super.getValuesEpoch() + (pres == null ? 0 : pres.getValuesEpoch());
 	}
 
 	@Override
 	public ExperimentData copy()
 	{
 		ProteinData copy = new ProteinData(id, getGeneSymbols());
-		copy.vals = vals;
+		copyValuesTo(copy);
 		if (pres != null) copy.pres = (PresenceData) pres.copy();
 		return copy;
 	}
@@ -24,7 +24,7 @@ public class RNAData extends NumericData
 	public ExperimentData copy()
 	{
 		RNAData copy = new RNAData(id, getGeneSymbols().iterator().next());
-		copy.vals = vals;
+		copyValuesTo(copy);
 		return copy;
 	}
 
@@ -18,7 +18,7 @@ public class SiteModProteinData extends ProteinData
 
 	protected Feature mod;
 
-	private Set<String> genesWithSites;
+	private volatile Set<String> genesWithSites;
 
 	Integer effect;
 
@@ -83,15 +83,16 @@ public class SiteModProteinData extends ProteinData
 	{
 		if (this.genesWithSites == null)
 		{
-			this.genesWithSites = new HashSet<>();
+			Set<String> set = new HashSet<>();
 
 			if (siteMap != null)
 			{
 				siteMap.keySet().stream().forEach(gene ->
-					this.genesWithSites.addAll(
+					set.addAll(
 						siteMap.get(gene).stream().map(site -> gene + "_" + site.getSite())
 							.collect(Collectors.toList())));
 			}
+			this.genesWithSites = set;
 		}
 
 		return this.genesWithSites;
@@ -107,7 +108,7 @@ public class SiteModProteinData extends ProteinData
 	public ExperimentData copy()
 	{
 		SiteModProteinData copy = new SiteModProteinData(id, getGeneSymbols(), mod);
-		copy.vals = vals;
+		copyValuesTo(copy);
 		copy.setSiteMap(getSiteMap());
 		return copy;
 	}
@@ -62,7 +62,7 @@ public class Relation
 	 * For performance reasons. This design assumes the proximityThreshold will not change during execution of the
 	 * program.
 	 */
-	private Set<String> targetWithSites;
+	private volatile Set<String> targetWithSites;
 
 	public Relation(String source, String target, RelationType type, String mediators)
 	{
@@ -108,7 +108,8 @@ public class Relation
 	{
 		if (targetWithSites == null)
 		{
-			targetWithSites = new HashSet<>();
+			// Filled before publishing, so that concurrent searches never see a partial set
+			Set<String> set = new HashSet<>();
 
 			if (sites != null)
 			{
@@ -116,11 +117,12 @@ public class Relation
 				{
 					for (int i = 0; i <= proximityThr; i++)
 					{
-						targetWithSites.add(target + "_" + (site.getSite() + i));
-						targetWithSites.add(target + "_" + (site.getSite() - i));
+						set.add(target + "_" + (site.getSite() + i));
+						set.add(target + "_" + (site.getSite() - i));
 					}
 				}
 			}
+			targetWithSites = set;
 		}
 
 		return targetWithSites;
@@ -4,7 +4,6 @@ import org.panda.causalpath.data.GeneWithData;
 import org.panda.causalpath.data.ProteinSite;
 import org.panda.causalpath.network.Relation;
 import org.panda.causalpath.network.RelationType;
-import org.panda.resource.HGNC;
 import org.panda.resource.network.*;
 import org.panda.resource.signednetwork.SignedType;
 import org.panda.utility.CollectionUtil;
@@ -16,6 +15,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -23,19 +23,80 @@ import java.util.stream.Collectors;
  */
 public class NetworkLoader
 {
+	/**
+	 * Built-in resource networks that are shared by the analyses in this JVM, mapped from the resource directory and
+	 * selection. Null if not shared.
+	 */
+	private static volatile Map<String, PriorNetwork> sharedPriors;
+
+	/**
+	 * Turns on or off sharing the built-in resource networks between the analyses in this JVM. When shared, each
+	 * resource selection is loaded only once, and each analysis gets its own relations over the shared network.
+	 */
+	public static void setSharePriors(boolean share)
+	{
+		sharedPriors = share ? new ConcurrentHashMap<>() : null;
+	}
+
 	/**
 	 * Reads 4 of the built-in resource networks.
 	 */
 	public static Set<Relation> load()
+	{
+		return load(ResourceContext.getDefault());
+	}
+
+	/**
+	 * Reads 4 of the built-in resource networks, with the given resources.
+	 */
+	public static Set<Relation> load(ResourceContext context)
 	{
 		return load(new HashSet<>(Arrays.asList(ResourceType.PC, ResourceType.PhosphoSitePlus,
-			ResourceType.PhosphoNetworks, ResourceType.IPTMNet, ResourceType.TRRUST, ResourceType.TFactS, ResourceType.PCMetabolic)));
+			ResourceType.PhosphoNetworks, ResourceType.IPTMNet, ResourceType.TRRUST, ResourceType.TFactS, ResourceType.PCMetabolic)),
+			context);
 	}
 
 	/**
 	 * Reads the selected built-in resource networks.
 	 */
 	public static Set<Relation> load(Set<ResourceType> resourceTypes)
+	{
+		return load(resourceTypes, ResourceContext.getDefault());
+	}
+
+	/**
+	 * Reads the selected built-in resource networks, with the given resources. The merged network is read from its
+	 * snapshot if it is up to date, or it is taken from the shared networks if they are turned on.
+	 */
+	public static Set<Relation> load(Set<ResourceType> resourceTypes, ResourceContext context)
+	{
+		// Networks can be shared or saved only when they depend on nothing but the resource files. The experimental
+		// consensus network is read from outside the resource directory.
+		if (!context.hasDefaultHGNC() || resourceTypes.contains(ResourceType.PCTCGAConsensus))
+		{
+			return loadFromResources(resourceTypes, context);
+		}
+
+		String dir = context.getResourceDirectory();
+		Map<String, PriorNetwork> shared = sharedPriors;
+		if (shared != null)
+		{
+			String key = dir + "\t" + resourceTypes.stream().map(Enum::name).sorted().collect(Collectors.joining(","));
+			return shared.computeIfAbsent(key, k -> new PriorNetwork(NetworkSnapshot.load(dir, resourceTypes,
+				() -> loadFromResources(resourceTypes, context)))).instantiate();
+		}
+		return NetworkSnapshot.load(dir, resourceTypes, () -> loadFromResources(resourceTypes, context));
+	}
+
+	/**
+	 * Reads and merges the selected built-in resource networks.
+	 */
+	private static Set<Relation> loadFromResources(Set<ResourceType> resourceTypes, ResourceContext context)
+	{
+		return context.call(() -> loadFromResourcesWithLock(resourceTypes, context));
+	}
+
+	private static Set<Relation> loadFromResourcesWithLock(Set<ResourceType> resourceTypes, ResourceContext context)
 	{
 		Set<Relation> relations = new HashSet<>();
 
@@ -121,12 +182,18 @@ public class NetworkLoader
 		cleanUpConflicts(allGraphs);
 
 		// Generate relations based on the network
-		relations = addGraphsToRelations(allGraphs, relations);
+		relations = addGraphsToRelations(allGraphs, relations, context);
 
 		return relations;
 	}
 
 	public static Set<Relation> addGraphsToRelations(Map<SignedType, DirectedGraph> graphs, Set<Relation> relations)
+	{
+		return addGraphsToRelations(graphs, relations, ResourceContext.getDefault());
+	}
+
+	public static Set<Relation> addGraphsToRelations(Map<SignedType, DirectedGraph> graphs, Set<Relation> relations,
+		ResourceContext context)
 	{
 		for (SignedType signedType : graphs.keySet())
 		{
@@ -190,8 +257,8 @@ public class NetworkLoader
 
 		// clean from non-HGNC
 
-		relations = relations.stream().filter(r -> (r.source.startsWith("CHEBI:") || HGNC.get().getSymbol(r.source) != null) &&
-			(r.target.startsWith("CHEBI:") || HGNC.get().getSymbol(r.target) != null)).collect(Collectors.toSet());
+		relations = relations.stream().filter(r -> (r.source.startsWith("CHEBI:") || context.getSymbol(r.source) != null) &&
+			(r.target.startsWith("CHEBI:") || context.getSymbol(r.target) != null)).collect(Collectors.toSet());
 
 		// initiate source and target data
 
@@ -232,7 +299,7 @@ public class NetworkLoader
 		return relations;
 	}
 
-	private static void initMissingSourceTargetData(Set<Relation> relations)
+	static void initMissingSourceTargetData(Set<Relation> relations)
 	{
 		Map<String, GeneWithData> map = new HashMap<>();
 
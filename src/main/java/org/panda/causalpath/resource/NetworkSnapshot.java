@@ -0,0 +1,352 @@
+package org.panda.causalpath.resource;
+
+import org.panda.causalpath.data.ProteinSite;
+import org.panda.causalpath.network.Relation;
+import org.panda.causalpath.network.RelationType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary snapshot of the merged prior network, to skip reading and merging the resource networks at each
+ * run. Gene symbols, mediators and sites are interned in a string table, relations are stored as indices to that
+ * table, and relation types as codes. The snapshot is memory-mapped on load.
+ *
+ * A snapshot is kept for each resource selection in the resource directory, and it is keyed by the selection and the
+ * checksums of the files in the resource directory. When the resources change, the key does not match, and the
+ * snapshot is rebuilt. Checksums are remembered in the directory with the sizes and modification times of the files,
+ * and a file is read again only when its size or modification time changes.
+ *
+ * @author Ozgun Babur
+ */
+public class NetworkSnapshot
+{
+	private static final int MAGIC = 0x43504E57;
+	private static final int VERSION = 1;
+
+	/**
+	 * Snapshot files are named with this prefix, and they are excluded from the checksums.
+	 */
+	private static final String FILE_PREFIX = "causalpath-network-";
+	private static final String FILE_SUFFIX = ".snapshot";
+
+	/**
+	 * The file that remembers the checksums of the resource files.
+	 */
+	private static final String CHECKSUMS_FILE = FILE_PREFIX + "checksums.txt";
+
+	/**
+	 * Loads the network of the given resources from its snapshot if it is up to date, otherwise builds the network
+	 * with the given loader and saves its snapshot.
+	 *
+	 * @param dir the resource directory
+	 * @param resourceTypes the selected resources
+	 * @param loader builds the network from the resources
+	 * @return the network
+	 */
+	public static Set<Relation> load(String dir, Set<NetworkLoader.ResourceType> resourceTypes,
+		Supplier<Set<Relation>> loader)
+	{
+		if (dir == null || !Files.isDirectory(Paths.get(dir))) return loader.get();
+
+		String selection = resourceTypes.stream().map(Enum::name).sorted().collect(Collectors.joining(","));
+		Path file = Paths.get(dir, FILE_PREFIX + selection.replace(',', '-') + FILE_SUFFIX);
+
+		try
+		{
+			if (Files.exists(file))
+			{
+				Set<Relation> relations = read(file, getKey(selection, dir));
+				if (relations != null) return relations;
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Cannot read the network snapshot, rebuilding it: " + e.getMessage());
+		}
+
+		Set<Relation> relations = loader.get();
+
+		// The key is calculated after loading, since the resources may download their files during loading
+		try
+		{
+			write(file, getKey(selection, dir), relations);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Cannot write the network snapshot: " + e.getMessage());
+		}
+
+		return relations;
+	}
+
+	/**
+	 * Gets the key of a snapshot, from the resource selection and the checksums of the resource files.
+	 */
+	static String getKey(String selection, String dir) throws IOException
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		md.update(("v" + VERSION + "\t" + selection).getBytes(StandardCharsets.UTF_8));
+
+		Path root = Paths.get(dir);
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(root))
+		{
+			files = stream.filter(Files::isRegularFile).filter(p -> !p.getFileName().toString().startsWith(FILE_PREFIX))
+				.sorted().collect(Collectors.toList());
+		}
+
+		Map<String, String[]> known = readChecksums(root);
+		Map<String, String[]> current = new LinkedHashMap<>();
+
+		byte[] buf = new byte[1 << 16];
+		for (Path path : files)
+		{
+			String name = root.relativize(path).toString();
+			String size = String.valueOf(Files.size(path));
+			String time = String.valueOf(Files.getLastModifiedTime(path).toMillis());
+
+			String[] entry = known.get(name);
+			if (entry == null || !entry[0].equals(size) || !entry[1].equals(time))
+			{
+				entry = new String[]{size, time, String.valueOf(getChecksum(path, buf))};
+			}
+			current.put(name, entry);
+
+			md.update(("\n" + name + "\t" + entry[2]).getBytes(StandardCharsets.UTF_8));
+		}
+
+		if (!equals(known, current)) writeChecksums(root, current);
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+		{
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static long getChecksum(Path path, byte[] buf) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		try (InputStream in = Files.newInputStream(path))
+		{
+			for (int n = in.read(buf); n > 0; n = in.read(buf))
+			{
+				crc.update(buf, 0, n);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads the remembered size, modification time and checksum of each resource file.
+	 *
+	 * @return the entries mapped from the relative paths, empty if there is no valid checksums file
+	 */
+	private static Map<String, String[]> readChecksums(Path root)
+	{
+		Map<String, String[]> map = new HashMap<>();
+		Path file = root.resolve(CHECKSUMS_FILE);
+		if (!Files.exists(file)) return map;
+
+		try (Stream<String> lines = Files.lines(file))
+		{
+			lines.map(l -> l.split("\t")).filter(t -> t.length == 4)
+				.forEach(t -> map.put(t[0], new String[]{t[1], t[2], t[3]}));
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			map.clear();
+		}
+		return map;
+	}
+
+	/**
+	 * Writes the checksums file at once. Failing to write it only makes the next run read the files again.
+	 */
+	private static void writeChecksums(Path root, Map<String, String[]> entries)
+	{
+		try
+		{
+			Path tmp = Files.createTempFile(root, FILE_PREFIX, ".tmp");
+			try
+			{
+				Files.write(tmp, entries.entrySet().stream()
+					.map(e -> e.getKey() + "\t" + String.join("\t", e.getValue())).collect(Collectors.toList()));
+				Files.move(tmp, root.resolve(CHECKSUMS_FILE), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				Files.deleteIfExists(tmp);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Cannot write the resource checksums: " + e.getMessage());
+		}
+	}
+
+	private static boolean equals(Map<String, String[]> m1, Map<String, String[]> m2)
+	{
+		return m1.size() == m2.size() && m2.keySet().stream().allMatch(k ->
+			m1.containsKey(k) && Arrays.equals(m1.get(k), m2.get(k)));
+	}
+
+	/**
+	 * Writes the snapshot. The file is replaced at once, so concurrent readers never see a partial snapshot.
+	 */
+	static void write(Path file, String key, Set<Relation> relations) throws IOException
+	{
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		for (Relation rel : relations)
+		{
+			intern(strings, rel.source);
+			intern(strings, rel.target);
+			intern(strings, rel.getMediators());
+			if (rel.sites != null) rel.sites.forEach(site -> intern(strings, site.toString()));
+		}
+
+		Path tmp = Files.createTempFile(file.getParent(), FILE_PREFIX, ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, key);
+
+			RelationType[] types = RelationType.values();
+			out.writeInt(types.length);
+			for (RelationType type : types)
+			{
+				writeString(out, type.name());
+			}
+
+			out.writeInt(strings.size());
+			for (String s : strings.keySet())
+			{
+				writeString(out, s);
+			}
+
+			out.writeInt(relations.size());
+			for (Relation rel : relations)
+			{
+				out.writeInt(strings.get(rel.source));
+				out.writeInt(strings.get(rel.target));
+				out.writeByte(rel.type.ordinal());
+				out.writeInt(rel.getMediators() == null ? -1 : strings.get(rel.getMediators()));
+				out.writeInt(rel.sites == null ? -1 : rel.sites.size());
+				if (rel.sites != null)
+				{
+					for (ProteinSite site : rel.sites)
+					{
+						out.writeInt(strings.get(site.toString()));
+					}
+				}
+			}
+		}
+
+		try
+		{
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void intern(Map<String, Integer> strings, String s)
+	{
+		if (s != null && !strings.containsKey(s)) strings.put(s, strings.size());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Reads the snapshot if its key matches.
+	 *
+	 * @return the network, or null if the snapshot is outdated
+	 */
+	static Set<Relation> read(Path file, String key) throws IOException
+	{
+		ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION || !readString(buf).equals(key)) return null;
+
+		// Types are matched by name, so that the snapshot does not depend on their order
+		RelationType[] types = new RelationType[buf.getInt()];
+		for (int i = 0; i < types.length; i++)
+		{
+			types[i] = RelationType.valueOf(readString(buf));
+		}
+
+		String[] strings = new String[buf.getInt()];
+		for (int i = 0; i < strings.length; i++)
+		{
+			strings[i] = readString(buf);
+		}
+
+		int size = buf.getInt();
+		Set<Relation> relations = new HashSet<>(size * 4 / 3 + 1);
+		for (int i = 0; i < size; i++)
+		{
+			String source = strings[buf.getInt()];
+			String target = strings[buf.getInt()];
+			RelationType type = types[buf.get()];
+			int med = buf.getInt();
+			Relation rel = new Relation(source, target, type, med < 0 ? null : strings[med]);
+
+			int siteCnt = buf.getInt();
+			if (siteCnt >= 0)
+			{
+				rel.sites = new HashSet<>();
+				for (int j = 0; j < siteCnt; j++)
+				{
+					String site = strings[buf.getInt()];
+					rel.sites.add(new ProteinSite(Integer.parseInt(site.substring(1)), site.substring(0, 1), 0));
+				}
+			}
+			relations.add(rel);
+		}
+
+		NetworkLoader.initMissingSourceTargetData(relations);
+		return relations;
+	}
+
+	private static String readString(ByteBuffer buf)
+	{
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,57 @@
+package org.panda.causalpath.resource;
+
+import org.panda.causalpath.network.Relation;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable prior network that can be shared by several analyses in the same JVM. The shared part is the
+ * topology of the relations with their symbols, mediators and sites. Each analysis gets its own lightweight relation
+ * objects over the shared parts, to bind its own data and change detectors, so the network is loaded only once, and
+ * the memory of an analysis grows with its data instead of with the network.
+ *
+ * @author Ozgun Babur
+ */
+public class PriorNetwork
+{
+	/**
+	 * Relations that are never bound to any data.
+	 */
+	private final Relation[] templates;
+
+	/**
+	 * Constructor with the relations to share. The given relations are not kept.
+	 */
+	public PriorNetwork(Set<Relation> relations)
+	{
+		this.templates = new Relation[relations.size()];
+		int i = 0;
+		for (Relation rel : relations)
+		{
+			Relation template = rel.copy();
+			if (template.sites != null) template.sites = Collections.unmodifiableSet(new HashSet<>(template.sites));
+			templates[i++] = template;
+		}
+	}
+
+	public int size()
+	{
+		return templates.length;
+	}
+
+	/**
+	 * Creates the relations of an analysis, without any data bound.
+	 */
+	public Set<Relation> instantiate()
+	{
+		Set<Relation> relations = new HashSet<>(templates.length * 4 / 3 + 1);
+		for (Relation template : templates)
+		{
+			relations.add(template.copy());
+		}
+		NetworkLoader.initMissingSourceTargetData(relations);
+		return relations;
+	}
+}
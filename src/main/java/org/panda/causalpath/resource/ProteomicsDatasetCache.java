@@ -0,0 +1,256 @@
+package org.panda.causalpath.resource;
+
+import org.panda.resource.siteeffect.Feature;
+import org.panda.resource.tcga.ProteomicsFileRow;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A binary cache of the parsed proteomics rows, to skip parsing the proteomics files and filling in the missing site
+ * effects when an analysis is run again on the same data. Rows are stored after the missing effects are filled in.
+ *
+ * The cache is kept next to the values file, and it is keyed by the contents of the input files, the site effect
+ * sources, and the parameters that affect parsing. When the files or these parameters change, the key does not match,
+ * and the cache is rebuilt.
+ *
+ * @author Ozgun Babur
+ */
+public class ProteomicsDatasetCache
+{
+	private static final int MAGIC = 0x43504453;
+	private static final int VERSION = 1;
+
+	private static final String FILE_SUFFIX = ".causalpath-cache";
+
+	/**
+	 * Gets the cache file of the given values file.
+	 */
+	public static Path getFile(String valuesFile)
+	{
+		Path path = Paths.get(valuesFile);
+		return path.resolveSibling(path.getFileName() + FILE_SUFFIX);
+	}
+
+	/**
+	 * Gets the key of a cache, from the parsing parameters and the contents of the input files.
+	 *
+	 * @param parameters the parameters that affect parsing, in a fixed order
+	 * @param files the input files
+	 */
+	public static String getKey(List<?> parameters, String... files) throws IOException
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		md.update(("v" + VERSION).getBytes(StandardCharsets.UTF_8));
+		for (Object param : parameters)
+		{
+			md.update(("\t" + param).getBytes(StandardCharsets.UTF_8));
+		}
+
+		byte[] buf = new byte[1 << 16];
+		for (String file : new LinkedHashSet<>(Arrays.asList(files)))
+		{
+			md.update(("\n" + Files.size(Paths.get(file)) + "\n").getBytes(StandardCharsets.UTF_8));
+			try (InputStream in = Files.newInputStream(Paths.get(file)))
+			{
+				for (int n = in.read(buf); n > 0; n = in.read(buf))
+				{
+					md.update(buf, 0, n);
+				}
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+		{
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Loads the rows from the cache if it is up to date.
+	 *
+	 * @return the rows, or null if there is no up to date cache
+	 */
+	public static List<ProteomicsFileRow> load(Path file, String key)
+	{
+		if (!Files.exists(file)) return null;
+
+		try
+		{
+			return read(file, key);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Cannot read the proteomics cache, parsing the data files: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the rows to the cache. Failures are reported but do not stop the analysis.
+	 */
+	public static void save(Path file, String key, List<ProteomicsFileRow> rows)
+	{
+		try
+		{
+			write(file, key, rows);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Cannot write the proteomics cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the cache. The file is replaced at once, so concurrent readers never see a partial cache.
+	 */
+	static void write(Path file, String key, List<ProteomicsFileRow> rows) throws IOException
+	{
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, key);
+
+			out.writeInt(rows.size());
+			for (ProteomicsFileRow row : rows)
+			{
+				writeString(out, row.id);
+
+				out.writeInt(row.genes.size());
+				for (String gene : row.genes)
+				{
+					writeString(out, gene);
+				}
+
+				out.writeInt(row.sites == null ? -1 : row.sites.size());
+				if (row.sites != null)
+				{
+					for (String gene : row.sites.keySet())
+					{
+						writeString(out, gene);
+						List<String> sites = row.sites.get(gene);
+						out.writeInt(sites.size());
+						for (String site : sites)
+						{
+							writeString(out, site);
+						}
+					}
+				}
+
+				// Enums are stored by name, so that the cache does not depend on their order
+				writeString(out, row.mod == null ? "" : row.mod.name());
+				writeString(out, row.effect == null ? "" : row.effect.name());
+
+				out.writeInt(row.vals == null ? -1 : row.vals.length);
+				if (row.vals != null)
+				{
+					for (double v : row.vals)
+					{
+						out.writeDouble(v);
+					}
+				}
+			}
+		}
+
+		try
+		{
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Reads the cache if its key matches.
+	 *
+	 * @return the rows, or null if the cache is outdated
+	 */
+	static List<ProteomicsFileRow> read(Path file, String key) throws IOException
+	{
+		ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION || !readString(buf).equals(key)) return null;
+
+		int size = buf.getInt();
+		List<ProteomicsFileRow> rows = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+		{
+			String id = readString(buf);
+
+			String[] genes = new String[buf.getInt()];
+			for (int j = 0; j < genes.length; j++)
+			{
+				genes[j] = readString(buf);
+			}
+
+			int geneCnt = buf.getInt();
+			Map<String, List<String>> sites = geneCnt < 0 ? null : new HashMap<>();
+			for (int j = 0; j < geneCnt; j++)
+			{
+				String gene = readString(buf);
+				String[] geneSites = new String[buf.getInt()];
+				for (int k = 0; k < geneSites.length; k++)
+				{
+					geneSites[k] = readString(buf);
+				}
+				sites.put(gene, Arrays.asList(geneSites));
+			}
+
+			String mod = readString(buf);
+			String effect = readString(buf);
+
+			int valCnt = buf.getInt();
+			double[] vals = valCnt < 0 ? null : new double[valCnt];
+			for (int j = 0; j < valCnt; j++)
+			{
+				vals[j] = buf.getDouble();
+			}
+
+			ProteomicsFileRow row = new ProteomicsFileRow(id, vals, Arrays.asList(genes), sites,
+				mod.isEmpty() ? null : Feature.valueOf(mod));
+			if (!effect.isEmpty()) row.effect = ProteomicsFileRow.SiteEffect.valueOf(effect);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static String readString(ByteBuffer buf)
+	{
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -6,9 +6,16 @@ import org.panda.resource.tcga.ProteomicsFileRow;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class reads a proteomics file that is specially formatted to use in this framework. This is a tab-delimited data
@@ -62,43 +69,53 @@ public class ProteomicsFileReader
 			String id = row[colInd];
 			String syms = row[symbolInd];
 			String sites = row.length > siteInd ? row[siteInd] : "";
-			Feature feature = modInd >= 0 && row.length > modInd ? Feature.getFeat(row[modInd]) : null;
+			String mod = modInd >= 0 && row.length > modInd ? row[modInd] : null;
 			String effect = effectInd >= 0 && row.length > effectInd ? row[effectInd] : null;
 
-			List<String> genes = Arrays.asList(syms.split("\\s+"));
-			Map<String, List<String>> siteMap = sites.isEmpty() ? null : new HashMap<>();
-			if (!sites.isEmpty())
+			datas.add(createRow(id, syms, sites, mod, effect));
+		}
+		return datas;
+	}
+
+	/**
+	 * Creates a row with the given annotation.
+	 */
+	private static ProteomicsFileRow createRow(String id, String syms, String sites, String mod, String effect)
+	{
+		Feature feature = mod != null ? Feature.getFeat(mod) : null;
+
+		List<String> genes = Arrays.asList(syms.split("\\s+"));
+		Map<String, List<String>> siteMap = sites.isEmpty() ? null : new HashMap<>();
+		if (!sites.isEmpty())
+		{
+			String[] perGene = sites.split("\\s+");
+			for (int i = 0; i < perGene.length; i++)
 			{
-				String[] perGene = sites.split("\\s+");
-				for (int i = 0; i < perGene.length; i++)
+				if (genes.size() <= i)
 				{
-					if (genes.size() <= i)
-					{
-						System.out.println("id: " + id + " genes: " + genes);
-					}
-					siteMap.put(genes.get(i), Arrays.asList(perGene[i].split("\\|")));
+					System.out.println("id: " + id + " genes: " + genes);
 				}
-				if (siteMap.size() < genes.size())
+				siteMap.put(genes.get(i), Arrays.asList(perGene[i].split("\\|")));
+			}
+			if (siteMap.size() < genes.size())
+			{
+				for (int i = siteMap.size(); i < genes.size(); i++)
 				{
-					for (int i = siteMap.size(); i < genes.size(); i++)
-					{
-						siteMap.put(genes.get(i), siteMap.get(genes.get(0)));
-					}
+					siteMap.put(genes.get(i), siteMap.get(genes.get(0)));
 				}
 			}
+		}
 
-			ProteomicsFileRow data = new ProteomicsFileRow(id, null, genes, siteMap, feature);
+		ProteomicsFileRow data = new ProteomicsFileRow(id, null, genes, siteMap, feature);
 
-			if (effect != null)
-			{
-				data.effect = effect.equals("c") ? ProteomicsFileRow.SiteEffect.COMPLEX :
-					effect.equals("a") ? ProteomicsFileRow.SiteEffect.ACTIVATING : effect.equals("i") ?
-						ProteomicsFileRow.SiteEffect.INHIBITING : null;
-			}
-
-			datas.add(data);
+		if (effect != null)
+		{
+			data.effect = effect.equals("c") ? ProteomicsFileRow.SiteEffect.COMPLEX :
+				effect.equals("a") ? ProteomicsFileRow.SiteEffect.ACTIVATING : effect.equals("i") ?
+					ProteomicsFileRow.SiteEffect.INHIBITING : null;
 		}
-		return datas;
+
+		return data;
 	}
 
 	/**
@@ -188,6 +205,298 @@ public class ProteomicsFileReader
 		}
 	}
 
+	/**
+	 * Reads a proteomics file that contains both the annotation and the values, in a single pass. This is the fused
+	 * version of using {@link #readAnnotation} and {@link #addValues} on the same file. The file is tokenized at the
+	 * byte level, only the needed columns are decoded, and values are parsed into the value arrays of the rows without
+	 * boxing. Large files are parsed in chunks of lines on parallel threads, and the order of rows is preserved.
+	 *
+	 * @param filename name of the file
+	 * @param idCol name of the ID column
+	 * @param symbolCol name of the symbols column
+	 * @param siteCol name of the sites column
+	 * @param modCol name of the feature column, or null
+	 * @param effectCol name of the effect column, or null
+	 * @param vals list of value columns
+	 * @param logTransform whether to take the log2 of the values
+	 * @param threads number of threads to use
+	 * @return the rows with annotation and values
+	 */
+	public static List<ProteomicsFileRow> readRows(String filename, String idCol, String symbolCol, String siteCol,
+		String modCol, String effectCol, List<String> vals, boolean logTransform, int threads) throws IOException
+	{
+		ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new RuntimeException("File is too large to read at once: " + filename);
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		int size = buf.limit();
+		int headerEnd = findLineEnd(buf, 0, size);
+		byte[] headerBytes = new byte[headerEnd];
+		buf.duplicate().get(headerBytes);
+		List<String> header = Arrays.asList(trimCR(new String(headerBytes, StandardCharsets.UTF_8)).split("\t"));
+
+		RowParser parser = new RowParser(header, idCol, symbolCol, siteCol, modCol, effectCol, vals, logTransform);
+
+		// Partition the rest of the file into chunks that end at line ends
+		List<int[]> chunks = new ArrayList<>();
+		int chunkSize = Math.max(PARSE_CHUNK_SIZE, (size / Math.max(threads, 1)) / 4 + 1);
+		for (int from = Math.min(headerEnd + 1, size); from < size; )
+		{
+			int to = Math.min(from + chunkSize, size);
+			if (to < size) to = Math.min(findLineEnd(buf, to, size) + 1, size);
+			chunks.add(new int[]{from, to});
+			from = to;
+		}
+
+		List<List<ProteomicsFileRow>> parsed = new ArrayList<>();
+		if (threads > 1 && chunks.size() > 1)
+		{
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			List<Future<List<ProteomicsFileRow>>> futures = new ArrayList<>();
+			for (int[] chunk : chunks)
+			{
+				futures.add(pool.submit(() -> parser.parse(buf, chunk[0], chunk[1])));
+			}
+
+			try
+			{
+				for (Future<List<ProteomicsFileRow>> future : futures)
+				{
+					parsed.add(future.get());
+				}
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		else
+		{
+			for (int[] chunk : chunks)
+			{
+				parsed.add(parser.parse(buf, chunk[0], chunk[1]));
+			}
+		}
+
+		List<ProteomicsFileRow> rows = new ArrayList<>();
+		parsed.forEach(rows::addAll);
+
+		// When an ID repeats, values are looked up by ID in the two-pass reading, so the last occurrence wins
+		Map<String, double[]> last = new HashMap<>();
+		rows.forEach(row -> last.put(row.id, row.vals));
+		if (last.size() < rows.size()) rows.forEach(row -> row.vals = last.get(row.id).clone());
+
+		return rows;
+	}
+
+	/**
+	 * Lines are partitioned into chunks of at least this many bytes for parallel parsing.
+	 */
+	private static final int PARSE_CHUNK_SIZE = 1 << 22;
+
+	/**
+	 * Finds the position of the next line feed, or the end.
+	 */
+	private static int findLineEnd(ByteBuffer buf, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (buf.get(i) == '\n') return i;
+		}
+		return to;
+	}
+
+	private static String trimCR(String s)
+	{
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+	}
+
+	/**
+	 * Parses the lines of a proteomics file into rows. Safe to use from multiple threads.
+	 */
+	private static class RowParser
+	{
+		final int idInd;
+		final int symbolInd;
+		final int siteInd;
+		final int modInd;
+		final int effectInd;
+
+		/**
+		 * Index of the value in a row for each column, or -1 if the column is not a value column.
+		 */
+		final int[] valSlot;
+
+		final int valCnt;
+		final boolean logTransform;
+
+		RowParser(List<String> header, String idCol, String symbolCol, String siteCol, String modCol,
+			String effectCol, List<String> vals, boolean logTransform)
+		{
+			this.idInd = header.indexOf(idCol);
+			this.symbolInd = header.indexOf(symbolCol);
+			this.siteInd = header.indexOf(siteCol);
+			this.modInd = modCol == null ? -1 : header.indexOf(modCol);
+			this.effectInd = effectCol == null ? -1 : header.indexOf(effectCol);
+			this.valCnt = vals.size();
+			this.logTransform = logTransform;
+
+			if (idInd < 0) throw new RuntimeException("Cannot find \"" + idCol + "\" column in values file.");
+			if (symbolInd < 0) throw new RuntimeException("Cannot find the column \"" + symbolCol + "\"");
+
+			this.valSlot = new int[header.size()];
+			Arrays.fill(valSlot, -1);
+			for (int i = 0; i < vals.size(); i++)
+			{
+				int ind = header.indexOf(vals.get(i));
+				if (ind == -1) throw new RuntimeException("Cannot find the column \"" + vals.get(i) + "\"");
+				valSlot[ind] = i;
+			}
+		}
+
+		List<ProteomicsFileRow> parse(ByteBuffer buf, int from, int to)
+		{
+			byte[] b = new byte[to - from];
+			ByteBuffer dup = buf.duplicate();
+			dup.position(from);
+			dup.get(b);
+
+			List<ProteomicsFileRow> rows = new ArrayList<>();
+			String[] annot = new String[5];
+
+			for (int start = 0; start < b.length; )
+			{
+				int end = start;
+				while (end < b.length && b[end] != '\n') end++;
+				int next = end + 1;
+				if (end > start && b[end - 1] == '\r') end--;
+
+				if (end > start)
+				{
+					double[] v = new double[valCnt];
+					Arrays.fill(v, Double.NaN);
+					Arrays.fill(annot, null);
+
+					for (int col = 0, fs = start; fs <= end; col++)
+					{
+						int fe = fs;
+						while (fe < end && b[fe] != '\t') fe++;
+
+						if (col < valSlot.length && valSlot[col] >= 0)
+						{
+							double d = parseDouble(b, fs, fe);
+							v[valSlot[col]] = logTransform ? Math.log(d) / LOG2 : d;
+						}
+
+						int a = col == idInd ? 0 : col == symbolInd ? 1 : col == siteInd ? 2 : col == modInd ? 3 :
+							col == effectInd ? 4 : -1;
+						if (a >= 0 && fe > fs) annot[a] = new String(b, fs, fe - fs, StandardCharsets.UTF_8);
+
+						fs = fe + 1;
+					}
+
+					ProteomicsFileRow row = createRow(annot[0] == null ? "" : annot[0],
+						annot[1] == null ? "" : annot[1], annot[2] == null ? "" : annot[2], annot[3], annot[4]);
+					row.vals = v;
+					rows.add(row);
+				}
+				start = next;
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Parses a double from the given bytes without creating a string for plain decimal numbers. The result is exact,
+	 * since the fast path is used only when the digits and the power of ten are exactly representable. Other inputs
+	 * fall back to {@link Double#parseDouble}, and unparseable values are NaN.
+	 */
+	static double parseDouble(byte[] b, int from, int to)
+	{
+		int i = from;
+		boolean neg = false;
+		if (i < to && (b[i] == '-' || b[i] == '+')) neg = b[i++] == '-';
+
+		long mant = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean dot = false;
+		boolean any = false;
+
+		for (; i < to; i++)
+		{
+			byte c = b[i];
+			if (c >= '0' && c <= '9')
+			{
+				any = true;
+				if (mant != 0 || c != '0') digits++;
+				mant = mant * 10 + (c - '0');
+				if (dot) scale--;
+			}
+			else if (c == '.' && !dot) dot = true;
+			else break;
+		}
+
+		if (any && digits <= 15)
+		{
+			int exp = 0;
+			boolean plain = i == to;
+
+			if (!plain && (b[i] == 'e' || b[i] == 'E') && i + 1 < to)
+			{
+				int j = i + 1;
+				boolean expNeg = false;
+				if (b[j] == '-' || b[j] == '+') expNeg = b[j++] == '-';
+				int expStart = j;
+				while (j < to && b[j] >= '0' && b[j] <= '9' && j - expStart < 4) exp = exp * 10 + (b[j++] - '0');
+				if (j == to && j > expStart)
+				{
+					plain = true;
+					if (expNeg) exp = -exp;
+				}
+			}
+
+			int pow = scale + exp;
+			if (plain && pow >= -22 && pow <= 22)
+			{
+				double d = pow < 0 ? mant / POW10[-pow] : mant * POW10[pow];
+				return neg ? -d : d;
+			}
+		}
+
+		try
+		{
+			return Double.parseDouble(new String(b, from, to - from, StandardCharsets.UTF_8));
+		}
+		catch (NumberFormatException e)
+		{
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Powers of ten that are exactly representable as doubles.
+	 */
+	private static final double[] POW10 = new double[23];
+	static
+	{
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+		{
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
 	public static int getPotentialIDColIndex(String[] header)
 	{
 		return getPotentialColIndex(header, "id");
@@ -2,6 +2,7 @@ package org.panda.causalpath.resource;
 
 import org.panda.causalpath.analyzer.CausalityHelper;
 import org.panda.causalpath.analyzer.OneDataChangeDetector;
+import org.panda.causalpath.analyzer.SignificanceDetector;
 import org.panda.causalpath.data.*;
 import org.panda.causalpath.network.Relation;
 import org.panda.resource.UniProtSequence;
@@ -10,6 +11,8 @@ import org.panda.resource.tcga.ProteomicsFileRow;
 import org.panda.utility.statistics.Histogram;
 import org.panda.utility.statistics.Summary;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -32,6 +35,11 @@ public class ProteomicsLoader {
      */
     public static final String humanID = "9606";
 
+    /**
+     * Reference resources of the analysis.
+     */
+    ResourceContext context = ResourceContext.getDefault();
+
     public ProteomicsLoader(Collection<ProteomicsFileRow> rows, Map<DataType, Double> stdevThresholds) {
 
         dataMap = new HashMap<>();
@@ -48,7 +56,7 @@ public class ProteomicsLoader {
                 DataType type = ed.getType();
                 Double thr = stdevThresholds.get(type);
                 if (thr != null) {
-                    double sd = Summary.stdev(((NumericData) ed).vals);
+                    double sd = Summary.stdev(((NumericData) ed).getVals());
                     if (Double.isNaN(sd) || sd < thr) return;
                 }
             }
@@ -69,6 +77,10 @@ public class ProteomicsLoader {
         });
     }
 
+    public void setResourceContext(ResourceContext context) {
+        this.context = context;
+    }
+
     /**
      * Constructor to be used for testing purposes only.
      *
@@ -93,6 +105,9 @@ public class ProteomicsLoader {
         // Set to store all obtained sequences
         HashMap<String, Double> seqChangeVal = new HashMap<>();
 
+        // UniProtSequence object to obtain sequences
+        UniProtSequence uniProt = context.getUniProtSequence();
+
         for (String gene : dataMap.keySet()) {
             // Get the corresponding value in the map for this gene
             Set<ExperimentData> geneData = dataMap.get(gene);
@@ -138,8 +153,8 @@ public class ProteomicsLoader {
                                     // Identify the location
                                     int location = pS.getSite();
                                     // Get the uniprot name of the protein
-                                    String uniprotName = UniProtSequence.get().getNameOfSymbol(protein, humanID);
-                                    String seqAroundSite = UniProtSequence.get().getSeqAround(uniprotName, 5, 4, location);
+                                    String uniprotName = uniProt.getNameOfSymbol(protein, humanID);
+                                    String seqAroundSite = uniProt.getSeqAround(uniprotName, 5, 4, location);
                                     if (seqAroundSite != null) {
                                         seqChangeVal.put(seqAroundSite, siteModData.getChangeValue());
                                     }
@@ -188,6 +203,7 @@ public class ProteomicsLoader {
         String sequence = null;
 
         // UniProtSequence object to obtain sequences
+        UniProtSequence uniProt = context.getUniProtSequence();
 
         for (String protein : siteMap.keySet()) {
             Set<ProteinSite> phosphorylatedSites = siteMap.get(protein);
@@ -195,12 +211,12 @@ public class ProteomicsLoader {
 
                 int location = proteinSite.getSite();
                 // Obtain the UNIPROT name for this protein
-                String nameOrID = UniProtSequence.get().getNameOfSymbol(protein, humanID);
+                String nameOrID = uniProt.getNameOfSymbol(protein, humanID);
 
                 // If statement runs prior to initial assignment to sequence variable
                 // I.e. First iteration of the for loop
                 if (sequence == null) {
-                    sequence = UniProtSequence.get().getSeqAround(nameOrID, 5, 4, location);
+                    sequence = uniProt.getSeqAround(nameOrID, 5, 4, location);
 					/* Method call may return null if there is it is not possible to recover
 					 sequence of such length. If the if statement runs,
 					 it cannot be true that every protein shares the same sequence surrounding location
@@ -213,7 +229,7 @@ public class ProteomicsLoader {
                     // Else runs for all iterations after first iteration
 
                     // currSeq refers to the sequence surrounding the location for the current protein
-                    String currSeq = UniProtSequence.get().getSeqAround(nameOrID, 5, 4, location);
+                    String currSeq = uniProt.getSeqAround(nameOrID, 5, 4, location);
 
                     // currSeq may be null in case where it is not possible to recover sequence of desired length
                     // In this case, it is not true that all the proteins share the same sequence, thus ret null
@@ -280,7 +296,7 @@ public class ProteomicsLoader {
                 DataType type = ed.getType();
                 Double thr = stdevThresholds.get(type);
                 if (thr != null) {
-                    double sd = Summary.stdev(((NumericData) ed).vals);
+                    double sd = Summary.stdev(((NumericData) ed).getVals());
                     if (Double.isNaN(sd) || sd < thr) return;
                 }
             }
@@ -321,7 +337,7 @@ public class ProteomicsLoader {
                 h.setBorderAtZero(true);
                 hMap.put(type, h);
             }
-            hMap.get(type).count(Summary.stdev(d.vals));
+            hMap.get(type).count(Summary.stdev(d.getVals()));
         });
         hMap.keySet().forEach(k ->
         {
@@ -376,7 +392,20 @@ public class ProteomicsLoader {
      * Puts the given change detector to the data that is filtered by the given selector.
      */
     public void associateChangeDetector(OneDataChangeDetector chDet, DataSelector selector) {
-        datas.stream().filter(selector::select).forEach(d -> d.setChDet(chDet));
+        List<ExperimentData> selected = datas.stream().filter(selector::select).collect(Collectors.toList());
+        selected.forEach(d -> d.setChDet(chDet));
+
+        if (chDet instanceof SignificanceDetector) ((SignificanceDetector) chDet).testInBatch(selected);
+    }
+
+    /**
+     * Moves the values of the numeric data to an off-heap store that is backed by the given file.
+     */
+    public void mapValues(String file) throws IOException {
+        List<NumericData> list = datas.stream().filter(d -> d instanceof NumericData).map(d -> (NumericData) d)
+                .sorted(Comparator.comparing(ExperimentData::getId)).collect(Collectors.toList());
+
+        MappedValueStore.spill(Paths.get(file), list);
     }
 
     public void initMissingDataForProteins() {
@@ -385,7 +414,7 @@ public class ProteomicsLoader {
 
         if (!opt.isPresent()) return;
 
-        int size = opt.get().vals.length;
+        int size = opt.get().getVals().length;
 
 //		int[] totalProtCnt = new int[size];
 //		int[] phospProtCnt = new int[size];
@@ -398,16 +427,17 @@ public class ProteomicsLoader {
 
         datas.stream().filter(d -> d instanceof ProteinData).map(d -> (ProteinData) d).forEach(d ->
         {
+            double[] vals = d.getVals();
             if (d.getType() == DataType.PROTEIN) {
                 for (int i = 0; i < size; i++) {
-                    if (!Double.isNaN(d.vals[i])) {
+                    if (!Double.isNaN(vals[i])) {
                         hasTotalProt[i] = true;
 //						totalProtCnt[i]++;
                     }
                 }
             } else if (d.getType() == DataType.PHOSPHOPROTEIN) {
                 for (int i = 0; i < size; i++) {
-                    if (!Double.isNaN(d.vals[i])) {
+                    if (!Double.isNaN(vals[i])) {
                         hasPhospProt[i] = true;
 //						phospProtCnt[i]++;
                     }
@@ -1,6 +1,7 @@
 package org.panda.causalpath.resource;
 
 import org.panda.causalpath.analyzer.OneDataChangeDetector;
+import org.panda.causalpath.analyzer.SignificanceDetector;
 import org.panda.causalpath.data.*;
 import org.panda.causalpath.network.Relation;
 import org.panda.resource.MatrixOfValuesDatasetReader;
@@ -79,12 +80,28 @@ public class RNALoader
 			.forEach(d -> d.addAll(getData(d.getId())));
 	}
 
+	/**
+	 * Moves the values of the loaded numeric data to an off-heap store that is backed by the given file.
+	 */
+	public void mapValues(String file) throws IOException
+	{
+		List<NumericData> list = dataCache.values().stream().flatMap(Collection::stream)
+			.filter(d -> d instanceof NumericData).map(d -> (NumericData) d).distinct()
+			.sorted(Comparator.comparing(ExperimentData::getId)).collect(Collectors.toList());
+
+		MappedValueStore.spill(Paths.get(file), list);
+	}
+
 	/**
 	 * Puts the given change detector to the data that is filtered by the given selector.
 	 */
 	public void associateChangeDetector(OneDataChangeDetector chDet, DataSelector selector)
 	{
-		dataCache.values().stream().flatMap(Collection::stream).filter(selector::select).forEach(d -> d.setChDet(chDet));
+		List<ExperimentData> selected = dataCache.values().stream().flatMap(Collection::stream)
+			.filter(selector::select).collect(Collectors.toList());
+		selected.forEach(d -> d.setChDet(chDet));
+
+		if (chDet instanceof SignificanceDetector) ((SignificanceDetector) chDet).testInBatch(selected);
 	}
 
 	/**
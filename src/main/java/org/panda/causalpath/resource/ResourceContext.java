@@ -0,0 +1,306 @@
+package org.panda.causalpath.resource;
+
+import org.panda.resource.FileServer;
+import org.panda.resource.HGNC;
+import org.panda.resource.ResourceDirectory;
+import org.panda.resource.UniProtSequence;
+import org.panda.resource.siteeffect.PhosphoSitePlus;
+import org.panda.resource.siteeffect.Signor;
+import org.panda.resource.siteeffect.SiteEffectCollective;
+import org.panda.resource.tcga.ProteomicsFileRow;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The reference resources of an analysis: the resource directory, and optionally pinned HGNC and site effect files.
+ * Analyses with different contexts can run concurrently in the same JVM.
+ *
+ * The resources are served by process-wide singletons, hence a context installs its settings on them only inside
+ * {@link #call}, which is exclusive between contexts. HGNC objects are captured per context, so that symbol lookups do
+ * not need the lock, and the one of the context is put back on the HGNC singleton at each install, since the resource
+ * readers use the singleton directly. Once a custom site effects file is installed, the default site effects cannot be installed back
+ * in the same JVM, and such a request fails instead of silently using the wrong effects. Similarly, the default HGNC
+ * can be used only with the resource directory it is first loaded from.
+ *
+ * @author Ozgun Babur
+ */
+public class ResourceContext
+{
+	/**
+	 * Guards the resource singletons.
+	 */
+	private static final Object LOCK = new Object();
+
+	private static final ResourceContext DEFAULT = new ResourceContext(null, null, null);
+
+	/**
+	 * Resource directory before any context is installed.
+	 */
+	private static String defaultDirectory;
+	private static boolean defaultDirectoryCaptured;
+
+	/**
+	 * The default HGNC, captured before any custom HGNC is installed, and the resource directory it is loaded from.
+	 */
+	private static HGNC defaultHGNC;
+	private static String defaultHGNCDirectory;
+
+	/**
+	 * The site effects file that is installed. Null for the defaults.
+	 */
+	private static String installedSiteEffectFile;
+
+	/**
+	 * The resource directory, or null for the default.
+	 */
+	private final String resourceDirectory;
+
+	/**
+	 * A custom HGNC file, or null for the default.
+	 */
+	private final String hgncFile;
+
+	/**
+	 * A custom site effects file, or null for the default.
+	 */
+	private final String siteEffectFile;
+
+	/**
+	 * HGNC of this context, captured on first use.
+	 */
+	private volatile HGNC hgnc;
+
+	public ResourceContext(String resourceDirectory, String hgncFile, String siteEffectFile)
+	{
+		this.resourceDirectory = resourceDirectory;
+		this.hgncFile = hgncFile;
+		this.siteEffectFile = siteEffectFile;
+	}
+
+	/**
+	 * Gets the context with the default resources.
+	 */
+	public static ResourceContext getDefault()
+	{
+		return DEFAULT;
+	}
+
+	public ResourceContext withResourceDirectory(String resourceDirectory)
+	{
+		return new ResourceContext(resourceDirectory, hgncFile, siteEffectFile);
+	}
+
+	public ResourceContext withHGNCFile(String hgncFile)
+	{
+		return new ResourceContext(resourceDirectory, hgncFile, siteEffectFile);
+	}
+
+	public ResourceContext withSiteEffectFile(String siteEffectFile)
+	{
+		return new ResourceContext(resourceDirectory, hgncFile, siteEffectFile);
+	}
+
+	/**
+	 * Checks if the relations built from the resource networks depend only on the files in the resource directory.
+	 * Only then the networks can be shared or saved as snapshots.
+	 */
+	public boolean hasDefaultHGNC()
+	{
+		return hgncFile == null;
+	}
+
+	/**
+	 * Runs the given code with the resources of this context installed. Calls from different contexts are run one at a
+	 * time, so the code should be limited to the use of the resources.
+	 */
+	public <T> T call(Supplier<T> section)
+	{
+		synchronized (LOCK)
+		{
+			install();
+			return section.get();
+		}
+	}
+
+	/**
+	 * Runs the given code with the resources of this context installed.
+	 */
+	public void run(Runnable section)
+	{
+		call(() ->
+		{
+			section.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Installs the settings of this context on the resource singletons. Should be called with the lock.
+	 */
+	private void install()
+	{
+		if (!defaultDirectoryCaptured)
+		{
+			defaultDirectory = ResourceDirectory.get();
+			defaultDirectoryCaptured = true;
+		}
+
+		String dir = resourceDirectory != null ? resourceDirectory : defaultDirectory;
+		if (dir != null && !dir.equals(ResourceDirectory.get())) ResourceDirectory.set(dir);
+
+		if (hgnc == null)
+		{
+			if (defaultHGNC == null)
+			{
+				defaultHGNC = HGNC.get();
+				defaultHGNCDirectory = dir;
+			}
+
+			if (hgncFile == null)
+			{
+				// The HGNC singleton is loaded only once, hence it cannot serve another directory
+				if (!Objects.equals(dir, defaultHGNCDirectory))
+				{
+					throw new RuntimeException("Default HGNC of the resource directory " + dir + " cannot be used " +
+						"after the one of " + defaultHGNCDirectory + " is loaded in the same process. Use a custom " +
+						"HGNC file instead.");
+				}
+				hgnc = defaultHGNC;
+			}
+			else
+			{
+				HGNC.initSingletonWith(lines(hgncFile));
+				hgnc = HGNC.get();
+			}
+		}
+		if (HGNC.get() != hgnc) setHGNCSingleton(hgnc);
+
+		if (!Objects.equals(siteEffectFile, installedSiteEffectFile))
+		{
+			if (siteEffectFile == null)
+			{
+				throw new RuntimeException("Default site effects cannot be used after a custom site effects file (" +
+					installedSiteEffectFile + ") is loaded in the same process.");
+			}
+			PhosphoSitePlus.initSingletonWith(lines(siteEffectFile));
+			Signor.initSingletonEmpty();
+			installedSiteEffectFile = siteEffectFile;
+		}
+	}
+
+	/**
+	 * Puts the given HGNC on the singleton. The library can only load a new singleton, hence its static field is set.
+	 */
+	private static void setHGNCSingleton(HGNC h)
+	{
+		for (Field field : HGNC.class.getDeclaredFields())
+		{
+			if (Modifier.isStatic(field.getModifiers()) && field.getType() == HGNC.class)
+			{
+				try
+				{
+					field.setAccessible(true);
+					field.set(null, h);
+					return;
+				}
+				catch (IllegalAccessException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		throw new RuntimeException("Cannot find the HGNC singleton to install.");
+	}
+
+	private static Stream<String> lines(String file)
+	{
+		try
+		{
+			return Files.lines(Paths.get(file));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the resource directory of this context.
+	 */
+	public String getResourceDirectory()
+	{
+		return call(ResourceDirectory::get);
+	}
+
+	/**
+	 * Gets the official symbol of the given gene symbol, or null if it is not recognized.
+	 */
+	public String getSymbol(String symbol)
+	{
+		HGNC h = hgnc;
+		if (h == null) h = call(() -> hgnc);
+		return h.getSymbol(symbol);
+	}
+
+	/**
+	 * Gets the UniProt sequences, loaded with the resource directory of this context.
+	 */
+	public UniProtSequence getUniProtSequence()
+	{
+		return call(UniProtSequence::get);
+	}
+
+	/**
+	 * Fills in the missing site effects of the given rows, using the site effects of this context.
+	 *
+	 * @param rows rows of a proteomics file
+	 * @param proximityThreshold sites that are closer than this distance are assumed to have the same effect
+	 */
+	public void fillInMissingEffect(Collection<ProteomicsFileRow> rows, int proximityThreshold)
+	{
+		run(() -> new SiteEffectCollective().fillInMissingEffect(rows, proximityThreshold));
+	}
+
+	/**
+	 * Gets the files that the site effects of this context are read from, so that the data that depend on the site
+	 * effects can be keyed by their contents.
+	 */
+	public List<Path> getSiteEffectFiles()
+	{
+		if (siteEffectFile != null) return Collections.singletonList(Paths.get(siteEffectFile));
+
+		return call(() ->
+		{
+			List<Path> files = new ArrayList<>();
+			for (FileServer server : new FileServer[]{PhosphoSitePlus.get(), Signor.get()})
+			{
+				for (String name : server.getLocalFilenames())
+				{
+					Path file = Paths.get(ResourceDirectory.get(), name);
+					if (Files.exists(file)) files.add(file);
+				}
+			}
+			return files;
+		});
+	}
+
+	/**
+	 * A key that is equal for contexts with the same settings. It does not cover the contents of the resource files.
+	 */
+	public String getKey()
+	{
+		return resourceDirectory + "\t" + hgncFile + "\t" + siteEffectFile;
+	}
+}
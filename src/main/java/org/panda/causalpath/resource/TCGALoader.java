@@ -1,9 +1,11 @@
 package org.panda.causalpath.resource;
 
 import org.panda.causalpath.analyzer.OneDataChangeDetector;
+import org.panda.causalpath.analyzer.SignificanceDetector;
 import org.panda.causalpath.data.*;
 import org.panda.causalpath.network.Relation;
 import org.panda.resource.tcga.*;
+import org.panda.utility.ArrayUtil;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -134,11 +136,7 @@ public class TCGALoader
 			if (val != null)
 			{
 				CNAData d = new CNAData(symbol + "-cna", symbol);
-				d.data = new SingleCategoricalData[val.length];
-				for (int i = 0; i < val.length; i++)
-				{
-					d.data[i] = new CNA(val[i]);
-				}
+				d.categories = CategoricalData.toBytes(val);
 				set.add(d);
 			}
 		}
@@ -184,20 +182,21 @@ public class TCGALoader
 		if (mutsList == null) return null;
 
 		MutationData mutData = new MutationData(gene + "-mut", gene, mutEffectSign);
-		mutData.data = new SingleCategoricalData[samples.length];
+		mutData.categories = new byte[samples.length];
+		mutData.details = mutsList;
 
 		for (int i = 0; i < mutsList.length; i++)
 		{
 			int categ = 0;
 			if (mutsList[i] == null)
 			{
-				categ = SingleCategoricalData.ABSENT;
+				categ = ArrayUtil.ABSENT_INT;
 			}
 			else if (!mutsList[i].isEmpty())
 			{
 				categ = 1;
 			}
-			mutData.data[i] = new Mutation(categ, mutsList[i]);
+			mutData.categories[i] = CategoricalData.toByte(categ);
 		}
 		return mutData;
 	}
@@ -241,12 +240,28 @@ public class TCGALoader
 		return genes;
 	}
 
+	/**
+	 * Moves the values of the loaded numeric data to an off-heap store that is backed by the given file.
+	 */
+	public void mapValues(String file) throws IOException
+	{
+		List<NumericData> list = dataCache.values().stream().flatMap(Collection::stream)
+			.filter(d -> d instanceof NumericData).map(d -> (NumericData) d).distinct()
+			.sorted(Comparator.comparing(ExperimentData::getId)).collect(Collectors.toList());
+
+		MappedValueStore.spill(Paths.get(file), list);
+	}
+
 	/**
 	 * Puts the given change detector to the data that is filtered by the given selector.
 	 */
 	public void associateChangeDetector(OneDataChangeDetector chDet, DataSelector selector)
 	{
-		dataCache.values().stream().flatMap(Collection::stream).filter(selector::select).forEach(d -> d.setChDet(chDet));
+		List<ExperimentData> selected = dataCache.values().stream().flatMap(Collection::stream)
+			.filter(selector::select).collect(Collectors.toList());
+		selected.forEach(d -> d.setChDet(chDet));
+
+		if (chDet instanceof SignificanceDetector) ((SignificanceDetector) chDet).testInBatch(selected);
 	}
 
 	/**
@@ -0,0 +1,518 @@
+package org.panda.causalpath.run;
+
+import com.github.jsonldjava.utils.JsonUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.panda.causalpath.resource.NetworkLoader;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Runs CausalPath as a long-lived process that accepts analysis jobs over a local HTTP endpoint. Loaded resources and
+ * prior networks stay in memory between the jobs, so that only the first job pays for loading them.
+ *
+ * Jobs are submitted with "POST /jobs?dir=[analysis directory]". If the request has a body, it is used in place of the
+ * parameters file of the directory, in the same format. Adding "&wait=true" keeps the request open until the job ends.
+ * Job status is queried with "GET /jobs/[job id]".
+ *
+ * Each start of the daemon writes a random token to a file that only the user can read, and requests should carry it in
+ * the header "Authorization: Bearer [token]". Requests with an Origin header, or with a Host that is not a loopback
+ * address, are rejected, so that web pages cannot use the daemon through the browser of the user.
+ *
+ * Jobs run on a fixed number of workers, and wait in a bounded queue. When the queue is full, the job is rejected.
+ * A job that exceeds the timeout is interrupted, and it stops at the next phase of the analysis.
+ *
+ * Finished jobs are forgotten after a retention period, and the oldest ones are forgotten when there are too many of
+ * them. These are checked when a job is submitted.
+ *
+ * @author Ozgun Babur
+ */
+public class AnalysisDaemon
+{
+	public enum Status
+	{
+		QUEUED,
+		RUNNING,
+		DONE,
+		FAILED,
+		TIMED_OUT
+	}
+
+	/**
+	 * An analysis submitted to the daemon.
+	 */
+	static class Job
+	{
+		final String id;
+		final String directory;
+
+		/**
+		 * Parameters given in the request, or null to use the parameters file.
+		 */
+		final List<String> parameterLines;
+
+		volatile Status status = Status.QUEUED;
+		volatile String error;
+		volatile boolean timedOut;
+		final long submitted = System.currentTimeMillis();
+		volatile long started;
+		volatile long finished;
+
+		Future<?> future;
+		final CountDownLatch end = new CountDownLatch(1);
+
+		Job(String id, String directory, List<String> parameterLines)
+		{
+			this.id = id;
+			this.directory = directory;
+			this.parameterLines = parameterLines;
+		}
+
+		Map<String, Object> toMap()
+		{
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("id", id);
+			map.put("directory", directory);
+			map.put("status", status.name());
+			if (error != null) map.put("error", error);
+			map.put("submitted", submitted);
+			if (started > 0) map.put("started", started);
+			if (finished > 0) map.put("finished", finished);
+			return map;
+		}
+	}
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService timer;
+	private final long timeoutSeconds;
+
+	/**
+	 * How long a finished job is kept, zero or negative for no limit.
+	 */
+	private long retentionMillis = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Maximum number of finished jobs to keep.
+	 */
+	private int maxFinishedJobs = 1000;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+	private final AtomicLong jobCounter = new AtomicLong();
+
+	private HttpServer server;
+
+	/**
+	 * The file to write the access token, or null for the default in the user home.
+	 */
+	private Path tokenFile;
+
+	/**
+	 * The token that requests should carry, in UTF-8 bytes.
+	 */
+	private byte[] token;
+
+	/**
+	 * @param workerCount number of jobs that can run at the same time
+	 * @param queueCapacity number of jobs that can wait for a worker
+	 * @param timeoutSeconds maximum run time of a job, zero or negative for no limit
+	 */
+	public AnalysisDaemon(int workerCount, int queueCapacity, long timeoutSeconds)
+	{
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(queueCapacity));
+		this.timer = Executors.newSingleThreadScheduledExecutor();
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	/**
+	 * @param retentionSeconds how long a finished job is kept, zero or negative for no limit
+	 * @param maxFinishedJobs maximum number of finished jobs to keep
+	 */
+	public void setJobRetention(long retentionSeconds, int maxFinishedJobs)
+	{
+		this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+		this.maxFinishedJobs = maxFinishedJobs;
+	}
+
+	/**
+	 * @param tokenFile the file to write the access token at start
+	 */
+	public void setTokenFile(Path tokenFile)
+	{
+		this.tokenFile = tokenFile;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Parameters: port [number of workers] [queue capacity] [job timeout in seconds] " +
+				"[finished job retention in seconds] [maximum number of finished jobs]");
+			return;
+		}
+
+		int port = Integer.parseInt(args[0]);
+		int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		AnalysisDaemon daemon = new AnalysisDaemon(workerCount, queueCapacity, timeout);
+		if (args.length > 4)
+		{
+			daemon.setJobRetention(Long.parseLong(args[4]), args.length > 5 ? Integer.parseInt(args[5]) :
+				daemon.maxFinishedJobs);
+		}
+		daemon.start(port);
+	}
+
+	/**
+	 * Starts listening to the given port on the loopback interface, and writes a new access token to the token file.
+	 */
+	public void start(int port) throws IOException
+	{
+		// Jobs load the same prior networks only once
+		NetworkLoader.setSharePriors(true);
+
+		if (tokenFile == null)
+		{
+			tokenFile = Paths.get(System.getProperty("user.home"), ".causalpath", "daemon-" + port + ".token");
+		}
+		byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+		String tkn = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		writeUserOnly(tokenFile, tkn);
+		token = tkn.getBytes(StandardCharsets.UTF_8);
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/jobs", this::handle);
+
+		// Requests that wait for their jobs should not block the others
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		System.out.println("CausalPath daemon is listening on port " + port + ", access token is in " + tokenFile);
+	}
+
+	/**
+	 * Writes the text to a new file that only the user can read and write.
+	 */
+	private static void writeUserOnly(Path file, String text) throws IOException
+	{
+		Path dir = file.toAbsolutePath().getParent();
+		if (dir != null && !Files.exists(dir)) Files.createDirectories(dir);
+
+		// A new file is created, so that the permissions of an old one are not kept
+		Files.deleteIfExists(file);
+		if (file.getFileSystem().supportedFileAttributeViews().contains("posix"))
+		{
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		else
+		{
+			Files.createFile(file);
+			File f = file.toFile();
+			if (!(f.setReadable(false, false) && f.setReadable(true, true) && f.setWritable(false, false) &&
+				f.setWritable(true, true)))
+			{
+				throw new IOException("Cannot restrict the permissions of the token file " + file);
+			}
+		}
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Stops accepting requests, and interrupts the running jobs.
+	 */
+	public void stop()
+	{
+		if (server != null) server.stop(0);
+		workers.shutdownNow();
+		timer.shutdownNow();
+
+		if (token != null)
+		{
+			try
+			{
+				Files.deleteIfExists(tokenFile);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Checks that the request is from a local client that can read the token, and not from a web page.
+	 *
+	 * @return the reason to reject the request, or null if it is accepted
+	 */
+	private String getRejectionReason(HttpExchange exchange)
+	{
+		if (exchange.getRequestHeaders().containsKey("Origin")) return "Requests from web pages are not accepted.";
+
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if (host != null && !isLoopback(host)) return "Host should be a loopback address.";
+
+		String auth = exchange.getRequestHeaders().getFirst("Authorization");
+		String prefix = "Bearer ";
+		if (auth == null || !auth.startsWith(prefix) ||
+			!MessageDigest.isEqual(token, auth.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8)))
+		{
+			return "The access token in " + tokenFile + " is required.";
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the value of a Host header, with or without a port, is a loopback address.
+	 */
+	private static boolean isLoopback(String host)
+	{
+		host = host.trim().toLowerCase();
+		if (host.startsWith("["))
+		{
+			int end = host.indexOf(']');
+			if (end < 0) return false;
+			host = host.substring(1, end);
+		}
+		else if (host.indexOf(':') == host.lastIndexOf(':'))
+		{
+			int i = host.indexOf(':');
+			if (i >= 0) host = host.substring(0, i);
+		}
+
+		if (host.equals("localhost") || host.equals("::1") || host.equals("0:0:0:0:0:0:0:1")) return true;
+
+		String[] parts = host.split("\\.");
+		if (parts.length != 4 || !parts[0].equals("127")) return false;
+		for (String part : parts)
+		{
+			if (!part.matches("\\d{1,3}") || Integer.parseInt(part) > 255) return false;
+		}
+		return true;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+
+			String rejection = getRejectionReason(exchange);
+			if (rejection != null)
+			{
+				respond(exchange, 403, error(rejection));
+			}
+			else if (method.equals("POST") && (path.equals("/jobs") || path.equals("/jobs/")))
+			{
+				handleSubmit(exchange);
+			}
+			else if (method.equals("GET") && path.startsWith("/jobs/"))
+			{
+				Job job = jobs.get(path.substring("/jobs/".length()));
+				if (job == null) respond(exchange, 404, error("No such job."));
+				else respond(exchange, 200, job.toMap());
+			}
+			else
+			{
+				respond(exchange, 404, error("Unknown request."));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			respond(exchange, 500, error(String.valueOf(e.getMessage())));
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private void handleSubmit(HttpExchange exchange) throws IOException
+	{
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		String dir = query.get("dir");
+		if (dir == null || !Files.isDirectory(Paths.get(dir)))
+		{
+			respond(exchange, 400, error("Parameter dir should be an existing directory."));
+			return;
+		}
+
+		List<String> lines;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(),
+			StandardCharsets.UTF_8)))
+		{
+			lines = reader.lines().collect(Collectors.toList());
+		}
+		if (lines.stream().allMatch(l -> l.trim().isEmpty()))
+		{
+			if (!Files.exists(Paths.get(dir, CausalPath.PARAMETER_FILENAME)))
+			{
+				respond(exchange, 400, error("No parameters are given, and the directory has no " +
+					CausalPath.PARAMETER_FILENAME + "."));
+				return;
+			}
+			lines = null;
+		}
+
+		Job job = submit(dir, lines);
+		if (job == null)
+		{
+			respond(exchange, 503, error("The job queue is full."));
+			return;
+		}
+
+		if (Boolean.parseBoolean(query.get("wait")))
+		{
+			try
+			{
+				job.end.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		respond(exchange, 200, job.toMap());
+	}
+
+	/**
+	 * Queues a job.
+	 *
+	 * @param dir the analysis directory
+	 * @param parameterLines the parameters, or null to read them from the directory
+	 * @return the job, or null if the queue is full
+	 */
+	public Job submit(String dir, List<String> parameterLines)
+	{
+		prune();
+
+		Job job = new Job(String.valueOf(jobCounter.incrementAndGet()), dir, parameterLines);
+
+		synchronized (job)
+		{
+			try
+			{
+				job.future = workers.submit(() -> execute(job));
+			}
+			catch (RejectedExecutionException e)
+			{
+				return null;
+			}
+		}
+
+		jobs.put(job.id, job);
+		return job;
+	}
+
+	/**
+	 * Forgets the finished jobs that are older than the retention period, and the oldest ones above the limit.
+	 */
+	private void prune()
+	{
+		long now = System.currentTimeMillis();
+		List<Job> finished = jobs.values().stream().filter(job -> job.finished > 0)
+			.sorted(Comparator.comparingLong(job -> job.finished)).collect(Collectors.toList());
+
+		int excess = finished.size() - maxFinishedJobs;
+		for (Job job : finished)
+		{
+			if (excess-- > 0 || (retentionMillis > 0 && now - job.finished > retentionMillis)) jobs.remove(job.id);
+		}
+	}
+
+	private void execute(Job job)
+	{
+		job.started = System.currentTimeMillis();
+		job.status = Status.RUNNING;
+
+		ScheduledFuture<?> timeout = null;
+		if (timeoutSeconds > 0)
+		{
+			timeout = timer.schedule(() ->
+			{
+				job.timedOut = true;
+				synchronized (job)
+				{
+					job.future.cancel(true);
+				}
+			}, timeoutSeconds, TimeUnit.SECONDS);
+		}
+
+		try
+		{
+			CausalPath cp = job.parameterLines == null ? new CausalPath(job.directory) :
+				new CausalPath(job.directory, job.parameterLines);
+			cp.run();
+			job.status = Status.DONE;
+		}
+		catch (Exception e)
+		{
+			job.error = String.valueOf(e.getMessage());
+			job.status = job.timedOut ? Status.TIMED_OUT : Status.FAILED;
+			if (!job.timedOut) e.printStackTrace();
+		}
+		finally
+		{
+			if (timeout != null) timeout.cancel(false);
+
+			// Do not carry the interrupt of a timed out job to the next one
+			Thread.interrupted();
+
+			job.finished = System.currentTimeMillis();
+			job.end.countDown();
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException
+	{
+		Map<String, String> map = new HashMap<>();
+		if (query == null) return map;
+
+		for (String pair : query.split("&"))
+		{
+			int i = pair.indexOf('=');
+			if (i < 0) map.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else map.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"),
+				URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+		}
+		return map;
+	}
+
+	private static Map<String, Object> error(String message)
+	{
+		return Collections.singletonMap("error", message);
+	}
+
+	private static void respond(HttpExchange exchange, int code, Map<String, ?> body) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		JsonUtils.writePrettyPrint(writer, body);
+		byte[] bytes = writer.toString().getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+}
@@ -12,27 +12,24 @@ import org.panda.causalpath.network.RelationType;
 
 
 import org.panda.causalpath.resource.*;
-import org.panda.resource.HGNC;
-import org.panda.resource.ResourceDirectory;
-import org.panda.resource.siteeffect.PhosphoSitePlus;
-import org.panda.resource.siteeffect.Signor;
-import org.panda.resource.siteeffect.SiteEffectCollective;
 import org.panda.resource.siteeffect.Feature;
 import org.panda.resource.tcga.ProteomicsFileRow;
 import org.panda.utility.ArrayUtil;
 import org.panda.utility.BooleanMatrixRandomizer;
 import org.panda.utility.FileUtil;
 import org.panda.utility.RandomizedMatrices;
-import org.panda.utility.statistics.FDR;
 import org.panda.utility.statistics.FishersExactTest;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This method is built to handle running the causality analysis using its jar file and pointing it to a related
@@ -51,6 +48,8 @@ public class CausalPath
 	public static final String CONFLICTING_RESULT_FILE_PREFIX = "conflicting";
 	public static final String UNKNOWN_SITE_EFFECT_FILENAME = "unknown-site-effects.txt";
 	public static final String SIGNIFICANCE_FILENAME = "significance-pvals.txt";
+	public static final String SIGNIFICANCE_CHECKPOINT_FILENAME = "significance-checkpoint.bin";
+	public static final String SIGNIFICANCE_COUNTS_FILENAME = "significance-counts.bin";
 	public static final String VALUE_CHANGES_FILENAME = "value-changes.txt";
 	public static final String RESULTS_FILENAME = "results.txt";
 
@@ -59,6 +58,11 @@ public class CausalPath
 	 */
 	private String directory;
 
+	/**
+	 * Reference resources of this analysis.
+	 */
+	private ResourceContext resourceContext = ResourceContext.getDefault();
+
 	/**
 	 * Name of the proteomics platform file. Can be the same with the values file.
 	 */
@@ -201,6 +205,11 @@ public class CausalPath
 	 */
 	private Double defaultMissingValue = null;
 
+	/**
+	 * Whether to keep the parsed proteomics rows in a cache next to the values file, to skip parsing at later runs.
+	 */
+	private boolean useDatasetCache = false;
+
 	/**
 	 * Parameter for calculating network significances. If this is true, then <code>permutationCount</code> should also
 	 * be set.
@@ -212,6 +221,53 @@ public class CausalPath
 	 */
 	private int permutationCount = 1000;
 
+	/**
+	 * Number of threads to use in the computation intensive parts of the analysis.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Seed for the randomizations. Results are reproducible when this is set.
+	 */
+	private Long randomSeed;
+
+	/**
+	 * When set, network significance randomizations use sequential stopping, where a p-value is finalized after this
+	 * many randomizations are as extreme as the observation.
+	 */
+	private int permutationExceedanceLimit;
+
+	/**
+	 * Minimum number of seconds between two checkpoints of network significance randomizations. Zero turns off
+	 * checkpoints.
+	 */
+	private int permutationCheckpointInterval = 600;
+
+	/**
+	 * Checkpoint files of network significance randomizations that were run as separate processes, to be merged.
+	 */
+	private List<String> significanceShardFiles;
+
+	/**
+	 * FDR levels to generate results for in one run, each in its own subdirectory.
+	 */
+	private List<Double> fdrSweepLevels;
+
+	/**
+	 * Directory of the output files, if different from the analysis directory.
+	 */
+	private String outputDirectory;
+
+	/**
+	 * Memory limit in megabytes for remembering correlation signs during randomizations.
+	 */
+	private int correlationCacheMemoryLimit = 256;
+
+	/**
+	 * Directory of the files that keep the numeric data values off the heap. Null if the values are kept on the heap.
+	 */
+	private String mappedDataDirectory;
+
 	/**
 	 * The directory that contains rna expression, copy number alterations and mutations, if that is a tcga analysis.
 	 */
@@ -322,12 +378,27 @@ public class CausalPath
 		this.directory = directory;
 		this.cs = new CausalitySearcher(true);
 
-		readParameters();
+		readParameters(Files.lines(Paths.get(adjustFileLocation(PARAMETER_FILENAME))));
 	}
 
-	private void readParameters() throws IOException
+	/**
+	 * Constructor with the parameters in memory, instead of the parameters file. The directory is still used for
+	 * resolving the input files and writing the outputs.
+	 *
+	 * @param directory the analysis directory
+	 * @param parameterLines lines in the format of the parameters file
+	 */
+	public CausalPath(String directory, List<String> parameterLines)
 	{
-		Files.lines(Paths.get(adjustFileLocation(PARAMETER_FILENAME))).filter(l -> !l.trim().startsWith("#"))
+		this.directory = directory;
+		this.cs = new CausalitySearcher(true);
+
+		readParameters(parameterLines.stream());
+	}
+
+	private void readParameters(Stream<String> lines)
+	{
+		lines.filter(l -> !l.trim().startsWith("#"))
 			.filter(l -> !l.isEmpty())
 			.map(l -> new String[]{l.substring(0, l.indexOf("=")).trim(), l.substring(l.indexOf("=") + 1).trim()})
 			.forEach(t -> setParameter(t[0], t[1]));
@@ -381,14 +452,8 @@ public class CausalPath
 		}
 		else vals.addAll(valueColumn);
 
-		// Read platform file
-		List<ProteomicsFileRow> rows = ProteomicsFileReader.readAnnotation(
-			adjustFileLocation(proteomicsPlatformFile),
-			IDColumn, symbolsColumn, sitesColumn, featureColumn, effectColumn);
-
-		// Read values
-		ProteomicsFileReader.addValues(rows, adjustFileLocation(proteomicsValuesFile),
-			IDColumn, vals, defaultMissingValue, doLogTransfrorm);
+		// Read platform file and values, and fill-in missing effects
+		List<ProteomicsFileRow> rows = readProteomicsDataset(proteomicsPlatformFile, proteomicsValuesFile, vals);
 
 		// Add activity changes from a tf activity analysis
 		readTFActivityFile(rows);
@@ -396,12 +461,8 @@ public class CausalPath
 		// Add activity changes from parameters file
 		addActivityChangesFromParametersFile(rows);
 
-		// Fill-in missing effects
-		SiteEffectCollective sec = new SiteEffectCollective();
-
-		sec.fillInMissingEffect(rows, siteEffectProximityThreshold);
-
 		ProteomicsLoader loader = new ProteomicsLoader(rows, stDevThresholds);
+		loader.setResourceContext(resourceContext);
 
 		if (proteomicsRepeatValuesFiles != null)
 		{
@@ -409,14 +470,8 @@ public class CausalPath
 
 			for (String file : proteomicsRepeatValuesFiles)
 			{
-				// Read platform file
-				rows = ProteomicsFileReader.readAnnotation(
-					adjustFileLocation(noPlatform ? file : proteomicsPlatformFile),
-					IDColumn, symbolsColumn, sitesColumn, featureColumn, effectColumn);
-
-				// Read values
-				ProteomicsFileReader.addValues(rows, adjustFileLocation(file),
-					IDColumn, vals, defaultMissingValue, doLogTransfrorm);
+				// Read platform file and values
+				rows = readProteomicsRows(noPlatform ? file : proteomicsPlatformFile, file, vals);
 
 				ensureProteomicIDUniqueness(rows);
 				loader.addRepeatData(rows, stDevThresholds);
@@ -424,13 +479,16 @@ public class CausalPath
 		}
 
 		if (testMissingValues) loader.initMissingDataForProteins();
+		if (mappedDataDirectory != null) loader.mapValues(getMappedDataFile("proteomics"));
 //		loader.printStDevHistograms();
 
+		checkInterrupted();
+
 		// Load signed relations
 		Set<Relation> relations = customCausalPriorsFile != null ?
 			NetworkLoader.load(adjustFileLocation(customCausalPriorsFile)) :
-			networkSelection == null ? NetworkLoader.load() :
-			NetworkLoader.load(NetworkLoader.ResourceType.getSelectedResources(networkSelection));
+			networkSelection == null ? NetworkLoader.load(resourceContext) :
+			NetworkLoader.load(NetworkLoader.ResourceType.getSelectedResources(networkSelection), resourceContext);
 
 		// Add additional custom priors
 		if (additionalCustomPriorFiles != null)
@@ -567,36 +625,79 @@ public class CausalPath
 //		System.exit(0);
 		//---END OF DEBUG
 
-		// Search causal or conflicting relations
-		Set<Relation> causal = cs.run(relations);
+		checkInterrupted();
+
+		// Compile the decorated network for the searches
+		CompiledNetwork network = new CompiledNetwork(relations, cs);
+
+		// Search causal and conflicting relations
+		CausalityResults results;
 
 //		cs.writePairsUsedForInferenceWithCorrelations("/home/ozgun/Documents/Temp/before.txt");
 
+		if (controlFDR && fdrSweepLevels != null)
+		{
+			runFDRSweep(relations, useCorrelation, network);
+			return;
+		}
+
 		if (controlFDR)
 		{
-			adjustPvalThresholdToFDR(relations, useCorrelation, corrDet, cs.copy(), cs.getDataUsedForInference(),
-				cs.getPairsUsedForInference(), causal);
-			causal = cs.run(relations);
+			// Only the relations touching the data whose significance changes with the new thresholds are searched again
+			IncrementalSearch search = cs.isCandidateDataValueDependent() ? null : new IncrementalSearch(network, cs);
+			results = search == null ? cs.runCausalAndConflicting(network) : search.getResults();
+
+			adjustPvalThresholdToFDR(useCorrelation, corrDet, results);
+
+			if (search != null)
+			{
+				System.out.println("Relations searched again after FDR adjustment = " + search.update());
+				results = search.getResults();
+			}
+			else
+			{
+				network = new CompiledNetwork(relations, cs);
+				results = cs.runCausalAndConflicting(network);
+			}
 //			cs.writePairsUsedForInferenceWithCorrelations("/home/ozgun/Documents/Temp/after.txt");
 		}
+		else results = cs.runCausalAndConflicting(network);
 
 //		loader.printStDevHistograms(cs.getDataUsedForInference());
 
+		writeOutputs(relations, useCorrelation, results, true);
+	}
+
+	/**
+	 * Calculates the network significance if opted for, and writes the result networks.
+	 *
+	 * @param relations the decorated relations
+	 * @param useCorrelation whether the analysis is correlation-based
+	 * @param results the causal and conflicting relations
+	 * @param canAddSignificanceAsData whether the network significance can be added as data and the search repeated
+	 */
+	private void writeOutputs(Set<Relation> relations, boolean useCorrelation, CausalityResults results,
+		boolean canAddSignificanceAsData) throws IOException
+	{
+		checkInterrupted();
+
 		// Significance calculation
 		NetworkSignificanceCalculator nsc = calculateNetworkSignificance(relations, useCorrelation, cs.copy());
 
 		// Add network significance as data if opted for
 
-		if (nsc != null && !useCorrelation && useNetworkSignificanceForCausalReasoning)
+		if (nsc != null && !useCorrelation && useNetworkSignificanceForCausalReasoning && canAddSignificanceAsData)
 		{
 			if (addNetworkSignificanceAsData(relations, (NSCForComparison) nsc))
 			{
 				// Run the inference again with new activity data
-				causal = cs.run(relations);
+				results = cs.runCausalAndConflicting(new CompiledNetwork(relations, cs));
 			}
 		}
 
-		cs.writeResults(adjustFileLocation(RESULTS_FILENAME));
+		cs.writeResults(outputFile(RESULTS_FILENAME));
+
+		Set<Relation> causal = results.getCausal();
 
 		int causativeSize = causal.size();
 		System.out.println("Causative relations = " + causativeSize);
@@ -608,8 +709,8 @@ public class CausalPath
 
 		if (useCorrelation)
 		{
-			writer.setExperimentDataToDraw(cs.getPairsUsedForInference().stream().flatMap(Collection::stream)
-				.collect(Collectors.toSet()));
+			writer.setExperimentDataToDraw(results.getPairsUsedForInference(true).stream()
+				.flatMap(Collection::stream).collect(Collectors.toSet()));
 		}
 		else
 		{
@@ -621,40 +722,41 @@ public class CausalPath
 			}
 			else if (hideDataNotPartOfCausalRelations)
 			{
-				writer.setExperimentDataToDraw(cs.getDataUsedForInference());
+				writer.setExperimentDataToDraw(results.getDataUsedForInference(true));
 			}
 		}
 
+		checkInterrupted();
+
 		// Generate output
-		writer.writeSIFGeneCentric(adjustFileLocation(CAUSATIVE_RESULT_FILE_PREFIX));
-		writer.writeJSON(adjustFileLocation(CAUSATIVE_RESULT_FILE_PREFIX));
+		writer.writeSIFGeneCentric(outputFile(CAUSATIVE_RESULT_FILE_PREFIX));
+		writer.writeJSON(outputFile(CAUSATIVE_RESULT_FILE_PREFIX));
 		if (generateDataCentricGraph)
 		{
-			writer.writeSIFDataCentric(adjustFileLocation(CAUSATIVE_RESULT_FILE_DATA_CENTRIC_PREFIX),
-				cs.getInferenceUnits());
+			writer.writeSIFDataCentric(outputFile(CAUSATIVE_RESULT_FILE_DATA_CENTRIC_PREFIX),
+				results.getInferenceUnits(true));
 		}
 
 		// Note the sites with unknown effect whose determination will improve the results
-		writeSitesToCurate(cs.getDataNeedsAnnotation());
+		writeSitesToCurate(results.getDataNeedsAnnotation());
 
 		// Do the same for conflicting relations
 
-		cs.setCausal(false);
-		Set<Relation> conflicting =  cs.run(relations);
+		Set<Relation> conflicting = results.getConflicting();
 		int conflictSize = conflicting.size();
 		System.out.println("Conflicting relations = " + conflictSize);
 
 		writer = new GraphWriter(conflicting, null);
 		writer.setUseGeneBGForTotalProtein(!useCorrelation);
 		writer.setColorSaturationValue(colorSaturationValue);
-		if (!showInsignificantData) writer.setExperimentDataToDraw(cs.getDataUsedForInference());
+		if (!showInsignificantData) writer.setExperimentDataToDraw(results.getDataUsedForInference(false));
 		if (useCorrelation)
 		{
-			writer.setExperimentDataToDraw(cs.getPairsUsedForInference().stream().flatMap(Collection::stream)
-				.collect(Collectors.toSet()));
+			writer.setExperimentDataToDraw(results.getPairsUsedForInference(false).stream()
+				.flatMap(Collection::stream).collect(Collectors.toSet()));
 		}
-		writer.writeSIFGeneCentric(adjustFileLocation(CONFLICTING_RESULT_FILE_PREFIX));
-		writer.writeJSON(adjustFileLocation(CONFLICTING_RESULT_FILE_PREFIX));
+		writer.writeSIFGeneCentric(outputFile(CONFLICTING_RESULT_FILE_PREFIX));
+		writer.writeJSON(outputFile(CONFLICTING_RESULT_FILE_PREFIX));
 
 		// Report conflict/causal ratio
 		if (causativeSize > 0)
@@ -668,6 +770,157 @@ public class CausalPath
 //		System.out.println("hypothetical propagation accuracy = " + accuracy);
 	}
 
+	/**
+	 * Generates the results for each FDR level of the sweep, in a subdirectory named after the level. The p-values are
+	 * calculated and sorted once. Levels are processed in increasing order, so the significant data of a level include
+	 * the ones of the previous level, and each search revisits only the relations touching the newly significant data.
+	 */
+	private void runFDRSweep(Set<Relation> relations, boolean useCorrelation, CompiledNetwork network)
+		throws IOException
+	{
+		if (useCorrelation || fdrThresholdForDataSignificance == null)
+		{
+			throw new RuntimeException("FDR sweep can be used only with the FDR threshold for data significance.");
+		}
+		if (cs.isCandidateDataValueDependent())
+		{
+			throw new RuntimeException("FDR sweep cannot be used when the candidate data depend on the data values.");
+		}
+		if (useNetworkSignificanceForCausalReasoning)
+		{
+			System.out.println("Network significance is not added as data during the FDR sweep.");
+		}
+
+		IncrementalSearch search = new IncrementalSearch(network, cs);
+
+		FDRAdjuster fad = new FDRAdjuster(directory, poolProteomicsForFDRAdjustment);
+		List<FDRAdjuster.SortedPValues> sorted = getDataForFDRAdjustment(search.getResults()).stream()
+			.map(fad::sortPValues).collect(Collectors.toList());
+
+		List<Double> levels = fdrSweepLevels.stream().distinct().sorted().collect(Collectors.toList());
+
+		for (Double level : levels)
+		{
+			checkInterrupted();
+			System.out.println("\nFDR level = " + level);
+
+			Map<DataType, Double> fdrMap = new HashMap<>();
+			fdrThresholdForDataSignificance.keySet().forEach(type -> fdrMap.put(type, level));
+			sorted.forEach(s -> fad.adjustPValueThresholds(s, fdrMap));
+
+			System.out.println("Relations searched again = " + search.update());
+
+			outputDirectory = directory + File.separator + "fdr-" + level;
+			Files.createDirectories(Paths.get(outputDirectory));
+
+			try
+			{
+				writeOutputs(relations, false, search.getResults(), false);
+			}
+			finally
+			{
+				outputDirectory = null;
+			}
+		}
+	}
+
+	/**
+	 * Gets the data whose p-value thresholds are adjusted for FDR control. These are the data used in the causal and
+	 * conflicting relations, and separately, the data of the other FDR-controlled types on the tested relations.
+	 */
+	private List<Set<ExperimentData>> getDataForFDRAdjustment(CausalityResults results)
+	{
+		Set<ExperimentData> datas = results.getDataUsedForInference(true);
+		datas.addAll(results.getDataUsedForInference(false));
+
+		Set<Relation> testedRels = new HashSet<>(results.getConflicting());
+		testedRels.addAll(results.getCausal());
+
+		// DEBUG---------------
+		System.out.println("Size of relations actually tested = " + testedRels.size());
+//		saveRels(testedRels);
+		// DEBUG---------------
+
+		List<Set<ExperimentData>> list = new ArrayList<>();
+		list.add(datas);
+
+		// fdr adjust other data types on the nodes
+		Set<DataType> selectiveTypes = datas.stream().map(ExperimentData::getType).collect(Collectors.toSet());
+		Set<DataType> otherTypes = fdrThresholdForDataSignificance.keySet().stream()
+			.filter(t -> !selectiveTypes.contains(t)).collect(Collectors.toSet());
+
+		if (!otherTypes.isEmpty())
+		{
+			list.add(testedRels.stream().map(Relation::getAllData).flatMap(Collection::stream)
+				.filter(d -> otherTypes.contains(d.getType())).collect(Collectors.toSet()));
+		}
+		return list;
+	}
+
+	/**
+	 * Reads the proteomics rows and fills in their missing site effects. If the dataset cache is on, the rows are loaded
+	 * from the cache when the files and the parsing parameters did not change.
+	 */
+	private List<ProteomicsFileRow> readProteomicsDataset(String platformFile, String valuesFile, List<String> vals)
+		throws IOException
+	{
+		Path cacheFile = null;
+		String key = null;
+
+		if (useDatasetCache)
+		{
+			cacheFile = ProteomicsDatasetCache.getFile(adjustFileLocation(valuesFile));
+
+			// Rows are cached after their site effects are filled in, hence the site effect sources are in the key
+			List<String> files = new ArrayList<>(Arrays.asList(adjustFileLocation(platformFile),
+				adjustFileLocation(valuesFile)));
+			resourceContext.getSiteEffectFiles().forEach(file -> files.add(file.toString()));
+
+			key = ProteomicsDatasetCache.getKey(Arrays.asList(IDColumn, symbolsColumn, sitesColumn, featureColumn,
+				effectColumn, vals, doLogTransfrorm, defaultMissingValue, siteEffectProximityThreshold,
+				resourceContext.getKey()), files.toArray(new String[0]));
+
+			List<ProteomicsFileRow> rows = ProteomicsDatasetCache.load(cacheFile, key);
+			if (rows != null) return rows;
+		}
+
+		List<ProteomicsFileRow> rows = readProteomicsRows(platformFile, valuesFile, vals);
+		resourceContext.fillInMissingEffect(rows, siteEffectProximityThreshold);
+
+		if (useDatasetCache) ProteomicsDatasetCache.save(cacheFile, key, rows);
+		return rows;
+	}
+
+	/**
+	 * Reads the annotation and the values of proteomics rows. When both are in the same file, it is read in a single
+	 * pass.
+	 */
+	private List<ProteomicsFileRow> readProteomicsRows(String platformFile, String valuesFile, List<String> vals)
+		throws IOException
+	{
+		if (platformFile.equals(valuesFile))
+		{
+			return ProteomicsFileReader.readRows(adjustFileLocation(valuesFile),
+				IDColumn, symbolsColumn, sitesColumn, featureColumn, effectColumn, vals, doLogTransfrorm, threads);
+		}
+
+		List<ProteomicsFileRow> rows = ProteomicsFileReader.readAnnotation(adjustFileLocation(platformFile),
+			IDColumn, symbolsColumn, sitesColumn, featureColumn, effectColumn);
+
+		ProteomicsFileReader.addValues(rows, adjustFileLocation(valuesFile),
+			IDColumn, vals, defaultMissingValue, doLogTransfrorm);
+
+		return rows;
+	}
+
+	/**
+	 * Stops the analysis if its thread is interrupted, e.g. when it times out in the daemon mode.
+	 */
+	private static void checkInterrupted()
+	{
+		if (Thread.currentThread().isInterrupted()) throw new RuntimeException("Analysis is interrupted.");
+	}
+
 	private void ensureProteomicIDUniqueness(List<ProteomicsFileRow> rows)
 	{
 		Map<String, ProteomicsFileRow> map = new HashMap<>();
@@ -732,14 +985,14 @@ public class CausalPath
 				if (geneMap.get(id) == 1 || geneMap.get(id) == 0)
 				{
 					ActivityData data = new ActivityData(id + "-active-by-network-sig", id);
-					data.data = new SingleCategoricalData[]{new Activity(1)};
+					data.categories = new byte[]{1};
 					data.setChDet(chDet);
 					gene.add(data);
 				}
 				if (geneMap.get(id) == -1 || geneMap.get(id) == 0)
 				{
 					ActivityData data = new ActivityData(id + "-inactive-by-network-sig", id);
-					data.data = new SingleCategoricalData[]{new Activity(-1)};
+					data.categories = new byte[]{-1};
 					data.setChDet(chDet);
 					gene.add(data);
 				}
@@ -759,13 +1012,14 @@ public class CausalPath
 			if (useCorrelation)
 			{
 				nsc = new NSCForCorrelation(relations, cs);
+				((NSCForCorrelation) nsc).setCorrelationCacheMemoryLimit(correlationCacheMemoryLimit * (1L << 20));
 			}
 			else
 			{
 				nsc = new NSCForComparison(relations, cs);
 			}
 
-			String outFile = adjustFileLocation(SIGNIFICANCE_FILENAME);
+			String outFile = outputFile(SIGNIFICANCE_FILENAME);
 
 			if (Files.exists(Paths.get(outFile)))
 			{
@@ -774,59 +1028,56 @@ public class CausalPath
 			else
 			{
 				nsc.setMinimumPotentialTargetsToConsider(minimumPotentialTargetsToConsiderForDownstreamSignificance);
+				nsc.setThreads(threads);
+				if (randomSeed != null) nsc.setSeed(randomSeed);
+				if (permutationExceedanceLimit > 0)
+				{
+					nsc.setAdaptive(permutationExceedanceLimit, fdrThresholdForNetworkSignificance);
+				}
+				if (permutationCheckpointInterval > 0)
+				{
+					nsc.setCheckpoint(outputFile(SIGNIFICANCE_CHECKPOINT_FILENAME),
+						permutationCheckpointInterval);
+				}
+				if (significanceShardFiles != null)
+				{
+					nsc.setShards(significanceShardFiles.stream().map(this::adjustFileLocation)
+						.collect(Collectors.toList()));
+				}
 				nsc.run(permutationCount);
 				nsc.writeResults(outFile);
+				nsc.finishCheckpoint(outputFile(SIGNIFICANCE_COUNTS_FILENAME));
 			}
 
 			nsc.setFDRThreshold(fdrThresholdForNetworkSignificance);
-			System.out.println("Graph size pval = " + nsc.getOverallGraphSizePval());
+			System.out.println("Graph size pval = " + nsc.getOverallGraphSizePval() +
+				(nsc.isAdaptive() && nsc.getGraphSizeIterations() > 0 ?
+				" (" + nsc.getGraphSizeIterations() + " iterations)" : ""));
 		}
 		return nsc;
 	}
 
-	public void adjustPvalThresholdToFDR(Set<Relation> relations, boolean useCorrelation, CorrelationDetector corrDet,
-		CausalitySearcher cs, Set<ExperimentData> datas, Set<List<ExperimentData>> pairs, Set<Relation> relsfromFirstRun)
+	/**
+	 * Adjusts the significance thresholds of the data to the desired FDR, using the data that are tested during the
+	 * search of causal and conflicting relations.
+	 */
+	public void adjustPvalThresholdToFDR(boolean useCorrelation, CorrelationDetector corrDet, CausalityResults results)
 		throws IOException
 	{
-
-		datas = new HashSet<>(datas);
-		pairs = new HashSet<>(pairs);
-
-		cs.setCausal(false);
-		cs.setCollectDataUsedForInference(true);
-		Set<Relation> testedRels = cs.run(relations);
-		testedRels.addAll(relsfromFirstRun);
-
-		// DEBUG---------------
-		System.out.println("Size of relations actually tested = " + testedRels.size());
-//		saveRels(testedRels);
-		// DEBUG---------------
-
-		datas.addAll(cs.getDataUsedForInference());
-		pairs.addAll(cs.getPairsUsedForInference());
-		cs.setCausal(true);
 		if (useCorrelation)
 		{
+			Set<List<ExperimentData>> pairs = results.getPairsUsedForInference(true);
+			pairs.addAll(results.getPairsUsedForInference(false));
+
 			FDRAdjusterForCorrelation fad = new FDRAdjusterForCorrelation(directory, pairs, corrDet);
 			fad.adjustPValueThresholdsForFDR(fdrThresholdForCorrelation);
 		}
 		else
 		{
 			FDRAdjuster fad = new FDRAdjuster(directory, poolProteomicsForFDRAdjustment);
-			fad.adjustPValueThresholdsOfDatas(datas, fdrThresholdForDataSignificance);
-
-			// fdr adjust other data types on the nodes
-			Set<DataType> selectiveTypes = datas.stream().map(ExperimentData::getType).collect(Collectors.toSet());
-			Set<DataType> otherTypes = fdrThresholdForDataSignificance.keySet().stream()
-				.filter(t -> !selectiveTypes.contains(t)).collect(Collectors.toSet());
-
-			if (!otherTypes.isEmpty())
+			for (Set<ExperimentData> datas : getDataForFDRAdjustment(results))
 			{
-				Set<ExperimentData> otherData = testedRels.stream().map(Relation::getAllData).flatMap(Collection::stream)
-					.collect(Collectors.toSet());
-				otherData = otherData.stream().filter(d -> otherTypes.contains(d.getType())).collect(Collectors.toSet());
-
-				fad.adjustPValueThresholdsOfDatas(otherData, fdrThresholdForDataSignificance);
+				fad.adjustPValueThresholdsOfDatas(datas, fdrThresholdForDataSignificance);
 			}
 		}
 	}
@@ -865,6 +1116,7 @@ public class CausalPath
 			}
 
 			tcga.decorateRelations(relations);
+			if (mappedDataDirectory != null) tcga.mapValues(getMappedDataFile("tcga"));
 
 			tcga.associateChangeDetector(getOneDataChangeDetector(DataType.DNA_CNA, ctrl, test, null), data -> data instanceof CNAData);
 			tcga.associateChangeDetector(getOneDataChangeDetector(DataType.RNA, ctrl, test, null), data -> data instanceof RNAData);
@@ -879,6 +1131,7 @@ public class CausalPath
 			RNALoader loader = new RNALoader(adjustFileLocation(rnaExpressionFile));
 			loader.setSamples(vals.toArray(new String[vals.size()]));
 			loader.decorateRelations(relations);
+			if (mappedDataDirectory != null) loader.mapValues(getMappedDataFile("rna"));
 			loader.associateChangeDetector(getOneDataChangeDetector(DataType.RNA, ctrl, test, null), data -> data instanceof RNAData);
 		}
 	}
@@ -948,6 +1201,7 @@ public class CausalPath
 			// make everything significant. And FDR correction will be applied later.
 			detector = new SignificanceDetector(fdrThresholdForDataSignificance == null ?
 				thresholdForDataSignificance.get(type) : 1, ctrl, test);
+			((SignificanceDetector) detector).setThreads(threads);
 
 			if (transformation == ValueTransformation.SIGNIFICANT_CHANGE_OF_MEAN_PAIRED)
 			{
@@ -999,7 +1253,7 @@ public class CausalPath
 		}
 
 		BufferedWriter writer = Files.newBufferedWriter(
-			Paths.get(adjustFileLocation(UNKNOWN_SITE_EFFECT_FILENAME)));
+			Paths.get(outputFile(UNKNOWN_SITE_EFFECT_FILENAME)));
 
 		sites.stream().sorted().forEach(s -> FileUtil.writeln(s, writer));
 
@@ -1036,16 +1290,15 @@ public class CausalPath
 					sigDet.setCategDataSufficiencyThreshold(missingValueTestDataSufficiencyThreshold);
 				}
 
-				Map<ExperimentData, Double> pvals = datas.stream().filter(d -> d.getClass().equals(clazz))
-					.collect(Collectors.toMap(d -> d, sigDet::getPValue));
-
-				Map<ExperimentData, Double> qvals = FDR.getQVals(pvals, null);
+				List<ExperimentData> list = datas.stream().filter(d -> d.getClass().equals(clazz))
+					.collect(Collectors.toList());
+				double[] pvals = list.stream().mapToDouble(sigDet::getPValue).toArray();
+				double[] qvals = new BenjaminiHochberg(pvals, threads > 1).getQValues();
 
 				writer.write("\nRow ID\tChange amount\tP-value\tQ-value");
-				datas.stream().filter(d -> d.getClass().equals(clazz))
-					.sorted(Comparator.comparing(pvals::get)).forEach(d ->
-					FileUtil.lnwrite(d.id + "\t" + d.getChangeValue() + "\t" + pvals.get(d) + "\t" + qvals.get(d),
-						writer));
+				IntStream.range(0, pvals.length).boxed().sorted(Comparator.comparingDouble(i -> pvals[i]))
+					.forEach(i -> FileUtil.lnwrite(list.get(i).id + "\t" + list.get(i).getChangeValue() + "\t" +
+						pvals[i] + "\t" + qvals[i], writer));
 			}
 			else
 			{
@@ -1059,39 +1312,22 @@ public class CausalPath
 	}
 
 	/**
-	 * Loads HGNC symbols if provided as a file. This is good for reproducibility.
-	 * @param file name of the file
+	 * Gets the location of an output file, which is in the analysis directory unless another output directory is set.
 	 */
-	private void loadHGNC(String file)
+	private String outputFile(String file)
 	{
-		try
-		{
-			HGNC.initSingletonWith(Files.lines(Paths.get(adjustFileLocation(file))));
-		}
-		catch (IOException e)
-		{
-			throw new RuntimeException(e);
-		}
+		if (outputDirectory == null || file.startsWith(File.separator)) return adjustFileLocation(file);
+		return outputDirectory + File.separator + file;
 	}
 
 	/**
-	 * Loads site effects if provided as a file. This is good for reproducibility.
-	 * @param file name of the file
+	 * Gets the off-heap store file for the given kind of data.
 	 */
-	private void loadSiteEffectServers(String file)
+	private String getMappedDataFile(String name)
 	{
-		try
-		{
-			PhosphoSitePlus.initSingletonWith(Files.lines(Paths.get(adjustFileLocation(file))));
-			Signor.initSingletonEmpty();
-		}
-		catch (IOException e)
-		{
-			throw new RuntimeException(e);
-		}
+		return Paths.get(adjustFileLocation(mappedDataDirectory), name + "-values.bin").toString();
 	}
 
-
 	private String adjustFileLocation(String file)
 	{
 		if (file.startsWith(File.separator)) return file;
@@ -1667,7 +1903,7 @@ public class CausalPath
 				" a G-test for that row.",
 			new EntryType(Double.class), new String[][]{{"0.001"}}, true, false,
 			new Cond(USE_MISSING_PROTEOMIC_DATA_FOR_TEST.getText(), Boolean.TRUE)),
-		CUSTOM_RESOURCE_DIRECTORY((value, cp) -> ResourceDirectory.set(value),
+		CUSTOM_RESOURCE_DIRECTORY((value, cp) -> cp.resourceContext = cp.resourceContext.withResourceDirectory(value),
 			"Custom resource directory name",
 			"CausalPath downloads some data in the first run and stores in the resource directory. This directory is " +
 				"'.panda' by default. If this needs to be customized, use this parameter.",
@@ -1679,7 +1915,8 @@ public class CausalPath
 				"Firehose, and provide the directory here. The org.panda.resource.tcga.BroadDownloader in the project" +
 				" https://github.com/PathwayAndDataAnalysis/resource is a utility that can do that.",
 			new EntryType(String.class), null, false, false, new Cond(Logical.NOT)),
-		HGNC_FILE((value, cp) -> cp.loadHGNC(value),
+		HGNC_FILE((value, cp) ->
+			cp.resourceContext = cp.resourceContext.withHGNCFile(cp.adjustFileLocation(value)),
 			"HGNC data file",
 			"For reproducibility: Provide an HGNC resource file to reproduce a previous analysis.",
 			new EntryType(String.class), null, false, false, new Cond(Logical.NOT)),
@@ -1698,7 +1935,8 @@ public class CausalPath
 			"Additional custom causal priors file(s)",
 			"This is for inserting custom hypotheses in the form of relations.",
 			new EntryType(File.class), null, false, true, new Cond(Logical.NOT)),
-		CUSTOM_SITE_EFFECTS_FILE((value, cp) -> cp.loadSiteEffectServers(value),
+		CUSTOM_SITE_EFFECTS_FILE((value, cp) ->
+			cp.resourceContext = cp.resourceContext.withSiteEffectFile(cp.adjustFileLocation(value)),
 			"Custom site effects file",
 			"For reproducibility: Provide a custom file for site effects.",
 			new EntryType(File.class), null, false, false, new Cond(Logical.NOT)),
@@ -1709,6 +1947,80 @@ public class CausalPath
 			"Experimental parameter",
 			"For testing if RNA expression is a good proxy for protein activity.",
 			new EntryType(Boolean.class), null, false, false, new Cond(Logical.NOT)),
+		NUMBER_OF_THREADS((value, cp) ->
+		{
+			cp.threads = webServerMode ? 1 : Integer.valueOf(value);
+			cp.cs.setThreads(cp.threads);
+		},
+			"Number of threads",
+			"The number of threads to use in the computation intensive parts of the analysis, such as the causality " +
+				"search. The results do not depend on this parameter. Default is 1.",
+			new EntryType(Integer.class), new String[][]{{"1"}}, false, false, new Cond(Logical.NOT)),
+		RANDOM_SEED((value, cp) -> cp.randomSeed = Long.valueOf(value),
+			"Seed for the randomizations",
+			"When this parameter is set, the data randomizations for calculating network significance are " +
+				"reproducible, independent of the number of threads.",
+			new EntryType(Long.class), null, false, false, new Cond(Logical.NOT)),
+		PERMUTATION_EXCEEDANCE_LIMIT((value, cp) -> cp.permutationExceedanceLimit = Integer.valueOf(value),
+			"Exceedance limit for adaptive permutations",
+			"When this parameter is set, network significance randomizations stop early. A p-value is finalized " +
+				"after this many randomizations are as extreme as the observation, and the randomizations stop when " +
+				"the significance of every p-value at the network significance FDR threshold is certain. The number " +
+				"of randomizations each p-value is based on is reported in the significance file. 10 is a " +
+				"reasonable value.",
+			new EntryType(Integer.class), null, false, false, new Cond(Logical.NOT)),
+		CORRELATION_CACHE_MEMORY_LIMIT((value, cp) -> cp.correlationCacheMemoryLimit = Integer.valueOf(value),
+			"Memory limit for correlation cache (MB)",
+			"During the randomizations of a correlation-based analysis, correlation signs between data rows are " +
+				"calculated once and remembered within this limit. Pairs that do not fit are calculated on demand. " +
+				"Default is 256.",
+			new EntryType(Integer.class), new String[][]{{"256"}}, false, false, new Cond(Logical.NOT)),
+		PERMUTATION_CHECKPOINT_INTERVAL((value, cp) -> cp.permutationCheckpointInterval = Integer.valueOf(value),
+			"Checkpoint interval for permutations (seconds)",
+			"The state of network significance randomizations is saved to the file " +
+				SIGNIFICANCE_CHECKPOINT_FILENAME + " at most once in this interval. An interrupted analysis resumes " +
+				"from this file if the data and the parameters are the same. When the p-values are written, the file" +
+				" is renamed to " + SIGNIFICANCE_COUNTS_FILENAME + ". Use 0 to turn off checkpoints. Default is 600.",
+			new EntryType(Integer.class), new String[][]{{"600"}}, false, false, new Cond(Logical.NOT)),
+		SIGNIFICANCE_SHARDS((value, cp) ->
+		{
+			if (cp.significanceShardFiles == null) cp.significanceShardFiles = new ArrayList<>();
+			cp.significanceShardFiles.add(value);
+		},
+			"Shards of network significance randomizations",
+			"Randomizations can be run as separate processes on the same data with different random seeds. Each " +
+				"process leaves its counts in the file " + SIGNIFICANCE_COUNTS_FILENAME + " in its output directory. " +
+				"Provide these files to merge them into the final p-values, without running new randomizations.",
+			new EntryType(File.class), null, false, true, new Cond(Logical.NOT)),
+		FDR_SWEEP_LEVELS((value, cp) ->
+		{
+			if (cp.fdrSweepLevels == null) cp.fdrSweepLevels = new ArrayList<>();
+			for (String level : value.trim().split("\\s+"))
+			{
+				cp.fdrSweepLevels.add(Double.valueOf(level));
+			}
+		},
+			"FDR levels to sweep",
+			"Generates the results for each of these FDR levels in one run, instead of the single level given with " +
+				"the FDR threshold for data significance, which still selects the data types to control. Results of " +
+				"each level are written to a subdirectory named like 'fdr-0.05'. The value is a space-separated list " +
+				"of levels, such like '0.01 0.05 0.1 0.2'.",
+			new EntryType(String.class), null, false, false,
+			new Cond(Logical.NOT, new Cond(FDR_THRESHOLD_FOR_DATA_SIGNIFICANCE.getText(), null))),
+		USE_DATASET_CACHE((value, cp) -> cp.useDatasetCache = Boolean.valueOf(value),
+			"Cache the parsed proteomics data",
+			"When this parameter is true, the parsed proteomics rows, with their missing site effects filled in, are " +
+				"saved to a binary file next to the values file. Later runs load the rows from this file, as long as " +
+				"the data files and the parameters that affect parsing are the same. Changes in the resources of site " +
+				"effects are not detected, so the cache file should be deleted after such a change.",
+			new EntryType(Boolean.class), new Boolean[][]{{Boolean.FALSE}}, false, false, new Cond(Logical.NOT)),
+		MEMORY_MAPPED_DATA_DIRECTORY((value, cp) -> cp.mappedDataDirectory = value,
+			"Directory for memory-mapped data",
+			"When this parameter is set, the values of the numeric data are written once to binary files in this " +
+				"directory, and they are read from the memory-mapped files instead of being kept on the heap. This is " +
+				"for very large cohorts. Files are reused while the data do not change, and the analyses of the same " +
+				"data in different processes share them.",
+			new EntryType(File.class), null, false, false, new Cond(Logical.NOT)),
 		;
 
 		ParameterReader reader;
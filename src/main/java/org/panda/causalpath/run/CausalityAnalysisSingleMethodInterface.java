@@ -9,8 +9,7 @@ import org.panda.causalpath.network.Relation;
 import org.panda.causalpath.resource.NetworkLoader;
 import org.panda.causalpath.resource.ProteomicsFileReader;
 import org.panda.causalpath.resource.ProteomicsLoader;
-import org.panda.resource.ResourceDirectory;
-import org.panda.resource.siteeffect.SiteEffectCollective;
+import org.panda.causalpath.resource.ResourceContext;
 import org.panda.resource.tcga.ProteomicsFileRow;
 
 import java.io.IOException;
@@ -59,7 +58,8 @@ public class CausalityAnalysisSingleMethodInterface
 		int siteMatchProximityThreshold, int siteEffectProximityThreshold, boolean geneCentric,
 		double colorSaturationValue, String outputFilePrefix, String customNetworkDirectory) throws IOException
 	{
-		if (customNetworkDirectory != null) ResourceDirectory.set(customNetworkDirectory);
+		ResourceContext context = customNetworkDirectory == null ? ResourceContext.getDefault() :
+			ResourceContext.getDefault().withResourceDirectory(customNetworkDirectory);
 
 		// Read platform file
 		List<ProteomicsFileRow> rows = ProteomicsFileReader.readAnnotation(platformFile, idColumn, symbolsColumn,
@@ -70,11 +70,10 @@ public class CausalityAnalysisSingleMethodInterface
 		ProteomicsFileReader.addValues(rows, valuesFile, idColumn, vals, 0D, false);
 
 		// Fill-in missing effect
-		SiteEffectCollective sec = new SiteEffectCollective();
-		sec.fillInMissingEffect(rows, siteEffectProximityThreshold);
+		context.fillInMissingEffect(rows, siteEffectProximityThreshold);
 
 		generateCausalityGraph(rows, valueThreshold, graphType, doSiteMatch, siteMatchProximityThreshold,
-			geneCentric, colorSaturationValue, outputFilePrefix);
+			geneCentric, colorSaturationValue, outputFilePrefix, context);
 	}
 
 	/**
@@ -93,14 +92,26 @@ public class CausalityAnalysisSingleMethodInterface
 	public static void generateCausalityGraph(Collection<ProteomicsFileRow> rows, double valueThreshold,
 		String graphType, boolean doSiteMatch, int siteMatchProximityThreshold, boolean geneCentric,
 		double colorSaturationValue, String outputFilePrefix) throws IOException
+	{
+		generateCausalityGraph(rows, valueThreshold, graphType, doSiteMatch, siteMatchProximityThreshold,
+			geneCentric, colorSaturationValue, outputFilePrefix, ResourceContext.getDefault());
+	}
+
+	/**
+	 * For the given proteomics data, generates a ChiBE SIF graph, using the given reference resources.
+	 */
+	public static void generateCausalityGraph(Collection<ProteomicsFileRow> rows, double valueThreshold,
+		String graphType, boolean doSiteMatch, int siteMatchProximityThreshold, boolean geneCentric,
+		double colorSaturationValue, String outputFilePrefix, ResourceContext context) throws IOException
 	{
 		ProteomicsLoader loader = new ProteomicsLoader(rows, null);
+		loader.setResourceContext(context);
 		// Associate change detectors
 		loader.associateChangeDetector(new ThresholdDetector(valueThreshold, ThresholdDetector.AveragingMethod.ARITHMETIC_MEAN), data -> data instanceof ProteinData);
 		loader.associateChangeDetector(new ThresholdDetector(0.1, ThresholdDetector.AveragingMethod.ARITHMETIC_MEAN), data -> data instanceof ActivityData);
 
 		// Load signed relations
-		Set<Relation> relations = NetworkLoader.load();
+		Set<Relation> relations = NetworkLoader.load(context);
 		loader.decorateRelations(relations);
 
 		// Prepare causality searcher
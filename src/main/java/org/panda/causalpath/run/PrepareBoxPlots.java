@@ -54,8 +54,8 @@ public class PrepareBoxPlots
 					Files.createDirectories(Paths.get(dir));
 
 					String filename = dir + File.separator + numDat.getId() + ".txt";
-					List<Double> ctrl = getSubset(numDat.vals, comDet.getControl());
-					List<Double> test = getSubset(numDat.vals, comDet.getTest());
+					List<Double> ctrl = getSubset(numDat.getVals(), comDet.getControl());
+					List<Double> test = getSubset(numDat.getVals(), comDet.getTest());
 
 					BoxPlot.write(filename, new String[]{controlName, testName}, new List[]{ctrl, test});
 				}
@@ -1,5 +1,6 @@
 package org.panda.causalpath.run;
 
+import org.panda.causalpath.resource.NetworkLoader;
 import org.panda.utility.FileUtil;
 import org.panda.utility.RunUtil;
 
@@ -19,6 +20,9 @@ public class RunRecursive
 {
 	public static void main(String[] args) throws IOException, ClassNotFoundException
 	{
+		// Analyses load the same prior network only once
+		NetworkLoader.setSharePriors(true);
+
 		if (args.length > 1)
 		{
 			runMultiCore(args[0], Integer.parseInt(args[1]));